@@ -0,0 +1,230 @@
+import java.util.*;
+import java.io.*;
+import java.util.function.LongSupplier;
+import org.jsoup.Jsoup;
+
+
+/*------------------------------------------------------------------------------------
+	- The code the JMH benchmarks in bench/ measure
+	- JMH does not allow benchmarks in the default package, and a class in a package can not use the classes of the
+	  default package. So the benchmarks create these fixtures by name ( bench.Fixtures ) and call them as LongSupplier
+	- A fixture does its setup in the constructor, each getAsLong is one operation. The result only goes to the
+	  blackhole, so the work can not be optimized away
+	- The parameters are strings, the @Param values of the benchmark
+-------------------------------------------------------------------------------------*/
+public class BenchmarkFixtures
+{
+	// intersects a rare and a common synthetic list with the nextGEQ loop of runDAAT
+	// params: documents, fraction of the documents in the rare list, fraction in the common list
+	public static class Intersection implements LongSupplier
+	{
+		private QueryProcessor.InvertedIndex rare;
+		private QueryProcessor.InvertedIndex common;
+
+		public Intersection(String [] params)
+		{
+			int documents = Integer.parseInt(params[0]);
+			Random random = new Random(SyntheticCorpus.SEED);
+			QueryProcessor processor = new QueryProcessor();
+			Date date = new Date();
+			rare = PostingBenchmark.toIndex(processor,PostingBenchmark.randomList(random,documents,Double.parseDouble(params[1])),date);
+			common = PostingBenchmark.toIndex(processor,PostingBenchmark.randomList(random,documents,Double.parseDouble(params[2])),date);
+		}
+
+		public long getAsLong(){ return PostingBenchmark.intersect(rare,common); }
+	}
+
+	// scores every posting of the most common terms of the synthetic corpus with bm25
+	// params: documents, number of terms
+	public static class Scoring implements LongSupplier
+	{
+		private ArrayList<QueryProcessor.InvertedIndex> lists = new ArrayList<QueryProcessor.InvertedIndex>();
+		private int N;
+		private double avgDocumentLength;
+
+		public Scoring(String [] params) throws Exception
+		{
+			String dir = SyntheticCorpus.prepare(Integer.parseInt(params[0]));
+			QueryProcessor processor = new QueryProcessor();
+			processor.readDocuments(dir);
+			processor.readInvertedIndex(dir);
+
+			DocStore docs = DocStore.open(dir);
+			N = docs.getDocumentCount();
+			avgDocumentLength = docs.getTotalDocumentLength() / (double) N;
+
+			// the same generator gives the same words, so the ranks are the terms of the corpus
+			SyntheticCorpus corpus = new SyntheticCorpus(SyntheticCorpus.VOCABULARY,SyntheticCorpus.SEED);
+			for (int rank = 0; rank < Integer.parseInt(params[1]); ++rank)
+			{
+				QueryProcessor.InvertedIndex list = processor.getInvertedIndex(corpus.word(rank));
+				if (list != null)
+					lists.add(list);
+			}
+		}
+
+		public long getAsLong()
+		{
+			double sum = 0;
+			for (QueryProcessor.InvertedIndex list : lists)
+			{
+				for (int i = 0; i < list.getListSize(); ++i)
+					sum += list.score(i,N,avgDocumentLength);
+			}
+			return Double.doubleToLongBits(sum);
+		}
+	}
+
+	// adds candidates to a TopK in random, ascending ( every candidate replaces the worst result ) or descending
+	// ( no candidate after the first k gets in ) score order
+	// params: k, number of candidates, order
+	public static class TopKHeap implements LongSupplier
+	{
+		private QueryProcessor processor = new QueryProcessor();
+		private int k;
+		private double [] scores;
+
+		public TopKHeap(String [] params)
+		{
+			k = Integer.parseInt(params[0]);
+			scores = new double[Integer.parseInt(params[1])];
+			Random random = new Random(SyntheticCorpus.SEED);
+			for (int i = 0; i < scores.length; ++i)
+				scores[i] = random.nextDouble() * 20;
+			if (!params[2].equals("random"))
+			{
+				Arrays.sort(scores);
+				if (params[2].equals("descending"))
+				{
+					for (int i = 0; i < scores.length / 2; ++i)
+					{
+						double tmp = scores[i];
+						scores[i] = scores[scores.length - 1 - i];
+						scores[scores.length - 1 - i] = tmp;
+					}
+				}
+			}
+		}
+
+		public long getAsLong()
+		{
+			QueryProcessor.TopK heap = processor.new TopK(k);
+			heap.setGreater(true);
+			for (int i = 0; i < scores.length; ++i)
+				heap.add(i + 1,scores[i]);
+			return heap.size() + Double.doubleToLongBits(heap.threshold());
+		}
+	}
+
+	// reads the text index, parses the url table or maps the document store of the synthetic corpus
+	// params: documents, what ( index, urlTable, docStore )
+	public static class Load implements LongSupplier
+	{
+		private String dir;
+		private String what;
+		private String term;
+
+		public Load(String [] params) throws Exception
+		{
+			dir = SyntheticCorpus.prepare(Integer.parseInt(params[0]));
+			what = params[1];
+			term = new SyntheticCorpus(SyntheticCorpus.VOCABULARY,SyntheticCorpus.SEED).word(0);
+		}
+
+		public long getAsLong()
+		{
+			try{
+				if (what.equals("index"))
+				{
+					QueryProcessor processor = new QueryProcessor();
+					processor.readInvertedIndex(dir);
+					return processor.getInvertedIndex(term).getListSize();
+				}
+				if (what.equals("urlTable"))
+				{
+					DocStore.Builder builder = new DocStore.Builder();
+					builder.addUrlTable(dir + DocStore.urlTableFileName);
+					return builder.build().getDocumentCount();
+				}
+				return DocStore.open(dir).getDocumentCount();
+			}
+			catch(Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	// adds the words of every document of the synthetic corpus to a new index, the way IndexBuilder does
+	// the text is taken out of the html once, in the constructor
+	// params: documents
+	public static class Tokenize implements LongSupplier
+	{
+		private IndexBuilder builder = new IndexBuilder();
+		private Tokenizer tokenizer = new Tokenizer();
+		private ArrayList<String> texts = new ArrayList<String>();
+		private ArrayList<String> dates = new ArrayList<String>();
+
+		public Tokenize(String [] params) throws Exception
+		{
+			String dir = SyntheticCorpus.prepare(Integer.parseInt(params[0]));
+			for (String fileName : fileNames(dir))
+			{
+				org.jsoup.nodes.Document doc = Jsoup.parse(new File(dir + "New_York/" + fileName),"UTF-8");
+				texts.add(doc.body().getElementsByTag("p").text());
+				dates.add(doc.getElementById("mw-revision-date").text());
+			}
+		}
+
+		public long getAsLong()
+		{
+			HashMap<String,IndexBuilder.InvertedIndex> index = new HashMap<String,IndexBuilder.InvertedIndex>();
+			long bytes = 0;
+			for (int i = 0; i < texts.size(); ++i)
+				bytes += builder.addTerms(texts.get(i),i + 1,dates.get(i),tokenizer,index);
+			return bytes + index.size();
+		}
+	}
+
+	// parses and indexes every document of the synthetic corpus with IndexBuilder.indexDocument ( html parsing and tokenization )
+	// params: documents, parser ( extractor: HtmlExtractor, dom: the Jsoup DOM like IndexBuilder -dom )
+	public static class IndexDocuments implements LongSupplier
+	{
+		private IndexBuilder builder = new IndexBuilder();
+		private Tokenizer tokenizer = new Tokenizer();
+		private HtmlExtractor extractor = new HtmlExtractor();
+		private ArrayList<String> fileNames;
+
+		public IndexDocuments(String [] params) throws Exception
+		{
+			String dir = SyntheticCorpus.prepare(Integer.parseInt(params[0]));
+			builder.dirName = dir + "New_York/";
+			builder.dom = params.length > 1 && params[1].equals("dom");
+			fileNames = fileNames(dir);
+		}
+
+		public long getAsLong()
+		{
+			HashMap<String,IndexBuilder.InvertedIndex> index = new HashMap<String,IndexBuilder.InvertedIndex>();
+			HashMap<Integer,IndexBuilder.Document> urlTable = new HashMap<Integer,IndexBuilder.Document>();
+			long bytes = 0;
+			try{
+				for (int i = 0; i < fileNames.size(); ++i)
+					bytes += builder.indexDocument(fileNames.get(i),i + 1,tokenizer,extractor,index,urlTable);
+			}
+			catch(IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			return bytes;
+		}
+	}
+
+	// the documents of the corpus in the directory, in name order
+	private static ArrayList<String> fileNames(String dir)
+	{
+		ArrayList<String> names = new ArrayList<String>(Arrays.asList(new File(dir + "New_York/").list()));
+		Collections.sort(names);
+		return names;
+	}
+}
@@ -0,0 +1,408 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.text.DateFormat;
+
+
+/*------------------------------------------------------------------------------------
+	- Binary on disk format for the inverted index. This is shared by the IndexBuilder (writer)
+	  and the QueryProcessor (reader)
+	- index.bin holds the postings of every term one after the other. For each term the block is:
+		docId gaps (variable byte), then the freqs (variable byte), then the dates as epoch days (variable byte)
+	- lexicon.bin holds the term dictionary: term, number of documents, offset and length of its block in index.bin
+	- Running this class as a program converts an existing index.txt into the binary format
+-------------------------------------------------------------------------------------*/
+public class BinaryIndex
+{
+	public static final String postingsFileName = "index.bin";
+	public static final String lexiconFileName = "lexicon.bin";
+	public static final int MAGIC = 0x54545349; // marks the start of a lexicon file
+	public static final int VERSION = 1;
+	public static final long MILLIS_PER_DAY = 86400000L;
+
+
+	// converts the text index into the binary index
+	// usage: java BinaryIndex [index.txt] [index.bin] [lexicon.bin]
+	public static void main(String [] args) throws Exception
+	{
+		String textFile = args.length > 0 ? args[0] : "index.txt";
+		String postingsFile = args.length > 1 ? args[1] : postingsFileName;
+		String lexiconFile = args.length > 2 ? args[2] : lexiconFileName;
+
+		BufferedReader reader = new BufferedReader(new FileReader(textFile));
+		Writer writer = new Writer(postingsFile,lexiconFile);
+		String line;
+		while ((line = reader.readLine()) != null)
+			writer.addTextLine(line);
+		reader.close();
+		writer.close();
+
+		System.out.println("Converted " + writer.getTermCount() + " terms from " + textFile + " to " + postingsFile + " and " + lexiconFile);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Dates are stored as the number of days since 1 Jan 1970 in the local time zone
+-------------------------------------------------------------------------------------*/
+	public static int toEpochDay(Date date)
+	{
+		long time = date.getTime();
+		time += TimeZone.getDefault().getOffset(time);
+		return (int) Math.floorDiv(time,MILLIS_PER_DAY);
+	}
+
+	// returns midnight (local time) of the given epoch day
+	public static Date fromEpochDay(int day)
+	{
+		return new Date(epochDayToTime(day));
+	}
+
+	// returns midnight (local time) of the given epoch day in milliseconds
+	public static long epochDayToTime(int day)
+	{
+		long time = day * MILLIS_PER_DAY;
+		return time - TimeZone.getDefault().getOffset(time);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Variable byte encoding. 7 bits per byte, the high bit is set on the last byte of the number
+-------------------------------------------------------------------------------------*/
+	public static void writeVByte(ByteArrayOutputStream out, int value)
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.write(value & 0x7F);
+			value >>>= 7;
+		}
+		out.write(value | 0x80);
+	}
+
+	public static int readVByte(ByteBuffer buf)
+	{
+		int value = 0;
+		int shift = 0;
+		int b;
+		while (((b = buf.get()) & 0x80) == 0)
+		{
+			value |= b << shift;
+			shift += 7;
+		}
+		return value | ((b & 0x7F) << shift);
+	}
+
+	// decodes count postings starting at the current position of buf into the arrays
+	public static void decode(ByteBuffer buf, int count, int [] docIds, int [] freqs, int [] days)
+	{
+		int docId = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			docId += readVByte(buf);
+			docIds[i] = docId;
+		}
+		for (int i = 0; i < count; ++i)
+			freqs[i] = readVByte(buf);
+		for (int i = 0; i < count; ++i)
+			days[i] = readVByte(buf);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Reads the lexicon file. The entries are returned in the order they were written
+-------------------------------------------------------------------------------------*/
+	public static ArrayList<LexiconEntry> readLexicon(String lexiconFile) throws IOException
+	{
+		ArrayList<LexiconEntry> entries = new ArrayList<LexiconEntry>();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(lexiconFile)));
+		try{
+			if (in.readInt() != MAGIC)
+				throw new IOException(lexiconFile + " is not a lexicon file");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported lexicon version " + version + " in " + lexiconFile);
+
+			int termCount = in.readInt();
+			long position = 0;
+			for (int i = 0; i < termCount; ++i)
+			{
+				String term = in.readUTF();
+				int docCount = in.readInt();
+				long offset = in.readLong();
+				int length = in.readInt();
+				LexiconEntry entry = new LexiconEntry(term,docCount,offset,length);
+				entry.position = position;
+				entry.number = i;
+				entries.add(entry);
+				position += docCount;
+			}
+		}
+		finally{
+			in.close();
+		}
+		return entries;
+	}
+
+	// reads the whole postings file into memory
+	public static ByteBuffer readPostings(String postingsFile) throws IOException
+	{
+		FileChannel channel = FileChannel.open(Paths.get(postingsFile),StandardOpenOption.READ);
+		try{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(postingsFile + " is too large to be read into memory");
+			ByteBuffer buf = ByteBuffer.allocate((int)channel.size());
+			while (buf.hasRemaining() && channel.read(buf) >= 0);
+			buf.flip();
+			return buf;
+		}
+		finally{
+			channel.close();
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- One entry of the lexicon
+-------------------------------------------------------------------------------------*/
+	public static class LexiconEntry
+	{
+		public String term;
+		public int docCount;
+		public long offset;
+		public int length;
+		public long position; // number of postings of the terms before this one, where its values start in files with one value per posting
+		public int number; // the number of the term in the lexicon, files with one value per term are in this order
+
+		public LexiconEntry(String term, int docCount, long offset, int length)
+		{
+			this.term = term;
+			this.docCount = docCount;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- Writes the postings of each term to index.bin and the term to the lexicon
+	- The lexicon is kept in memory until close() since the term count goes in its header
+	- A term can be written whole ( addTerm ) or one posting at a time ( beginTerm, addPosting, endTerm ). One posting
+	  at a time the docId gaps go to index.bin as they come, the freqs and dates wait in buffers that spill to scratch
+	  files next to index.bin. A term of any length takes the same memory
+-------------------------------------------------------------------------------------*/
+	public static class Writer
+	{
+		private static final int CHUNK = 1 << 16; // the bytes a buffer of the term being written holds before it spills
+
+		private OutputStream postings;
+		private ByteArrayOutputStream block = new ByteArrayOutputStream(); // the encoded postings of the current term
+		private ByteArrayOutputStream lexicon = new ByteArrayOutputStream();
+		private DataOutputStream lexiconOut = new DataOutputStream(lexicon);
+		private String lexiconFile;
+		private long offset = 0;
+		private int termCount = 0;
+
+		// the term written one posting at a time
+		private String term;
+		private int count;
+		private int lastDocId;
+		private long length; // the bytes of its block written to index.bin so far
+		private Spill freqs;
+		private Spill days;
+
+		// the dates repeat for every term of a document, so only parse each date string once
+		private DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
+		private HashMap<String,Integer> dayCache = new HashMap<String,Integer>();
+
+		public Writer(String postingsFile, String lexiconFile) throws IOException
+		{
+			this.postings = new BufferedOutputStream(new FileOutputStream(postingsFile),1 << 16);
+			this.lexiconFile = lexiconFile;
+			this.freqs = new Spill(postingsFile + ".freqs");
+			this.days = new Spill(postingsFile + ".days");
+		}
+
+		public int getTermCount(){ return termCount; }
+
+		// writes the postings of the term. The docIds must be in increasing order
+		public void addTerm(String term, int [] docIds, int [] freqs, int [] days, int count) throws IOException
+		{
+			block.reset();
+			int last = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				writeVByte(block,docIds[i] - last);
+				last = docIds[i];
+			}
+			for (int i = 0; i < count; ++i)
+				writeVByte(block,freqs[i]);
+			for (int i = 0; i < count; ++i)
+				writeVByte(block,days[i]);
+			addBlock(term,count,block);
+		}
+
+		// writes a block that is already encoded, count is the number of postings in the block. Used by the other formats that share the lexicon ( see VersionedIndex )
+		public void addBlock(String term, int count, ByteArrayOutputStream block) throws IOException
+		{
+			block.writeTo(postings);
+
+			lexiconOut.writeUTF(term);
+			lexiconOut.writeInt(count);
+			lexiconOut.writeLong(offset);
+			lexiconOut.writeInt(block.size());
+
+			offset += block.size();
+			termCount++;
+		}
+
+		// starts a term whose postings are given one at a time with addPosting, endTerm writes its lexicon entry
+		public void beginTerm(String term)
+		{
+			this.term = term;
+			count = 0;
+			lastDocId = 0;
+			length = 0;
+			block.reset();
+		}
+
+		// adds the next posting of the term begun last. The docIds must be in increasing order
+		public void addPosting(int docId, int freq, int day) throws IOException
+		{
+			writeVByte(block,docId - lastDocId);
+			lastDocId = docId;
+			freqs.add(freq);
+			days.add(day);
+			count++;
+			if (block.size() >= CHUNK)
+			{
+				length += block.size();
+				block.writeTo(postings);
+				block.reset();
+			}
+		}
+
+		// writes the freqs and dates after the docIds and the lexicon entry of the term
+		public void endTerm() throws IOException
+		{
+			length += block.size();
+			block.writeTo(postings);
+			block.reset();
+			length += freqs.writeTo(postings);
+			length += days.writeTo(postings);
+			if (length > Integer.MAX_VALUE)
+				throw new IOException("The postings of " + term + " are too large for the lexicon");
+
+			lexiconOut.writeUTF(term);
+			lexiconOut.writeInt(count);
+			lexiconOut.writeLong(offset);
+			lexiconOut.writeInt((int) length);
+
+			offset += length;
+			termCount++;
+			term = null;
+		}
+
+		// parses one line of the text index ( term;docId;freq;date;docId;freq;date... ) and writes it
+		public void addTextLine(String line) throws IOException
+		{
+			String [] arr = line.split(";");
+			int count = (arr.length - 1) / 3;
+			int [] docIds = new int[count];
+			int [] freqs = new int[count];
+			int [] days = new int[count];
+			for (int i = 1, j = 0; j < count; ++j)
+			{
+				docIds[j] = Integer.parseInt(arr[i++]);
+				freqs[j] = Integer.parseInt(arr[i++]);
+				days[j] = toEpochDay(arr[i++]);
+			}
+			addTerm(arr[0],docIds,freqs,days,count);
+		}
+
+		// converts the date string used by the text index to an epoch day
+		public int toEpochDay(String date) throws IOException
+		{
+			Integer day = dayCache.get(date);
+			if (day == null)
+			{
+				try{
+					day = BinaryIndex.toEpochDay(formatter.parse(date));
+				}
+				catch(java.text.ParseException e)
+				{
+					throw new IOException("Could not parse the date " + date,e);
+				}
+				dayCache.put(date,day);
+			}
+			return day;
+		}
+
+		public void close() throws IOException
+		{
+			postings.close();
+			lexiconOut.flush();
+			freqs.delete();
+			days.delete();
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(lexiconFile)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(termCount);
+			lexicon.writeTo(out);
+			out.close();
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- One column ( the freqs or the dates ) of the term being written, variable byte encoded. Up to CHUNK bytes stay
+	  in memory, the rest goes to the scratch file, which is only created for a term that long
+-------------------------------------------------------------------------------------*/
+	private static class Spill
+	{
+		private String fileName;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private OutputStream file;
+		private long spilled;
+
+		public Spill(String fileName)
+		{
+			this.fileName = fileName;
+		}
+
+		public void add(int value) throws IOException
+		{
+			writeVByte(buffer,value);
+			if (buffer.size() >= Writer.CHUNK)
+			{
+				if (file == null)
+					file = new BufferedOutputStream(new FileOutputStream(fileName),1 << 16);
+				spilled += buffer.size();
+				buffer.writeTo(file);
+				buffer.reset();
+			}
+		}
+
+		// copies the column to out and empties it, returns the number of bytes
+		public long writeTo(OutputStream out) throws IOException
+		{
+			long length = spilled + buffer.size();
+			if (file != null)
+			{
+				file.close();
+				file = null;
+				Files.copy(Paths.get(fileName),out);
+				spilled = 0;
+			}
+			buffer.writeTo(out);
+			buffer.reset();
+			return length;
+		}
+
+		public void delete() throws IOException
+		{
+			if (file != null)
+				file.close();
+			file = null;
+			new File(fileName).delete();
+		}
+	}
+}
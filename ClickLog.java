@@ -0,0 +1,348 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+
+/*------------------------------------------------------------------------------------
+	- Append only log of the clicks, so a click is on disk as soon as it is counted instead of when the program quits
+	- One line per click: docId;query. The log is cut into generations, fileName.N, a new one is started by every run
+	  and by every compaction
+	- Group commit: the clicks are written by one thread. It takes every click that is waiting, writes them and syncs
+	  the file once, then wakes up the callers. A caller only returns once its click is synced
+	- If the write or the sync fails, await throws for every click of the batch. The file is cut back to what was last
+	  synced and closed, and the next batch opens it again
+	- Compaction writes the whole click table to the snapshot ( the old userBasedRank.txt format ) with a first line
+	  #log N, meaning the snapshot has every click of the generations before N. Those logs are deleted afterwards
+	- On startup the snapshot is read, then the logs from generation N on are replayed in order
+-------------------------------------------------------------------------------------*/
+public class ClickLog
+{
+	public static final String HEADER = "#log "; // first line of the snapshot, followed by the first generation that is not in it
+
+	private String fileName;
+	private int generation; // the generation new clicks go to
+	private BlockingQueue<Record> queue = new LinkedBlockingQueue<Record>();
+	private long added = 0; // sequence number of the last click added
+	private long synced = 0; // sequence number of the last click on disk
+	private long clicks = 0; // number of clicks added, the rotations and the stop are not counted
+	private long batches = 0; // number of syncs, each one writes all the clicks that were waiting
+	private HashMap<Long,IOException> failed = new HashMap<Long,IOException>(); // the clicks of failed batches until they are awaited
+	private Thread writer;
+
+	// one click, or a request to the writer thread to start the next generation or to stop
+	static class Record
+	{
+		public long seq;
+		public String line; // null for a rotation or stop
+		public boolean stop;
+
+		public Record(long seq, String line, boolean stop)
+		{
+			this.seq = seq;
+			this.line = line;
+			this.stop = stop;
+		}
+	}
+
+	// the callback that gets the clicks while the logs are replayed
+	public interface Replay
+	{
+		void click(String query, int docId);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Startup: reads the generation the snapshot covers, replays the newer logs and opens the log for the new clicks
+-------------------------------------------------------------------------------------*/
+	// returns the first generation that is not in the snapshot, 0 if the snapshot has no header ( or there is no snapshot )
+	public static int readSnapshotGeneration(String snapshotFile) throws IOException
+	{
+		File file = new File(snapshotFile);
+		if (!file.exists())
+			return 0;
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line = reader.readLine();
+		reader.close();
+		return line != null && line.startsWith(HEADER) ? Integer.parseInt(line.substring(HEADER.length()).trim()) : 0;
+	}
+
+	// replays the logs from generation first on, returns the log the new clicks go to
+	public static ClickLog open(String fileName, int first, Replay replay) throws IOException
+	{
+		ArrayList<Integer> generations = generations(fileName);
+		int last = first - 1;
+		for (int generation : generations)
+		{
+			if (generation < first)
+			{
+				// left behind by a compaction that stopped before it deleted them
+				new File(fileName + "." + generation).delete();
+				continue;
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName + "." + generation),StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				// a line cut off by a crash has no ; or no docId, it is skipped
+				int split = line.indexOf(';');
+				if (split <= 0)
+					continue;
+				try{
+					replay.click(line.substring(split + 1),Integer.parseInt(line.substring(0,split)));
+				}
+				catch(NumberFormatException e)
+				{
+					continue;
+				}
+			}
+			reader.close();
+			last = generation;
+		}
+
+		ClickLog log = new ClickLog();
+		log.fileName = fileName;
+		log.generation = last + 1;
+		log.start();
+		return log;
+	}
+
+	// returns the generations of the logs on disk, in order
+	private static ArrayList<Integer> generations(String fileName)
+	{
+		File file = new File(fileName).getAbsoluteFile();
+		ArrayList<Integer> generations = new ArrayList<Integer>();
+		String [] names = file.getParentFile().list();
+		if (names == null)
+			return generations;
+		for (String name : names)
+		{
+			if (!name.startsWith(file.getName() + "."))
+				continue;
+			try{
+				generations.add(Integer.parseInt(name.substring(file.getName().length() + 1)));
+			}
+			catch(NumberFormatException e)
+			{
+				continue;
+			}
+		}
+		Collections.sort(generations);
+		return generations;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Adding clicks
+-------------------------------------------------------------------------------------*/
+	// queues the click and returns its sequence number. The click is on disk once await returns for it
+	// the order of the clicks in the log is the order add is called in
+	public synchronized long add(String query, int docId)
+	{
+		// a query can not span lines
+		String line = docId + ";" + query.replace('\n',' ').replace('\r',' ');
+		queue.add(new Record(++added,line,false));
+		clicks++;
+		return added;
+	}
+
+	// waits until the click with this sequence number is synced, throws if it could not be written
+	public synchronized void await(long seq) throws IOException
+	{
+		boolean interrupted = false;
+		while (synced < seq)
+		{
+			try{
+				wait();
+			}
+			catch(InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		IOException e = failed.remove(seq);
+		if (e != null)
+			throw new IOException("The click log could not be written",e);
+	}
+
+	// starts a new generation and returns it. Every click added before is in the older generations and on disk
+	// throws if the clicks or the end of the generation could not be written
+	public int rotate() throws IOException
+	{
+		long seq;
+		synchronized(this)
+		{
+			queue.add(new Record(++added,null,false));
+			seq = added;
+		}
+		await(seq);
+		synchronized(this)
+		{
+			return generation;
+		}
+	}
+
+	// deletes the logs of the generations before first, their clicks are in the snapshot
+	public void deleteBefore(int first)
+	{
+		for (int generation : generations(fileName))
+		{
+			if (generation < first)
+				new File(fileName + "." + generation).delete();
+		}
+	}
+
+	// writes the waiting clicks and stops the writer thread
+	public void close()
+	{
+		synchronized(this)
+		{
+			queue.add(new Record(++added,null,true));
+		}
+		try{
+			writer.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public synchronized long getClickCount(){ return clicks; }
+	public synchronized long getBatchCount(){ return batches; }
+
+/*------------------------------------------------------------------------------------
+	- The writer thread. The file of a generation is only created when the first click goes to it
+-------------------------------------------------------------------------------------*/
+	private void start()
+	{
+		writer = new Thread(new Runnable(){
+			public void run()
+			{
+				FileOutputStream file = null;
+				Writer out = null;
+				long length = 0; // the length of the file when it was last synced
+				ArrayList<Record> batch = new ArrayList<Record>();
+				boolean stop = false;
+				while (!stop)
+				{
+					batch.clear();
+					try{
+						batch.add(queue.take());
+					}
+					catch(InterruptedException e)
+					{
+						continue;
+					}
+					// everything that came in while the last batch was synced goes in this one
+					queue.drainTo(batch);
+
+					try{
+						for (Record record : batch)
+						{
+							if (record.line != null)
+							{
+								if (out == null)
+								{
+									file = new FileOutputStream(fileName + "." + generation,true);
+									out = new BufferedWriter(new OutputStreamWriter(file,StandardCharsets.UTF_8));
+									length = file.getChannel().size();
+								}
+								out.write(record.line);
+								out.write('\n');
+							}
+							else
+							{
+								// a rotation or the end, the current generation is closed
+								if (out != null)
+								{
+									out.flush();
+									file.getFD().sync();
+									out.close();
+									out = null;
+								}
+								if (record.stop)
+									stop = true;
+								else
+								{
+									synchronized(ClickLog.this)
+									{
+										generation++;
+									}
+								}
+							}
+						}
+						if (out != null)
+						{
+							out.flush();
+							file.getFD().sync();
+							length = file.getChannel().size();
+						}
+					}
+					catch(IOException e)
+					{
+						System.out.println("ERROR in writing the click log " + e);
+						// cut off the part of the batch that made it to the file, so a replay does not count it, and start
+						// the next batch on a new stream. If this fails too the next batch is likely to fail as well
+						if (file != null)
+						{
+							try{
+								file.getChannel().truncate(length);
+							}
+							catch(IOException ignored){}
+							try{
+								file.close();
+							}
+							catch(IOException ignored){}
+						}
+						file = null;
+						out = null;
+						synchronized(ClickLog.this)
+						{
+							for (Record record : batch)
+							{
+								if (record.stop)
+									stop = true;
+								else
+									failed.put(record.seq,e);
+							}
+						}
+					}
+
+					// wake up the callers, even after an error so they do not wait forever
+					synchronized(ClickLog.this)
+					{
+						synced = batch.get(batch.size() - 1).seq;
+						batches++;
+						ClickLog.this.notifyAll();
+					}
+				}
+			}
+		},"click-log");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+/*------------------------------------------------------------------------------------
+	- Writes the snapshot: the header, then the lines, to a temporary file that is moved over the old snapshot
+-------------------------------------------------------------------------------------*/
+	public static void writeSnapshot(String snapshotFile, int generation, ArrayList<String> lines) throws IOException
+	{
+		File tmp = new File(snapshotFile + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		Writer out = new BufferedWriter(new OutputStreamWriter(file,StandardCharsets.UTF_8));
+		out.write(HEADER + generation + "\n");
+		for (String line : lines)
+		{
+			out.write(line);
+			out.write('\n');
+		}
+		out.flush();
+		file.getFD().sync();
+		out.close();
+		Files.move(tmp.toPath(),Paths.get(snapshotFile),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,246 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.text.DateFormat;
+
+
+/*------------------------------------------------------------------------------------
+	- Columnar store of the documents of the url table: length, date and url of each docId
+	- The docIds of an index are dense, so each column is an array indexed by docId - firstDocId. A docId with no
+	  document has the length -1
+	- docStore.bin has a header ( firstDocId, number of slots, number of documents, total document length, size of the urls )
+	  then the lengths ( int per slot ), the dates ( epoch milliseconds, long per slot ), the offset of each url in the
+	  url blob ( int per slot + 1 ) and the url blob ( UTF-8 )
+	- The file is memory mapped. The lengths and dates are copied into arrays since every scored posting reads them,
+	  the urls are only decoded from the mapped blob when a result is shown
+	- IndexBuilder writes it next to urlTable.txt. Running this class as a program writes it for an existing urlTable.txt
+-------------------------------------------------------------------------------------*/
+public class DocStore
+{
+	public static final String docStoreFileName = "docStore.bin";
+	public static final String urlTableFileName = "urlTable.txt";
+	public static final int MAGIC = 0x54544453; // marks the start of a document store
+	public static final int VERSION = 1;
+
+	private int firstDocId;
+	private int [] lengths;
+	private long [] times;
+	private IntBuffer urlOffsets;
+	private ByteBuffer urls;
+	private int documentCount;
+	private long totalDocumentLength;
+
+
+	// writes docStore.bin for the urlTable.txt in the directory
+	// usage: java DocStore [dir]
+	public static void main(String [] args) throws Exception
+	{
+		String dir = args.length > 0 ? args[0] : "";
+		DocStore store = write(dir);
+		System.out.println("Wrote " + store.getDocumentCount() + " documents to " + dir + docStoreFileName);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Lookups, the docId must be between getFirstDocId and getLastDocId unless contains is checked
+-------------------------------------------------------------------------------------*/
+	public boolean contains(int docId)
+	{
+		int i = docId - firstDocId;
+		return i >= 0 && i < lengths.length && lengths[i] >= 0;
+	}
+
+	public int getLength(int docId){ return lengths[docId - firstDocId]; }
+	public long getTime(int docId){ return times[docId - firstDocId]; }
+
+	// returns the url of the document, or null if there is no document with this ID
+	public String getUrl(int docId)
+	{
+		if (!contains(docId))
+			return null;
+		int i = docId - firstDocId;
+		int start = urlOffsets.get(i);
+		byte [] bytes = new byte[urlOffsets.get(i + 1) - start];
+		urls.get(start,bytes); // absolute, so queries can read urls at the same time
+		return new String(bytes,StandardCharsets.UTF_8);
+	}
+
+	public int getFirstDocId(){ return firstDocId; }
+	public int getLastDocId(){ return firstDocId + lengths.length - 1; }
+	public int getDocumentCount(){ return documentCount; }
+	public long getTotalDocumentLength(){ return totalDocumentLength; }
+
+/*------------------------------------------------------------------------------------
+	- Builds a store in memory from the documents of one or more url tables
+-------------------------------------------------------------------------------------*/
+	public static class Builder
+	{
+		private ArrayList<Integer> docIds = new ArrayList<Integer>();
+		private ArrayList<String> docUrls = new ArrayList<String>();
+		private ArrayList<Integer> docLengths = new ArrayList<Integer>();
+		private ArrayList<Long> docTimes = new ArrayList<Long>();
+
+		public void add(int docId, String url, long time, int length)
+		{
+			docIds.add(docId);
+			docUrls.add(url);
+			docTimes.add(time);
+			docLengths.add(length);
+		}
+
+		// adds every document of the store
+		public void addAll(DocStore store)
+		{
+			for (int docId = store.getFirstDocId(); docId <= store.getLastDocId(); ++docId)
+			{
+				if (store.contains(docId))
+					add(docId,store.getUrl(docId),store.getTime(docId),store.getLength(docId));
+			}
+		}
+
+		// parses a url table: document name;date;length;docId per line
+		public void addUrlTable(String fileName) throws IOException
+		{
+			DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
+			BufferedReader reader = new BufferedReader(new FileReader(fileName));
+			try{
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					if (line.isEmpty())
+						continue;
+					String [] arr = line.split(";");
+					add(Integer.parseInt(arr[3]),arr[0],formatter.parse(arr[1]).getTime(),Integer.parseInt(arr[2]));
+				}
+			}
+			catch(java.text.ParseException e)
+			{
+				throw new IOException("Could not parse a date in " + fileName,e);
+			}
+			finally{
+				reader.close();
+			}
+		}
+
+		public DocStore build()
+		{
+			DocStore store = new DocStore();
+			int first = docIds.isEmpty() ? 1 : Collections.min(docIds);
+			int last = docIds.isEmpty() ? 0 : Collections.max(docIds);
+			int slots = last - first + 1;
+			store.firstDocId = first;
+			store.lengths = new int[slots];
+			store.times = new long[slots];
+			Arrays.fill(store.lengths,-1);
+
+			String [] slotUrls = new String[slots];
+			for (int i = 0; i < docIds.size(); ++i)
+			{
+				int slot = docIds.get(i) - first;
+				if (store.lengths[slot] < 0)
+					store.documentCount++;
+				else
+					store.totalDocumentLength -= store.lengths[slot]; // the same docId twice, the last one is kept
+				store.lengths[slot] = docLengths.get(i);
+				store.times[slot] = docTimes.get(i);
+				slotUrls[slot] = docUrls.get(i);
+				store.totalDocumentLength += docLengths.get(i);
+			}
+
+			ByteArrayOutputStream blob = new ByteArrayOutputStream();
+			int [] offsets = new int[slots + 1];
+			for (int i = 0; i < slots; ++i)
+			{
+				offsets[i] = blob.size();
+				if (slotUrls[i] != null)
+				{
+					byte [] bytes = slotUrls[i].getBytes(StandardCharsets.UTF_8);
+					blob.write(bytes,0,bytes.length);
+				}
+			}
+			offsets[slots] = blob.size();
+			store.urlOffsets = IntBuffer.wrap(offsets);
+			store.urls = ByteBuffer.wrap(blob.toByteArray());
+			return store;
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- Writing and opening docStore.bin
+-------------------------------------------------------------------------------------*/
+	// writes docStore.bin from the urlTable.txt in the directory
+	public static DocStore write(String dir) throws IOException
+	{
+		Builder builder = new Builder();
+		builder.addUrlTable(dir + urlTableFileName);
+		DocStore store = builder.build();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + docStoreFileName),1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(store.firstDocId);
+		out.writeInt(store.lengths.length);
+		out.writeInt(store.documentCount);
+		out.writeLong(store.totalDocumentLength);
+		out.writeInt(store.urls.capacity());
+		for (int length : store.lengths)
+			out.writeInt(length);
+		for (long time : store.times)
+			out.writeLong(time);
+		for (int i = 0; i <= store.lengths.length; ++i)
+			out.writeInt(store.urlOffsets.get(i));
+		out.write(store.urls.array());
+		out.close();
+		return store;
+	}
+
+	// true if the directory has a docStore.bin that was written after its urlTable.txt
+	public static boolean isCurrent(String dir)
+	{
+		File store = new File(dir + docStoreFileName);
+		return store.exists() && store.lastModified() >= new File(dir + urlTableFileName).lastModified();
+	}
+
+	// maps docStore.bin in the directory
+	public static DocStore open(String dir) throws IOException
+	{
+		File file = new File(dir + docStoreFileName);
+		FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		try{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be mapped");
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+			if (buf.getInt() != MAGIC)
+				throw new IOException(file + " is not a document store");
+			int version = buf.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported document store version " + version + " in " + file);
+
+			DocStore store = new DocStore();
+			store.firstDocId = buf.getInt();
+			int slots = buf.getInt();
+			store.documentCount = buf.getInt();
+			store.totalDocumentLength = buf.getLong();
+			int urlBytes = buf.getInt();
+
+			store.lengths = new int[slots];
+			buf.asIntBuffer().get(store.lengths);
+			buf.position(buf.position() + slots * 4);
+			store.times = new long[slots];
+			buf.asLongBuffer().get(store.times);
+			buf.position(buf.position() + slots * 8);
+			store.urlOffsets = buf.slice(buf.position(),(slots + 1) * 4).asIntBuffer();
+			buf.position(buf.position() + (slots + 1) * 4);
+			store.urls = buf.slice(buf.position(),urlBytes);
+			return store;
+		}
+		finally{
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+}
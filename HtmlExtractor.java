@@ -0,0 +1,2204 @@
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+
+
+/*------------------------------------------------------------------------------------
+	- Takes the text of the <p> elements and of the mw-revision-date element out of a page in one pass over its
+	  chars, without building the Jsoup DOM
+	- The text is what doc.body().getElementsByTag("p").text() and doc.getElementById("mw-revision-date").text()
+	  give for the page. The chars are tokenized the way the Jsoup tokenizer does it, and a stack of the names of the
+	  open elements follows the rules of the Jsoup tree builder that decide which element a text ends up in ( a <div>
+	  or a <table> closes the open <p>, a stray </p> is an empty paragraph, a <td> outside a table is dropped, ... ).
+	  The text of an element is put together with the whitespace rules of Element.text
+	- The rules that move nodes around the tree ( misnested formatting tags, content of a table outside its cells )
+	  and the rare modes ( select, svg, template, frameset, plaintext ) are not followed. extract returns false when
+	  one of them is in the way of the text, and the caller parses that page with Jsoup
+	- The file is read through a fixed buffer and only the text is kept, the memory of a page does not grow with its
+	  markup. Not thread safe, each indexing thread has its own
+	- The rules are the ones of Jsoup JSOUP_VERSION, the version in pom.xml. With another Jsoup on the classpath extract
+	  always returns false, so every page is parsed with Jsoup until the rules are checked against it. HtmlExtractorCheck
+	  compares the two on real and random pages, and HtmlExtractorTest runs it in the build
+-------------------------------------------------------------------------------------*/
+public class HtmlExtractor
+{
+	public static final String DATE_ID = "mw-revision-date";
+	public static final int BUFFER_SIZE = 1 << 13;
+	public static final int MAX_DEPTH = 100; // Jsoup stops looking for scopes 100 elements down
+	public static final int MAX_FORMATTING = 256;
+	private static final int MAX_ATTRIBUTE = 64; // longer id values are not the date id
+	private static final int MAX_REFERENCE = 64; // no character reference is that long
+
+	public static final String JSOUP_VERSION = "1.15.3"; // the Jsoup the rules follow
+	public static final boolean SAME_JSOUP = JSOUP_VERSION.equals(jsoupVersion());
+
+	// what the tree rules need to know about a tag name
+	private static final int BLOCK = 1; // Element.text puts a space before it ( Tag.isBlock )
+	private static final int KNOWN = 1 << 1; // Tag.isKnownTag
+	private static final int SPECIAL = 1 << 2;
+	private static final int CLOSES_P = 1 << 3; // the start tag closes an open <p>
+	private static final int END_CLOSER = 1 << 4; // the end tag closes everything up to its element
+	private static final int FORMATTING = 1 << 5;
+	private static final int SCOPE = 1 << 6; // an element a scope does not look past
+	private static final int IMPLIED_END = 1 << 7; // closed by the end tag of an element around it
+	private static final int TABLE_PART = 1 << 8;
+	private static final int MARKER = 1 << 9; // puts a marker in the list of the active formatting elements
+	private static final int TABLE_TEXT = 1 << 10; // the text in it is moved out of the table
+
+	private static final int DEFAULT_SCOPE = 0;
+	private static final int BUTTON_SCOPE = 1;
+	private static final int LIST_SCOPE = 2;
+	private static final int TABLE_SCOPE = 3;
+
+	private static final HashMap<String,Integer> TAGS = new HashMap<String,Integer>();
+	static
+	{
+		flag(SPECIAL,"address","applet","area","article","aside","base","basefont","bgsound","blockquote","body","br","button",
+			"caption","center","col","colgroup","command","dd","details","dir","div","dl","dt","embed","fieldset","figcaption",
+			"figure","footer","form","frame","frameset","h1","h2","h3","h4","h5","h6","head","header","hgroup","hr","html",
+			"iframe","img","input","isindex","li","link","listing","marquee","menu","meta","nav","noembed","noframes","noscript",
+			"object","ol","p","param","plaintext","pre","script","section","select","style","summary","table","tbody","td",
+			"textarea","tfoot","th","thead","title","tr","ul","wbr","xmp");
+		flag(CLOSES_P,"address","article","aside","blockquote","center","details","dir","div","dl","fieldset","figcaption",
+			"figure","footer","header","hgroup","menu","nav","ol","p","section","summary","ul");
+		flag(END_CLOSER,"address","article","aside","blockquote","button","center","details","dir","div","dl","fieldset",
+			"figcaption","figure","footer","header","hgroup","listing","menu","nav","ol","pre","section","summary","ul");
+		flag(FORMATTING,"a","b","big","code","em","font","i","nobr","s","small","strike","strong","tt","u");
+		flag(SCOPE,"applet","caption","html","marquee","object","table","td","th");
+		flag(IMPLIED_END,"dd","dt","li","optgroup","option","p","rb","rp","rt","rtc");
+		flag(TABLE_PART,"caption","col","colgroup","tbody","td","tfoot","th","thead","tr");
+		flag(MARKER,"applet","caption","marquee","object","td","th");
+		flag(TABLE_TEXT,"colgroup","table","tbody","tfoot","thead","tr");
+		flag(0,"span","ruby","image","math","svg","option","optgroup","keygen","template","nobr");
+	}
+
+	private static final Pattern DOCTYPE = Pattern.compile("[ \\t\\n\\r\\f]*[^ \\t\\n\\r\\f>]+[ \\t\\n\\r\\f]*"
+		+ "((?i:public)[ \\t\\n\\r\\f]*(\"[^\"]*\"|'[^']*')([ \\t\\n\\r\\f]*(\"[^\"]*\"|'[^']*')[\\s\\S]*)?"
+		+ "|(?i:system)[ \\t\\n\\r\\f]*(\"[^\"]*\"|'[^']*')[\\s\\S]*)?");
+
+	// the file
+	private Reader reader;
+	private char [] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private long readNanos; // the time spent opening and reading the file in the last extract, the rest is parsing
+
+	// the tag being read
+	private char [] name = new char[32];
+	private int nameLength;
+	private boolean selfClosing;
+	private boolean hasId;
+	private StringBuilder id = new StringBuilder();
+	private long attributeHash; // tells the attributes of formatting elements apart
+	private StringBuilder scratch = new StringBuilder(); // character references and doctypes
+
+	// the open elements, stack[0] is the html element
+	private String [] stack = new String[MAX_DEPTH];
+	private int [] flags = new int[MAX_DEPTH];
+	private int [] ids = new int[MAX_DEPTH];
+	private int depth;
+	private int lastId;
+
+	// the active formatting elements, an id of 0 is a marker
+	private int [] formattingIds = new int[MAX_FORMATTING];
+	private String [] formattingNames = new String[MAX_FORMATTING];
+	private long [] formattingHashes = new long[MAX_FORMATTING];
+	private int formattingCount;
+	private boolean reconstruct; // a formatting element may have been closed before its end tag
+
+	private boolean started; // past the doctype
+	private boolean quirks; // the doctype may put Jsoup in quirks mode, where a <table> does not close the <p>
+	private boolean inBody; // past the head
+	private boolean bodyOpen;
+	private boolean afterBody; // after </body> the next tag or text puts the body back on the stack
+	private boolean htmlOpen; // </html> takes everything off Jsoup's stack, the html element does not come back
+	private boolean form; // Jsoup's form element pointer
+	private int formId;
+	private boolean failed;
+
+	// the text of the paragraphs and the date
+	private Collector paragraph = new Collector(); // all the paragraphs, joined with a space
+	private Collector dateText = new Collector();
+	private String date;
+
+	private HashMap<String,String> references = new HashMap<String,String>(); // decoded character references
+	// open addressing table of the tag names seen, with their hashes and flags. The tree rules compare names with ==
+	private String [] names = new String[1 << 11];
+	private int [] nameHashes = new int[1 << 11];
+	private int [] nameFlags = new int[1 << 11];
+	private int nameCount;
+	private int tagFlags; // the flags of the tag read last
+
+
+	public HtmlExtractor()
+	{
+		// the Strings of the tree rules
+		for (String tagName : TAGS.keySet())
+		{
+			int slot = tagName.hashCode() ^ (tagName.hashCode() >>> 16);
+			addName(tagName,tagName.hashCode(),slot & (names.length - 1));
+		}
+	}
+
+
+	// prints the text and date of the pages given, and whether Jsoup is needed for them
+	public static void main(String [] args) throws IOException
+	{
+		HtmlExtractor extractor = new HtmlExtractor();
+		for (String fileName : args)
+		{
+			if (extractor.extract(new File(fileName)))
+				System.out.println(fileName + " " + extractor.getDate() + "\n" + extractor.getText());
+			else
+				System.out.println(fileName + " needs the Jsoup DOM");
+		}
+	}
+
+	// the version of the Jsoup on the classpath, from its jar ( also in a shaded jar ). null if it can not be read
+	public static String jsoupVersion()
+	{
+		try{
+			InputStream in = Parser.class.getResourceAsStream("/META-INF/maven/org.jsoup/jsoup/pom.properties");
+			if (in == null)
+				return null;
+			Properties properties = new Properties();
+			try{
+				properties.load(in);
+			}
+			finally{
+				in.close();
+			}
+			return properties.getProperty("version");
+		}
+		catch(IOException e)
+		{
+			System.out.println("ERROR in reading the Jsoup version " + e);
+			return null;
+		}
+	}
+
+	// reads the page, false when it has to be parsed with Jsoup ( or it has no date )
+	public boolean extract(File file) throws IOException
+	{
+		if (!SAME_JSOUP)
+			return false;
+		reset();
+		long start = System.nanoTime();
+		reader = new InputStreamReader(new FileInputStream(file),StandardCharsets.UTF_8);
+		readNanos = System.nanoTime() - start;
+		try{
+			parse();
+		}
+		finally
+		{
+			reader.close();
+			reader = null;
+		}
+		if (paragraph.isOpen())
+			closeParagraph();
+		if (dateText.isOpen())
+			closeDate();
+		return !failed && date != null;
+	}
+
+	// the text of the <p> elements of the body, joined with a space
+	public CharSequence getText(){ return paragraph; }
+
+	// the text of the mw-revision-date element
+	public String getDate(){ return date; }
+
+	// the nanoseconds the last extract spent opening the file and waiting for its chars
+	public long getReadNanos(){ return readNanos; }
+
+	private void reset()
+	{
+		position = 0;
+		limit = 0;
+		stack[0] = "html";
+		flags[0] = tagFlags("html");
+		ids[0] = lastId = 1;
+		depth = 1;
+		formattingCount = 0;
+		reconstruct = false;
+		started = quirks = inBody = bodyOpen = afterBody = form = failed = false;
+		htmlOpen = true;
+		formId = 0;
+		paragraph.length = dateText.length = 0;
+		paragraph.root = dateText.root = -1;
+		date = null;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Tokenizer, the states of org.jsoup.parser.TokeniserState
+-------------------------------------------------------------------------------------*/
+	private void parse() throws IOException
+	{
+		if (fill(1) && buffer[0] == '\uFEFF')
+			position++;
+		while (!failed)
+		{
+			if (position == limit && !fill(1))
+				break;
+			char c = buffer[position];
+			if (c == '<')
+			{
+				position++;
+				tagOpen();
+			}
+			else if (c == '&')
+			{
+				position++;
+				characterReference();
+			}
+			else
+				text();
+		}
+	}
+
+	// the chars up to the next < or & in the buffer
+	private void text()
+	{
+		int end = position;
+		char c;
+		while (end < limit && (c = buffer[end]) != '<' && c != '&' && c != 0)
+			end++;
+		if (end == position)
+		{
+			// Jsoup drops a text that is only a \0 and keeps it in any other text
+			failed = true;
+			return;
+		}
+		if (!inBody || afterBody || reconstruct || dateText.isOpen() || (flags[depth - 1] & TABLE_TEXT) != 0)
+		{
+			while (position < end)
+				character(buffer[position++]);
+			return;
+		}
+		// in the body no tree rule looks at the text, only the paragraph does
+		if (paragraph.isOpen())
+			paragraph.text(buffer,position,end,depth);
+		position = end;
+	}
+
+	private void tagOpen() throws IOException
+	{
+		int c = peek();
+		if (c == '!')
+		{
+			position++;
+			markupDeclaration();
+		}
+		else if (c == '/')
+		{
+			position++;
+			c = peek();
+			if (c < 0)
+			{
+				character('<');
+				character('/');
+			}
+			else if (isAsciiLetter(c))
+				tag(false);
+			else if (c == '>')
+				position++;
+			else
+				bogusComment();
+		}
+		else if (c == '?')
+			bogusComment();
+		else if (c >= 0 && isAsciiLetter(c))
+			tag(true);
+		else
+			character('<');
+	}
+
+	// reads a start or end tag and hands it to the tree rules, the tag is dropped if the page ends inside it
+	private void tag(boolean start) throws IOException
+	{
+		nameLength = 0;
+		selfClosing = false;
+		hasId = false;
+		id.setLength(0);
+		attributeHash = 0;
+		boolean complete = false;
+		while (true)
+		{
+			int c = read();
+			if (c < 0)
+				break;
+			if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ')
+			{
+				complete = attributes();
+				break;
+			}
+			if (c == '/')
+			{
+				complete = selfClosingTag() || attributes();
+				break;
+			}
+			if (c == '<' || c == '>')
+			{
+				if (c == '<')
+					position--;
+				complete = true;
+				break;
+			}
+			appendName(c == 0 ? '\uFFFD' : (char) c);
+		}
+		if (!complete)
+			return;
+		started = true;
+		String tagName = tagName();
+		if (start)
+			startTag(tagName,tagFlags,selfClosing,hasId && id.length() <= DATE_ID.length() + MAX_ATTRIBUTE && isDateId());
+		else
+			endTag(tagName);
+	}
+
+	// the attributes up to the end of the tag, only the id and a hash of the rest are kept
+	private boolean attributes() throws IOException
+	{
+		boolean named = false; // after an attribute name a < starts the next name, before one it ends the tag
+		while (true)
+		{
+			// before attribute name
+			int c = read();
+			if (c < 0)
+				return false;
+			if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ')
+				continue;
+			if (c == '/')
+			{
+				if (selfClosingTag())
+					return true;
+				if (limit == position && !fill(1))
+					return false;
+				continue;
+			}
+			if (c == '<' && !named)
+			{
+				position--;
+				return true;
+			}
+			named = false;
+			if (c == '>')
+				return true;
+
+			// attribute name, the quotes and < are part of it here
+			boolean isId = true;
+			int length = 0;
+			while (true)
+			{
+				if (c == 0)
+					c = '\uFFFD';
+				c = Character.toLowerCase((char) c);
+				isId &= length < 2 && c == "id".charAt(length);
+				length++;
+				attributeHash = attributeHash * 31 + c;
+				c = read();
+				if (c < 0)
+					return false;
+				if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ' || c == '/' || c == '=' || c == '>')
+					break;
+			}
+			isId &= length == 2;
+
+			// after attribute name
+			while (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ')
+			{
+				c = read();
+				if (c < 0)
+					return false;
+			}
+			if (c == '/')
+			{
+				if (selfClosingTag())
+					return true;
+				if (limit == position && !fill(1))
+					return false;
+				continue;
+			}
+			if (c == '>')
+				return true;
+			if (c != '=')
+			{
+				// the next attribute, its first char was read already
+				position--;
+				named = true;
+				continue;
+			}
+			attributeHash = attributeHash * 31 + '=';
+			boolean keep = isId && !hasId;
+			if (isId)
+				hasId = true;
+
+			// before attribute value
+			do{
+				c = read();
+			} while (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ');
+			if (c < 0 || c == '>')
+				return true;
+			if (c == '"' || c == '\'')
+			{
+				int quote = c;
+				while ((c = read()) != quote)
+				{
+					if (c < 0)
+						return false;
+					value(keep,c);
+				}
+				// after the quoted value
+				c = read();
+				if (c < 0)
+					return false;
+				if (c == '>')
+					return true;
+				if (c == '/')
+				{
+					if (selfClosingTag())
+						return true;
+					if (limit == position && !fill(1))
+						return false;
+					continue;
+				}
+				if (!(c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' '))
+					position--;
+				continue;
+			}
+			// unquoted value
+			while (true)
+			{
+				value(keep,c);
+				c = read();
+				if (c < 0)
+					return false;
+				if (c == '>')
+					return true;
+				if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ')
+					break;
+			}
+		}
+	}
+
+	private void value(boolean keep, int c)
+	{
+		if (c == 0)
+			c = '\uFFFD';
+		attributeHash = attributeHash * 31 + c;
+		if (keep && id.length() <= DATE_ID.length() + MAX_ATTRIBUTE)
+			id.append((char) c);
+	}
+
+	// after a / in a tag, true if it ends the tag. Otherwise the / is dropped and the attributes go on
+	private boolean selfClosingTag() throws IOException
+	{
+		int c = peek();
+		if (c == '>')
+		{
+			position++;
+			selfClosing = true;
+			return true;
+		}
+		return false;
+	}
+
+	private boolean isDateId()
+	{
+		if (id.indexOf("&") >= 0)
+			return Parser.unescapeEntities(id.toString(),true).equals(DATE_ID);
+		if (id.length() != DATE_ID.length())
+			return false;
+		for (int i = 0; i < id.length(); ++i)
+		{
+			if (id.charAt(i) != DATE_ID.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private void markupDeclaration() throws IOException
+	{
+		if (match("--",false))
+			comment();
+		else if (match("DOCTYPE",true))
+			doctype();
+		else if (match("[CDATA[",false))
+		{
+			// a CDATA section is a text node that keeps its whitespace
+			if (paragraph.isOpen() || dateText.isOpen())
+			{
+				failed = true;
+				return;
+			}
+			boolean empty = true;
+			int brackets = 0;
+			int c;
+			while ((c = read()) >= 0 && !(c == '>' && brackets >= 2))
+			{
+				brackets = c == ']' ? brackets + 1 : 0;
+				empty = false;
+			}
+			if (!empty)
+				character('x');
+		}
+		else
+			bogusComment();
+	}
+
+	// <!-- up to --> or --!>
+	private void comment() throws IOException
+	{
+		int dashes = 2; // <!--> and <!---> end right away
+		boolean bang = false;
+		boolean first = true;
+		int c;
+		while ((c = read()) >= 0)
+		{
+			if (c == '-')
+			{
+				dashes = bang ? 1 : dashes + 1;
+				bang = false;
+			}
+			else if (c == '>' && (dashes >= 2 || bang))
+				break;
+			else if (c == '!' && dashes >= 2 && !bang && !first)
+				bang = true;
+			else
+			{
+				dashes = 0;
+				bang = false;
+			}
+			first = false;
+		}
+		commentNode();
+	}
+
+	private void bogusComment() throws IOException
+	{
+		int c;
+		while ((c = read()) >= 0 && c != '>')
+			;
+		commentNode();
+	}
+
+	// a comment node is the next sibling of the element before it
+	private void commentNode()
+	{
+		if (!inBody)
+			return;
+		paragraph.element(false);
+		dateText.element(false);
+	}
+
+	private void doctype() throws IOException
+	{
+		scratch.setLength(0);
+		int c;
+		while ((c = read()) >= 0 && c != '>')
+		{
+			if (scratch.length() < 1024)
+				scratch.append((char) c);
+		}
+		// only the first token can be the doctype. Jsoup goes to quirks mode for a broken one
+		if (!started)
+			quirks = c < 0 || scratch.length() >= 1024 || !DOCTYPE.matcher(scratch).matches();
+		started = true;
+	}
+
+	private void characterReference() throws IOException
+	{
+		if (!paragraph.isOpen() && !dateText.isOpen() && peek() != '#')
+		{
+			character('&');
+			return;
+		}
+		// the same chars consumeCharacterReference looks at: &# and digits, or letters then digits, and the ;
+		scratch.setLength(0);
+		scratch.append('&');
+		int c = peek();
+		if (c == '#')
+		{
+			scratch.append('#');
+			position++;
+			c = peek();
+			boolean hex = c == 'x' || c == 'X';
+			if (hex)
+			{
+				scratch.append((char) c);
+				position++;
+			}
+			while ((c = peek()) >= 0 && (c >= '0' && c <= '9' || hex && (c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) && scratch.length() < MAX_REFERENCE)
+			{
+				scratch.append((char) c);
+				position++;
+			}
+		}
+		else
+		{
+			while ((c = peek()) >= 0 && (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || Character.isLetter(c)) && scratch.length() < MAX_REFERENCE)
+			{
+				scratch.append((char) c);
+				position++;
+			}
+			while ((c = peek()) >= '0' && c <= '9' && scratch.length() < MAX_REFERENCE)
+			{
+				scratch.append((char) c);
+				position++;
+			}
+		}
+		if (peek() == ';')
+		{
+			scratch.append(';');
+			position++;
+		}
+		if (scratch.length() >= MAX_REFERENCE)
+		{
+			failed = true;
+			return;
+		}
+
+		String reference = scratch.toString();
+		String decoded = references.get(reference);
+		if (decoded == null)
+		{
+			decoded = Parser.unescapeEntities(reference,false);
+			if (references.size() < 4096)
+				references.put(reference,decoded);
+		}
+		if (decoded.indexOf(0) >= 0)
+		{
+			failed = true;
+			return;
+		}
+		for (int i = 0; i < decoded.length(); ++i)
+			character(decoded.charAt(i));
+	}
+
+	// the content of script, up to </script> that is not in <!-- <script> ... -->
+	private void skipScript() throws IOException
+	{
+		int state = 0; // 0 data, 1 escaped ( after <!-- ), 2 double escaped ( <script> after <!-- )
+		int dashes = 0;
+		int c;
+		while ((c = read()) >= 0)
+		{
+			if (c == '-')
+			{
+				dashes++;
+				continue;
+			}
+			if (c == '>' && dashes >= 2 && state != 0)
+				state = 0;
+			else if (c == '<')
+			{
+				c = peek();
+				if (c == '!' && state == 0)
+				{
+					position++;
+					if (match("--",false))
+					{
+						state = 1;
+						dashes = 2;
+						continue;
+					}
+				}
+				else if (c == '/')
+				{
+					position++;
+					if (state == 2)
+					{
+						if (letters("script") && delimiter())
+							state = 1;
+					}
+					else if (rawEndTag("script"))
+						return;
+				}
+				else if (state == 1 && c >= 0 && isLetter(c))
+				{
+					if (letters("script") && delimiter())
+						state = 2;
+				}
+			}
+			dashes = 0;
+		}
+	}
+
+	// the content of style, xmp, iframe, noembed and noframes, up to their end tag
+	private void skipRawText(String tagName) throws IOException
+	{
+		int c;
+		while ((c = read()) >= 0)
+		{
+			if (c == '<' && peek() == '/')
+			{
+				position++;
+				if (rawEndTag(tagName))
+					return;
+			}
+		}
+	}
+
+	// the content of title and textarea. For a < that starts a tag Jsoup looks ahead in its buffer for the end tag,
+	// that can not be done the same way here
+	private void skipRcdata(String tagName) throws IOException
+	{
+		int c;
+		while ((c = read()) >= 0)
+		{
+			if (c != '<')
+				continue;
+			c = peek();
+			if (c == '/')
+			{
+				position++;
+				if (rawEndTag(tagName))
+					return;
+			}
+			else if (c >= 0 && isAsciiLetter(c))
+			{
+				failed = true;
+				return;
+			}
+		}
+	}
+
+	// after </ in raw text: true when the end tag of the element follows, and then reads it to its >
+	private boolean rawEndTag(String tagName) throws IOException
+	{
+		int c = peek();
+		if (c < 0 || !isAsciiLetter(c))
+			return false;
+		if (!letters(tagName))
+			return false;
+		c = read();
+		if (c < 0)
+			return false;
+		if (c == '>')
+			return true;
+		if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ')
+		{
+			attributes();
+			return true;
+		}
+		if (c == '/')
+		{
+			if (selfClosingTag())
+				return true;
+			attributes();
+			return true;
+		}
+		return false;
+	}
+
+	// consumes the letters that follow, true if they are the tag name ( in any case )
+	private boolean letters(String tagName) throws IOException
+	{
+		int length = 0;
+		boolean same = true;
+		int c;
+		while ((c = peek()) >= 0 && isLetter(c))
+		{
+			position++;
+			same &= length < tagName.length() && Character.toLowerCase((char) c) == tagName.charAt(length);
+			length++;
+		}
+		return same && length == tagName.length();
+	}
+
+	private boolean delimiter() throws IOException
+	{
+		int c = peek();
+		if (c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == ' ' || c == '/' || c == '>')
+		{
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private int read() throws IOException
+	{
+		if (position == limit && !fill(1))
+			return -1;
+		return buffer[position++];
+	}
+
+	private int peek() throws IOException
+	{
+		if (position == limit && !fill(1))
+			return -1;
+		return buffer[position];
+	}
+
+	// consumes s if the chars that follow are s
+	private boolean match(String s, boolean ignoreCase) throws IOException
+	{
+		if (!fill(s.length()))
+			return false;
+		for (int i = 0; i < s.length(); ++i)
+		{
+			char c = buffer[position + i];
+			if (c != s.charAt(i) && !(ignoreCase && Character.toUpperCase(c) == s.charAt(i)))
+				return false;
+		}
+		position += s.length();
+		return true;
+	}
+
+	// makes count chars available from position, false if the file ends before
+	private boolean fill(int count) throws IOException
+	{
+		if (limit - position >= count)
+			return true;
+		if (position > 0)
+		{
+			System.arraycopy(buffer,position,buffer,0,limit - position);
+			limit -= position;
+			position = 0;
+		}
+		while (limit < count)
+		{
+			long start = System.nanoTime();
+			int read = reader.read(buffer,limit,buffer.length - limit);
+			readNanos += System.nanoTime() - start;
+			if (read < 0)
+				return false;
+			limit += read;
+		}
+		return true;
+	}
+
+	private static boolean isAsciiLetter(int c){ return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'; }
+
+	private static boolean isLetter(int c){ return isAsciiLetter(c) || Character.isLetter((char) c); }
+
+	private static boolean isWhitespace(char c){ return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r'; }
+
+	private void appendName(char c)
+	{
+		if (c >= 'A' && c <= 'Z')
+			c += 'a' - 'A';
+		if (nameLength == name.length)
+			name = Arrays.copyOf(name,nameLength * 2);
+		name[nameLength++] = c;
+	}
+
+	// the name of the tag read last and its flags, a name seen before costs no String
+	private String tagName()
+	{
+		String lowerCase = null;
+		int hash = 0;
+		for (int i = 0; i < nameLength; ++i)
+		{
+			if (name[i] > 127)
+			{
+				lowerCase = new String(name,0,nameLength).toLowerCase(Locale.ENGLISH);
+				hash = lowerCase.hashCode();
+				break;
+			}
+			hash = 31 * hash + name[i];
+		}
+		int mask = names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (names[slot] != null)
+		{
+			if (nameHashes[slot] == hash && (lowerCase != null ? lowerCase.equals(names[slot]) : matches(names[slot])))
+			{
+				tagFlags = nameFlags[slot];
+				return names[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return addName(lowerCase != null ? lowerCase : new String(name,0,nameLength),hash,slot);
+	}
+
+	private String addName(String tagName, int hash, int slot)
+	{
+		tagFlags = tagFlags(tagName);
+		if (nameCount * 2 >= names.length)
+		{
+			failed = true; // a new String would not be == to the one on the stack
+			return tagName;
+		}
+		int mask = names.length - 1;
+		while (names[slot] != null)
+			slot = (slot + 1) & mask;
+		names[slot] = tagName;
+		nameHashes[slot] = hash;
+		nameFlags[slot] = tagFlags;
+		nameCount++;
+		return tagName;
+	}
+
+	private boolean matches(String tagName)
+	{
+		if (tagName.length() != nameLength)
+			return false;
+		for (int i = 0; i < nameLength; ++i)
+		{
+			if (tagName.charAt(i) != name[i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int tagFlags(String tagName)
+	{
+		Integer tagFlags = TAGS.get(tagName);
+		if (tagFlags != null)
+			return tagFlags;
+		return (Tag.isKnownTag(tagName) ? KNOWN : 0) | (Tag.valueOf(tagName).isBlock() ? BLOCK : 0);
+	}
+
+	private static void flag(int flag, String... tagNames)
+	{
+		for (String tagName : tagNames)
+		{
+			Integer old = TAGS.get(tagName);
+			if (old == null)
+				old = (Tag.isKnownTag(tagName) ? KNOWN : 0) | (Tag.valueOf(tagName).isBlock() ? BLOCK : 0);
+			TAGS.put(tagName,old | flag);
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- Tree rules, the parts of org.jsoup.parser.HtmlTreeBuilderState that decide where the text goes
+-------------------------------------------------------------------------------------*/
+	private void character(char c)
+	{
+		if (!inBody)
+		{
+			if (isWhitespace(c))
+				return;
+			startBody();
+		}
+		// after </body> whitespace still goes in the open element, Jsoup's body rules take it
+		if (afterBody && !isWhitespace(c))
+			reopenBody();
+		if ((flags[depth - 1] & TABLE_TEXT) != 0 && reconstruct && !isWhitespace(c))
+		{
+			// text between the parts of a table stays in the table, but a formatting element put back for it goes before
+			// the table with the text in it, out of order for a paragraph or date that is open
+			if (paragraph.isOpen() || dateText.isOpen())
+				failed = true;
+			reconstruct();
+			return;
+		}
+		if (reconstruct && (flags[depth - 1] & TABLE_TEXT) == 0)
+			reconstruct();
+		if (paragraph.root >= 0)
+			paragraph.text(c,depth);
+		if (dateText.root >= 0)
+			dateText.text(c,depth);
+	}
+
+	private void startTag(String tagName, int tagFlags, boolean selfClosing, boolean isDate) throws IOException
+	{
+		if (!inBody)
+		{
+			if (headStartTag(tagName,tagFlags,selfClosing,isDate))
+				return;
+			startBody();
+		}
+		if (afterBody && tagName != "html")
+			reopenBody();
+		if (failed)
+			return;
+		int before = lastId;
+		if (lastIndexOf("select") >= 0)
+			selectStartTag(tagName,tagFlags,isDate);
+		else if (!tableStartTag(tagName,tagFlags,isDate))
+		{
+			// an element between the parts of a table goes before the table, out of a date element that is the table
+			// or around it
+			if ((flags[depth - 1] & TABLE_TEXT) != 0 && dateText.isOpen())
+				failed = true;
+			bodyStartTag(tagName,tagFlags,selfClosing,isDate);
+		}
+		// Jsoup closes an element that ends with /> right away ( not a form )
+		if (selfClosing && !failed && tagName != "form" && stack[depth - 1] == tagName && ids[depth - 1] > before)
+			endTag(tagName);
+	}
+
+	private void endTag(String tagName) throws IOException
+	{
+		if (!inBody)
+		{
+			if (tagName == "template")
+				failed = true;
+			if (!(tagName == "body" || tagName == "html" || tagName == "br"))
+				return;
+			startBody();
+		}
+		if (afterBody)
+		{
+			if (tagName == "html")
+			{
+				closeHtml();
+				return;
+			}
+			reopenBody();
+		}
+		if (lastIndexOf("select") >= 0)
+			selectEndTag(tagName);
+		else if (!tableEndTag(tagName))
+			bodyEndTag(tagName);
+	}
+
+	// the tags of the head, true if the tag stays in the head
+	private boolean headStartTag(String tagName, int tagFlags, boolean selfClosing, boolean isDate) throws IOException
+	{
+		switch (tagName)
+		{
+			case "html":
+			case "head":
+				failed |= isDate;
+				return true;
+			case "base":
+			case "basefont":
+			case "bgsound":
+			case "command":
+			case "link":
+			case "meta":
+				empty(tagName,tagFlags,isDate);
+				return true;
+			case "title":
+			case "noframes":
+			case "style":
+			case "script":
+				failed |= isDate;
+				if (!selfClosing)
+					skipRaw(tagName);
+				return true;
+			case "noscript": // Jsoup turns the tags in a noscript of the head into text
+			case "template":
+			case "frameset":
+				failed = true;
+				return true;
+			case "body":
+				// the text after </body> or </html> goes back in the same body, a date on the body is not followed
+				failed |= selfClosing || isDate;
+				inBody = true;
+				bodyOpen = true;
+				push(tagName,tagFlags,isDate);
+				return true;
+		}
+		return false;
+	}
+
+	private void startBody()
+	{
+		started = true;
+		inBody = true;
+		bodyOpen = true;
+		push("body",tagFlags("body"),false);
+	}
+
+	// </html> after the body closes everything, the body that comes back is empty
+	private void closeHtml()
+	{
+		if (htmlOpen)
+			popAbove(0);
+		htmlOpen = false;
+	}
+
+	private void reopenBody()
+	{
+		afterBody = false;
+		if (!bodyOpen)
+			push("body",tagFlags("body"),false);
+		bodyOpen = true;
+	}
+
+	private void bodyStartTag(String tagName, int tagFlags, boolean selfClosing, boolean isDate) throws IOException
+	{
+		switch (tagName)
+		{
+			case "a":
+			{
+				if (activeFormatting("a") >= 0)
+				{
+					formattingEndTag("a");
+					int a = lastIndexOf("a");
+					if (a >= 0)
+					{
+						removeFormatting(formattingIndex(ids[a]));
+						remove(a);
+					}
+				}
+				if (failed)
+					return;
+				reconstruct();
+				pushFormatting(tagName,tagFlags,isDate);
+				break;
+			}
+			case "li":
+			case "dd":
+			case "dt":
+			{
+				boolean li = tagName == "li";
+				int bottom = li ? 1 : Math.max(0,depth - 1 - 24);
+				for (int i = depth - 1; i >= bottom; --i)
+				{
+					String open = stack[i];
+					if (li ? open == "li" : (open == "dd" || open == "dt"))
+					{
+						bodyEndTag(open);
+						break;
+					}
+					if ((flags[i] & SPECIAL) != 0 && !(open == "address" || open == "div" || open == "p"))
+						break;
+				}
+				closeParagraph(BUTTON_SCOPE);
+				push(tagName,tagFlags,isDate);
+				break;
+			}
+			case "html":
+			case "body":
+				failed |= isDate;
+				return;
+			case "form":
+				if (form)
+				{
+					failed |= isDate;
+					return;
+				}
+				closeParagraph(BUTTON_SCOPE);
+				push(tagName,tagFlags,isDate);
+				form = true;
+				formId = lastId;
+				break;
+			case "button":
+				if (inScope("button",BUTTON_SCOPE) >= 0)
+					bodyEndTag("button");
+				reconstruct();
+				push(tagName,tagFlags,isDate);
+				break;
+			case "nobr":
+				reconstruct();
+				if (inScope("nobr",DEFAULT_SCOPE) >= 0)
+				{
+					formattingEndTag("nobr");
+					reconstruct();
+				}
+				pushFormatting(tagName,tagFlags,isDate);
+				break;
+			case "table":
+				if (inScope("p",BUTTON_SCOPE) >= 0)
+				{
+					if (quirks)
+					{
+						failed = true;
+						return;
+					}
+					bodyEndTag("p");
+				}
+				if (paragraph.isOpen() || dateText.isOpen())
+				{
+					failed = true;
+					return;
+				}
+				push(tagName,tagFlags,isDate);
+				break;
+			case "input":
+			case "area":
+			case "br":
+			case "embed":
+			case "img":
+			case "keygen":
+			case "wbr":
+			case "image":
+				reconstruct();
+				empty(tagName == "image" ? "img" : tagName,tagName == "image" ? tagFlags("img") : tagFlags,isDate);
+				return;
+			case "hr":
+				closeParagraph(BUTTON_SCOPE);
+				empty(tagName,tagFlags,isDate);
+				return;
+			case "textarea":
+			case "xmp":
+			case "iframe":
+			case "noembed":
+			case "noframes":
+			case "title":
+				// raw text, its text nodes keep their whitespace or their entities
+				if (tagName == "xmp")
+					closeParagraph(BUTTON_SCOPE);
+				if (paragraph.isOpen() || dateText.isOpen() || isDate)
+				{
+					failed = true;
+					return;
+				}
+				push(tagName,tagFlags,isDate);
+				if (!selfClosing)
+					skipRaw(tagName);
+				pop();
+				return;
+			case "script":
+			case "style":
+				// the content is a data node, not text
+				push(tagName,tagFlags,isDate);
+				if (!selfClosing)
+					skipRaw(tagName);
+				pop();
+				return;
+			case "h1":
+			case "h2":
+			case "h3":
+			case "h4":
+			case "h5":
+			case "h6":
+				closeParagraph(BUTTON_SCOPE);
+				if (isHeading(stack[depth - 1]))
+					pop();
+				push(tagName,tagFlags,isDate);
+				break;
+			case "pre":
+			case "listing":
+				closeParagraph(BUTTON_SCOPE);
+				if (paragraph.isOpen() || dateText.isOpen() || isDate)
+				{
+					failed = true;
+					return;
+				}
+				push(tagName,tagFlags,isDate);
+				if (peek() == '\n')
+					position++;
+				break;
+			case "option":
+			case "optgroup":
+				if (stack[depth - 1] == "option")
+					pop();
+				reconstruct();
+				push(tagName,tagFlags,isDate);
+				break;
+			case "rp":
+			case "rt":
+				if (inScope("ruby",DEFAULT_SCOPE) < 0)
+				{
+					failed |= isDate;
+					return;
+				}
+				while ((flags[depth - 1] & IMPLIED_END) != 0)
+					pop();
+				while (depth > 1 && stack[depth - 1] != "ruby")
+					pop();
+				push(tagName,tagFlags,isDate);
+				break;
+			case "base":
+			case "basefont":
+			case "bgsound":
+			case "command":
+			case "link":
+			case "meta":
+			case "param":
+			case "source":
+			case "track":
+				empty(tagName,tagFlags,isDate);
+				return;
+			case "select":
+			case "math":
+			case "svg":
+			case "plaintext":
+			case "isindex":
+			case "frameset":
+			case "template":
+				failed = true;
+				return;
+			default:
+				if ((tagFlags & FORMATTING) != 0)
+				{
+					reconstruct();
+					pushFormatting(tagName,tagFlags,isDate);
+				}
+				else if ((tagFlags & KNOWN) == 0)
+					push(tagName,tagFlags,isDate);
+				else if ((tagFlags & CLOSES_P) != 0)
+				{
+					closeParagraph(BUTTON_SCOPE);
+					push(tagName,tagFlags,isDate);
+				}
+				else if ((tagFlags & TABLE_PART) != 0 || tagName == "frame" || tagName == "head")
+				{
+					// not in a table, dropped
+					failed |= isDate;
+					return;
+				}
+				else
+				{
+					reconstruct();
+					push(tagName,tagFlags,isDate);
+					if ((tagFlags & MARKER) != 0)
+						marker();
+				}
+		}
+	}
+
+	private void bodyEndTag(String tagName) throws IOException
+	{
+		switch (tagName)
+		{
+			case "template":
+				failed = true;
+				break;
+			case "li":
+				if (inScope(tagName,LIST_SCOPE) >= 0)
+					popTo(tagName);
+				break;
+			case "body":
+			case "html":
+				if (inScope("body",DEFAULT_SCOPE) >= 0)
+				{
+					otherEndTag("body");
+					afterBody = true;
+					if (tagName == "html")
+						closeHtml();
+				}
+				break;
+			case "form":
+			{
+				boolean open = form;
+				form = false;
+				if (!open || inScope(tagName,DEFAULT_SCOPE) < 0)
+					break;
+				while ((flags[depth - 1] & IMPLIED_END) != 0)
+					pop();
+				// only the form element is taken off the stack, the elements in it stay open
+				int index = indexOfId(formId);
+				if (index >= 0)
+					remove(index);
+				break;
+			}
+			case "p":
+				if (inScope(tagName,BUTTON_SCOPE) < 0)
+				{
+					// a stray </p> is an empty paragraph
+					bodyStartTag("p",tagFlags("p"),false,false);
+					if (failed || inScope(tagName,BUTTON_SCOPE) < 0)
+						break;
+				}
+				popTo(tagName);
+				break;
+			case "dd":
+			case "dt":
+				if (inScope(tagName,DEFAULT_SCOPE) >= 0)
+					popTo(tagName);
+				break;
+			case "h1":
+			case "h2":
+			case "h3":
+			case "h4":
+			case "h5":
+			case "h6":
+			{
+				boolean inScope = false;
+				for (int i = depth - 1; i >= 0 && !inScope; --i)
+				{
+					if (isHeading(stack[i]))
+						inScope = true;
+					else if ((flags[i] & SCOPE) != 0)
+						break;
+				}
+				if (inScope)
+				{
+					while (!isHeading(stack[depth - 1]))
+						pop();
+					pop();
+				}
+				break;
+			}
+			case "br":
+				reconstruct();
+				empty("br",tagFlags("br"),false);
+				break;
+			default:
+			{
+				int tagFlags = tagFlags(tagName);
+				if ((tagFlags & FORMATTING) != 0)
+					formattingEndTag(tagName);
+				else if ((tagFlags & END_CLOSER) != 0 || tagName == "applet" || tagName == "marquee" || tagName == "object")
+				{
+					if (inScope(tagName,DEFAULT_SCOPE) >= 0)
+						popTo(tagName);
+				}
+				else
+					otherEndTag(tagName);
+			}
+		}
+	}
+
+	// closes the nearest open element of that name, unless a special element is open in it
+	private void otherEndTag(String tagName)
+	{
+		for (int i = depth - 1; i >= 0; --i)
+		{
+			if (stack[i] == tagName)
+			{
+				while (depth > i)
+					pop();
+				return;
+			}
+			if ((flags[i] & SPECIAL) != 0)
+				return;
+		}
+	}
+
+	// the end tag of a formatting element. The adoption agency algorithm moves elements around the tree when a
+	// block was opened in the formatting element, that case is left to Jsoup
+	private void formattingEndTag(String tagName)
+	{
+		int entry = activeFormatting(tagName);
+		if (entry < 0)
+		{
+			otherEndTag(tagName);
+			return;
+		}
+		int element = indexOfId(formattingIds[entry]);
+		if (element < 0)
+		{
+			removeFormatting(entry);
+			return;
+		}
+		if (inScope(tagName,DEFAULT_SCOPE) < 0)
+			return;
+		if (depth >= 64)
+		{
+			failed = true;
+			return;
+		}
+		for (int i = element + 1; i < depth; ++i)
+		{
+			if ((flags[i] & SPECIAL) != 0)
+			{
+				failed = true;
+				return;
+			}
+		}
+		popTo(tagName);
+		removeFormatting(entry);
+	}
+
+	// the parts of a table get their own rules once a table is open, true if the tag was taken care of
+	private boolean tableStartTag(String tagName, int tagFlags, boolean isDate) throws IOException
+	{
+		int table = lastIndexOf("table");
+		if (table < 0)
+			return false;
+		int cell = table;
+		for (int i = depth - 1; i > table; --i)
+		{
+			if (stack[i] == "td" || stack[i] == "th" || stack[i] == "caption")
+			{
+				cell = i;
+				break;
+			}
+		}
+		if (cell > table)
+		{
+			// in a cell or caption the parts of a table close it, the rest of the tags follow the rules of the body
+			if ((tagFlags & TABLE_PART) == 0)
+				return false;
+			while (depth > cell)
+				pop();
+			return tableStartTag(tagName,tagFlags,isDate);
+		}
+
+		if (stack[depth - 1] == "colgroup" && tagName != "col")
+			pop();
+		switch (tagName)
+		{
+			case "caption":
+			case "colgroup":
+			case "tbody":
+			case "thead":
+			case "tfoot":
+				popAbove(table);
+				push(tagName,tagFlags,isDate);
+				if (tagName == "caption")
+					marker();
+				return true;
+			case "col":
+				popAbove(table);
+				push("colgroup",tagFlags("colgroup"),false);
+				empty(tagName,tagFlags,isDate);
+				return true;
+			case "tr":
+			case "td":
+			case "th":
+			{
+				int row = -1;
+				int section = -1;
+				for (int i = depth - 1; i > table; --i)
+				{
+					if (stack[i] == "tr" && row < 0 && section < 0)
+						row = i;
+					else if (stack[i] == "tbody" || stack[i] == "thead" || stack[i] == "tfoot")
+					{
+						section = i;
+						break;
+					}
+				}
+				if (tagName == "tr" && row >= 0)
+				{
+					popAbove(row - 1);
+					row = -1;
+				}
+				if (row >= 0)
+					popAbove(row);
+				else
+				{
+					if (section >= 0)
+						popAbove(section);
+					else
+					{
+						popAbove(table);
+						push("tbody",tagFlags("tbody"),false);
+					}
+					if (tagName != "tr")
+						push("tr",tagFlags("tr"),false);
+				}
+				push(tagName,tagFlags,isDate);
+				if (tagName != "tr")
+					marker();
+				return true;
+			}
+			case "table":
+				popAbove(table - 1);
+				startTag(tagName,tagFlags,false,isDate);
+				return true;
+			case "input":
+				empty(tagName,tagFlags,isDate);
+				return true;
+			case "form":
+				// the form goes in the table, but not on the stack
+				failed |= isDate;
+				if (!form)
+				{
+					form = true;
+					formId = 0;
+				}
+				return true;
+			case "template":
+				failed = true;
+				return true;
+		}
+		return false;
+	}
+
+	// true if the end tag was taken care of by the rules of the table
+	private boolean tableEndTag(String tagName)
+	{
+		int table = lastIndexOf("table");
+		if (table < 0)
+			return false;
+		int cell = table;
+		for (int i = depth - 1; i > table; --i)
+		{
+			if (stack[i] == "td" || stack[i] == "th" || stack[i] == "caption")
+			{
+				cell = i;
+				break;
+			}
+		}
+		if (cell > table)
+		{
+			switch (tagName)
+			{
+				case "td":
+				case "th":
+				case "caption":
+				{
+					int index = inScope(tagName,TABLE_SCOPE);
+					if (index >= 0)
+					{
+						while (depth > index)
+							pop();
+					}
+					return true;
+				}
+				case "table":
+				case "tbody":
+				case "tfoot":
+				case "thead":
+				case "tr":
+					if (inScope(tagName,TABLE_SCOPE) < 0)
+						return true;
+					while (depth > cell)
+						pop();
+					return tableEndTag(tagName);
+				case "body":
+				case "col":
+				case "colgroup":
+				case "html":
+					return true;
+			}
+			return false;
+		}
+
+		switch (tagName)
+		{
+			case "table":
+			case "tbody":
+			case "tfoot":
+			case "thead":
+			case "tr":
+			{
+				int index = inScope(tagName,TABLE_SCOPE);
+				if (index >= 0)
+				{
+					while (depth > index)
+						pop();
+				}
+				return true;
+			}
+			case "colgroup":
+				if (stack[depth - 1] == "colgroup")
+					pop();
+				return true;
+			case "body":
+			case "caption":
+			case "col":
+			case "html":
+			case "td":
+			case "th":
+				return true;
+			case "template":
+				failed = true;
+				return true;
+		}
+		return false;
+	}
+
+	// a select is never around the text, the page only has to be followed up to its end
+	private void selectStartTag(String tagName, int tagFlags, boolean isDate) throws IOException
+	{
+		switch (tagName)
+		{
+			case "option":
+			case "optgroup":
+				if (stack[depth - 1] == "option")
+					pop();
+				if (tagName == "optgroup" && stack[depth - 1] == "optgroup")
+					pop();
+				push(tagName,tagFlags,isDate);
+				return;
+			case "select":
+				popTo("select");
+				return;
+			case "input":
+			case "keygen":
+			case "textarea":
+				popTo("select");
+				startTag(tagName,tagFlags,false,isDate);
+				return;
+			case "script":
+				push(tagName,tagFlags,isDate);
+				skipRaw(tagName);
+				pop();
+				return;
+			case "template":
+				failed = true;
+				return;
+		}
+		if ((tagFlags & TABLE_PART) != 0 || tagName == "table")
+		{
+			if (lastIndexOf("table") >= 0)
+			{
+				popTo("select");
+				startTag(tagName,tagFlags,false,isDate);
+				return;
+			}
+		}
+		failed |= isDate;
+	}
+
+	private void selectEndTag(String tagName) throws IOException
+	{
+		switch (tagName)
+		{
+			case "optgroup":
+				if (stack[depth - 1] == "option" && stack[depth - 2] == "optgroup")
+					pop();
+				if (stack[depth - 1] == "optgroup")
+					pop();
+				return;
+			case "option":
+				if (stack[depth - 1] == "option")
+					pop();
+				return;
+			case "select":
+				popTo("select");
+				return;
+			case "template":
+				failed = true;
+				return;
+		}
+		if ((tagName == "table" || (tagFlags(tagName) & TABLE_PART) != 0) && lastIndexOf("table") >= 0 && inScope(tagName,TABLE_SCOPE) >= 0)
+		{
+			popTo("select");
+			endTag(tagName);
+		}
+	}
+
+	private void skipRaw(String tagName) throws IOException
+	{
+		if (tagName == "script")
+			skipScript();
+		else if (tagName == "title" || tagName == "textarea")
+			skipRcdata(tagName);
+		else
+			skipRawText(tagName);
+	}
+
+	// closes the open <p> if there is one in the scope
+	private void closeParagraph(int scope)
+	{
+		if (inScope("p",scope) >= 0)
+			popTo("p");
+	}
+
+	// the index of the element with that name in the scope, -1 if a scope boundary comes first
+	private int inScope(String tagName, int scope)
+	{
+		for (int i = depth - 1; i >= 0; --i)
+		{
+			String open = stack[i];
+			if (open == tagName)
+				return i;
+			if (scope == TABLE_SCOPE)
+			{
+				if (open == "table" || open == "html")
+					return -1;
+			}
+			else if ((flags[i] & SCOPE) != 0 || scope == BUTTON_SCOPE && open == "button" || scope == LIST_SCOPE && (open == "ol" || open == "ul"))
+				return -1;
+		}
+		return -1;
+	}
+
+	private int lastIndexOf(String tagName)
+	{
+		for (int i = depth - 1; i >= 0; --i)
+		{
+			if (stack[i] == tagName)
+				return i;
+		}
+		return -1;
+	}
+
+	private int indexOfId(int elementId)
+	{
+		for (int i = depth - 1; i >= 0; --i)
+		{
+			if (ids[i] == elementId)
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean isHeading(String tagName)
+	{
+		return tagName.length() == 2 && tagName.charAt(0) == 'h' && tagName.charAt(1) >= '1' && tagName.charAt(1) <= '6';
+	}
+
+/*------------------------------------------------------------------------------------
+	- The stack of open elements and the active formatting elements
+-------------------------------------------------------------------------------------*/
+	private void push(String tagName, int tagFlags, boolean isDate)
+	{
+		if (depth == MAX_DEPTH)
+		{
+			failed = true;
+			return;
+		}
+		boolean space = (tagFlags & BLOCK) != 0 || tagName == "br";
+		paragraph.element(space);
+		dateText.element(space);
+		stack[depth] = tagName;
+		flags[depth] = tagFlags;
+		ids[depth] = ++lastId;
+		depth++;
+
+		if (tagName == "p" && bodyOpen)
+			openParagraph();
+		if (isDate && date == null && !dateText.isOpen())
+			openDate();
+		else if (isDate && !canCollect())
+			failed = true; // moved out of a table, it could come before the date element that was found
+	}
+
+	// an element that is closed right away ( a void element )
+	private void empty(String tagName, int tagFlags, boolean isDate)
+	{
+		push(tagName,tagFlags,isDate);
+		pop();
+	}
+
+	private void pop()
+	{
+		--depth;
+		int tagFlags = flags[depth];
+		if (paragraph.root == depth)
+			closeParagraph();
+		else
+			paragraph.closed(tagFlags,depth);
+		if (dateText.root == depth)
+			closeDate();
+		else
+			dateText.closed(tagFlags,depth);
+
+		String tagName = stack[depth];
+		if ((tagFlags & MARKER) != 0)
+		{
+			// the formatting elements opened in a cell end with it
+			while (formattingCount > 0 && formattingIds[--formattingCount] != 0)
+				;
+		}
+		if ((tagFlags & FORMATTING) != 0)
+			reconstruct = true;
+		if (tagName == "body")
+			bodyOpen = false;
+	}
+
+	// pops up to and including the nearest element of that name
+	private void popTo(String tagName)
+	{
+		while (depth > 1 && stack[depth - 1] != tagName)
+			pop();
+		if (depth > 1)
+			pop();
+	}
+
+	// pops the elements above the index
+	private void popAbove(int index)
+	{
+		while (depth > index + 1)
+			pop();
+	}
+
+	// takes an element out of the stack, the elements above it stay open in it
+	private void remove(int index)
+	{
+		if (index == depth - 1)
+		{
+			pop();
+			return;
+		}
+		if (paragraph.isOpen() || dateText.isOpen())
+		{
+			// the text that follows could be the next sibling of the element, or inside it
+			failed = true;
+			return;
+		}
+		if ((flags[index] & FORMATTING) != 0)
+			reconstruct = true;
+		System.arraycopy(stack,index + 1,stack,index,depth - index - 1);
+		System.arraycopy(flags,index + 1,flags,index,depth - index - 1);
+		System.arraycopy(ids,index + 1,ids,index,depth - index - 1);
+		depth--;
+		paragraph.removed(index);
+		dateText.removed(index);
+	}
+
+	private void pushFormatting(String tagName, int tagFlags, boolean isDate)
+	{
+		long hash = attributeHash;
+		push(tagName,tagFlags,isDate);
+		if (failed)
+			return;
+
+		// at most 3 of the same formatting element are kept ( Noah's Ark )
+		int seen = 0;
+		for (int i = formattingCount - 1; i >= Math.max(0,formattingCount - 1 - 12); --i)
+		{
+			if (formattingIds[i] == 0)
+				break;
+			if (formattingNames[i] == tagName && formattingHashes[i] == hash && ++seen == 3)
+			{
+				removeFormatting(i);
+				break;
+			}
+		}
+		if (formattingCount == MAX_FORMATTING)
+		{
+			failed = true;
+			return;
+		}
+		formattingIds[formattingCount] = lastId;
+		formattingNames[formattingCount] = tagName;
+		formattingHashes[formattingCount] = hash;
+		formattingCount++;
+	}
+
+	private void marker()
+	{
+		if (formattingCount == MAX_FORMATTING)
+		{
+			failed = true;
+			return;
+		}
+		formattingIds[formattingCount++] = 0;
+	}
+
+	// the active formatting element of that name after the last marker, -1 if none
+	private int activeFormatting(String tagName)
+	{
+		for (int i = formattingCount - 1; i >= 0 && formattingIds[i] != 0; --i)
+		{
+			if (formattingNames[i] == tagName)
+				return i;
+		}
+		return -1;
+	}
+
+	private int formattingIndex(int elementId)
+	{
+		for (int i = formattingCount - 1; i >= 0; --i)
+		{
+			if (formattingIds[i] == elementId)
+				return i;
+		}
+		return -1;
+	}
+
+	private void removeFormatting(int index)
+	{
+		if (index < 0)
+			return;
+		formattingCount--;
+		System.arraycopy(formattingIds,index + 1,formattingIds,index,formattingCount - index);
+		System.arraycopy(formattingNames,index + 1,formattingNames,index,formattingCount - index);
+		System.arraycopy(formattingHashes,index + 1,formattingHashes,index,formattingCount - index);
+	}
+
+	// opens again the formatting elements that were closed before their end tag, like Jsoup does before text and most tags
+	private void reconstruct()
+	{
+		reconstruct = false;
+		if (formattingCount == 0)
+			return;
+		int last = formattingCount - 1;
+		if (formattingIds[last] == 0 || indexOfId(formattingIds[last]) >= 0)
+			return;
+		int ceiling = Math.max(0,formattingCount - 12);
+		int entry = last;
+		boolean skip = false;
+		while (true)
+		{
+			if (entry == ceiling)
+			{
+				skip = true;
+				break;
+			}
+			entry--;
+			if (formattingIds[entry] == 0 || indexOfId(formattingIds[entry]) >= 0)
+				break;
+		}
+		while (true)
+		{
+			if (!skip)
+				entry++;
+			skip = false;
+			push(formattingNames[entry],tagFlags(formattingNames[entry]),false);
+			if (failed)
+				return;
+			formattingIds[entry] = lastId;
+			if (entry == last)
+				break;
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- The paragraphs and the date
+-------------------------------------------------------------------------------------*/
+	private void openParagraph()
+	{
+		if (paragraph.isOpen() || !canCollect())
+		{
+			failed = true;
+			return;
+		}
+		// Elements.text puts a space before every paragraph but the first, also before an empty one
+		if (paragraph.length != 0)
+			paragraph.append(' ');
+		paragraph.open(depth - 1);
+	}
+
+	private void closeParagraph()
+	{
+		paragraph.close();
+	}
+
+	private void openDate()
+	{
+		if (!canCollect())
+		{
+			failed = true;
+			return;
+		}
+		dateText.length = 0;
+		dateText.open(depth - 1);
+	}
+
+	private void closeDate()
+	{
+		dateText.close();
+		date = dateText.toString();
+	}
+
+	// whether the text of an element opened now can be followed: not in content that is moved out of a table, not
+	// in a select or in pre, where the whitespace is kept. A cell ends the table part, a pre around the table still counts
+	private boolean canCollect()
+	{
+		boolean cell = false;
+		for (int i = depth - 2; i >= 0; --i)
+		{
+			String open = stack[i];
+			if (open == "td" || open == "th" || open == "caption")
+				cell = true;
+			if (open == "table" && !cell)
+				return false;
+			if (open == "pre" || open == "select" || open == "svg" || open == "math" || open == "template")
+				return false;
+		}
+		return true;
+	}
+
+/*------------------------------------------------------------------------------------
+	- The text of one element, put together the way Element.text does it
+	- Whitespace runs ( with &nbsp; ) become one space, and there is a space before a block element or a <br> and
+	  between a block element and the text that follows it. The text is trimmed when the element ends
+-------------------------------------------------------------------------------------*/
+	private static class Collector implements CharSequence
+	{
+		public char [] chars = new char[1 << 12];
+		public int length;
+		public int start; // where the text of the element starts
+		public int root = -1; // the index of the element on the stack, -1 when it is not open
+		public int tail = -1; // the depth at which a text is the next sibling of a block that just ended
+
+		public boolean isOpen(){ return root >= 0; }
+
+		public void open(int root)
+		{
+			this.root = root;
+			this.start = length;
+			this.tail = -1;
+		}
+
+		public void close()
+		{
+			while (length > start && chars[length - 1] <= ' ')
+				length--;
+			int begin = start;
+			while (begin < length && chars[begin] <= ' ')
+				begin++;
+			if (begin > start)
+			{
+				System.arraycopy(chars,begin,chars,start,length - begin);
+				length -= begin - start;
+			}
+			root = -1;
+		}
+
+		// an element ( or a comment ) starts in the element
+		public void element(boolean space)
+		{
+			if (root < 0)
+				return;
+			tail = -1;
+			if (space && length > start && chars[length - 1] != ' ')
+				append(' ');
+		}
+
+		// an element in the element ended, the stack is down to depth
+		public void closed(int tagFlags, int depth)
+		{
+			if (root < 0)
+				return;
+			if ((tagFlags & BLOCK) != 0)
+				tail = depth;
+			else if (tail > depth)
+				tail = -1;
+		}
+
+		public void removed(int index)
+		{
+			if (root > index)
+				root--;
+			if (tail > index)
+				tail--;
+		}
+
+		public void text(char c, int depth)
+		{
+			if (tail >= 0)
+				sibling(depth);
+			if (length == chars.length)
+				chars = Arrays.copyOf(chars,length * 2);
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160)
+			{
+				if (length == start || chars[length - 1] != ' ')
+					chars[length++] = ' ';
+			}
+			else if (c != 8203 && c != 173)
+				chars[length++] = c;
+		}
+
+		// the chars of a text node, what text does for each of them
+		public void text(char [] text, int from, int to, int depth)
+		{
+			if (tail >= 0)
+				sibling(depth);
+			if (length + to - from > chars.length)
+				chars = Arrays.copyOf(chars,Math.max(chars.length * 2,length + to - from));
+			char [] chars = this.chars;
+			int length = this.length;
+			char last = length == start ? 0 : chars[length - 1];
+			for (int i = from; i < to; ++i)
+			{
+				char c = text[i];
+				if (c > ' ' && c != 160)
+				{
+					if (c == 8203 || c == 173)
+						continue;
+				}
+				else if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == 160)
+				{
+					if (last == ' ')
+						continue;
+					c = ' ';
+				}
+				chars[length++] = c;
+				last = c;
+			}
+			this.length = length;
+		}
+
+		// a text after a block element that ended gets a space first
+		private void sibling(int depth)
+		{
+			if (tail == depth && length > start && chars[length - 1] != ' ')
+				append(' ');
+			tail = -1;
+		}
+
+		public void append(char c)
+		{
+			if (length == chars.length)
+				chars = Arrays.copyOf(chars,length * 2);
+			chars[length++] = c;
+		}
+
+		public int length(){ return length; }
+
+		public char charAt(int index){ return chars[index]; }
+
+		public CharSequence subSequence(int from, int to){ return new String(chars,from,to - from); }
+
+		public String toString(){ return new String(chars,0,length); }
+	}
+}
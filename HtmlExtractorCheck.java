@@ -0,0 +1,291 @@
+import java.util.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.jsoup.Jsoup;
+
+
+/*------------------------------------------------------------------------------------
+	- Checks that HtmlExtractor takes the same text and date out of a page as the Jsoup DOM that IndexBuilder used
+	  before it: doc.body().getElementsByTag("p").text() and doc.getElementById("mw-revision-date").text()
+	- The pages are the ones in the directory, the same pages cut and spliced with random markup, and generated pages
+	  of random tags, stray end tags, character references, comments and raw text elements. The random pages come from
+	  the seed, so a run can be repeated
+	- A page extract gives up on is not compared, IndexBuilder parses it with Jsoup. The count of them is printed,
+	  when it grows the extractor follows fewer pages but is not wrong
+	- A page with a different text or date is a mismatch, it is kept as htmlcheck_N.htm and the program exits with 1.
+	  HtmlExtractor follows the rules of the Jsoup version in pom.xml, run this again after changing it
+	- HtmlExtractorTest runs check in mvn test, with another Jsoup on the classpath extract gives up on every page
+	  and the check fails as nothing was compared
+	- usage: java HtmlExtractorCheck [directory] [number of random pages] [seed]
+-------------------------------------------------------------------------------------*/
+public class HtmlExtractorCheck
+{
+	private static final String DATE = "<span id=\"mw-revision-date\">00:00, 1 Jan 2001</span>";
+
+	// the tags the random markup is made of, the ones the tree rules of HtmlExtractor treat differently and a few it does not know
+	private static final String [] TAGS = { "p","p","p","div","span","b","i","a","em","strong","font","nobr","table","tr",
+		"td","th","tbody","caption","ul","ol","li","dl","dt","dd","h1","h2","br","hr","img","input","form","button","pre",
+		"blockquote","center","sup","sub","code","small","object","marquee","applet","address","section","nav","body",
+		"html","head","title","colgroup","col","label","foo","x-y" };
+	private static final String [] RAW = { "script","style","textarea","title","xmp","noscript","iframe","noembed" };
+	private static final String [] REFERENCES = { "&amp;","&lt;","&gt;","&quot;","&nbsp;","&copy","&copy;","&notin;",
+		"&notit;","&amp","&#65;","&#x42;","&#X43","&#0;","&#128;","&#xD800;","&#99999999;","&;","&","&#;","&#x;" };
+	private static final String [] WHITESPACE = { " ","  ","\n","\t","\r\n","\f"," \n ","" };
+	private static final String [] ATTRIBUTES = { " class=x"," class=\"a b\""," title='t'"," href=/wiki/A"," disabled",
+		" id=x"," id=\"mw-revision-date\""," data-x=\"<p>\""," a=b=c"," =x"," \"q\"=1"," style=\"color:red\"","/" };
+
+	private Random random;
+	private StringBuilder page = new StringBuilder();
+
+
+	public static void main(String [] args) throws IOException
+	{
+		File dir = new File(args.length > 0 ? args[0] : "New_York");
+		int randomPages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+		if (!check(dir,randomPages,seed,new File(".")))
+			System.exit(1);
+	}
+
+	/*
+	* Compares the pages of the directory and the random pages, a different page is kept in keepDir
+	* Returns false when a page is different or no page was compared
+	*/
+	public static boolean check(File dir, int randomPages, long seed, File keepDir) throws IOException
+	{
+		HtmlExtractorCheck check = new HtmlExtractorCheck();
+		HtmlExtractor extractor = new HtmlExtractor();
+		File tmp = File.createTempFile("htmlcheck",".htm");
+		tmp.deleteOnExit();
+
+		ArrayList<File> files = new ArrayList<File>();
+		File [] list = dir.listFiles();
+		if (list == null)
+			System.out.println(dir + " is not a directory, only the generated pages are checked");
+		else
+		{
+			Arrays.sort(list);
+			for (File file : list)
+				if (file.isFile())
+					files.add(file);
+		}
+
+		// the pages as they are
+		int compared = 0;
+		int skipped = 0;
+		int mismatches = 0;
+		for (File file : files)
+		{
+			int result = check.compare(extractor,file,file.getPath());
+			compared += result == 0 ? 1 : 0;
+			skipped += result == 1 ? 1 : 0;
+			mismatches += result == 2 ? 1 : 0;
+		}
+		System.out.println(files.size() + " pages of " + dir + ": " + compared + " the same, " + skipped + " parsed with Jsoup, " + mismatches + " different");
+
+		// the random pages, every one from its own seed so a mismatch can be made again on its own
+		int randomCompared = 0;
+		int randomSkipped = 0;
+		int randomMismatches = 0;
+		for (int n = 0; n < randomPages; ++n)
+		{
+			check.random = new Random(seed * 1000003 + n);
+			if (!files.isEmpty() && check.random.nextBoolean())
+				check.splice(new String(Files.readAllBytes(files.get(check.random.nextInt(files.size())).toPath()),StandardCharsets.UTF_8));
+			else
+				check.generate();
+			Files.write(tmp.toPath(),check.page.toString().getBytes(StandardCharsets.UTF_8));
+
+			int result = check.compare(extractor,tmp,"random page " + n);
+			if (result == 2)
+			{
+				File kept = new File(keepDir,"htmlcheck_" + n + ".htm");
+				Files.write(kept.toPath(),check.page.toString().getBytes(StandardCharsets.UTF_8));
+				System.out.println("  kept as " + kept);
+			}
+			randomCompared += result == 0 ? 1 : 0;
+			randomSkipped += result == 1 ? 1 : 0;
+			randomMismatches += result == 2 ? 1 : 0;
+		}
+		System.out.println(randomPages + " random pages ( seed " + seed + " ): " + randomCompared + " the same, " + randomSkipped + " parsed with Jsoup, " + randomMismatches + " different");
+
+		if (mismatches + randomMismatches > 0)
+		{
+			System.out.println("FAILED: HtmlExtractor and Jsoup differ on " + (mismatches + randomMismatches) + " pages");
+			return false;
+		}
+		if (compared + randomCompared == 0)
+		{
+			System.out.println("FAILED: no page was compared");
+			return false;
+		}
+		System.out.println("OK");
+		return true;
+	}
+
+	/*
+	* Compares what the extractor and Jsoup take out of the file
+	* Returns 0 when they are the same, 1 when the extractor gives up on the page and 2 when they differ
+	*/
+	int compare(HtmlExtractor extractor, File file, String name) throws IOException
+	{
+		boolean extracted;
+		try{
+			extracted = extractor.extract(file);
+		}
+		catch(RuntimeException e)
+		{
+			System.out.println("DIFFERENT " + name + ": HtmlExtractor threw " + e);
+			return 2;
+		}
+		if (!extracted)
+			return 1;
+
+		org.jsoup.nodes.Document doc = Jsoup.parse(file,"UTF-8");
+		String text = doc.body().getElementsByTag("p").text();
+		org.jsoup.nodes.Element dateElement = doc.getElementById(HtmlExtractor.DATE_ID);
+		String date = dateElement == null ? null : dateElement.text();
+
+		String extractedText = extractor.getText().toString();
+		if (text.equals(extractedText) && date != null && date.equals(extractor.getDate()))
+			return 0;
+
+		System.out.println("DIFFERENT " + name);
+		if (!text.equals(extractedText))
+		{
+			int at = 0;
+			while (at < text.length() && at < extractedText.length() && text.charAt(at) == extractedText.charAt(at))
+				at++;
+			System.out.println("  text from char " + at + ", Jsoup: [" + around(text,at) + "] HtmlExtractor: [" + around(extractedText,at) + "]");
+		}
+		else
+			System.out.println("  date, Jsoup: [" + date + "] HtmlExtractor: [" + extractor.getDate() + "]");
+		return 2;
+	}
+
+	// the chars around the position
+	private static String around(String text, int at)
+	{
+		return text.substring(Math.max(0,at - 30),Math.min(text.length(),at + 30));
+	}
+
+/*------------------------------------------------------------------------------------
+	- The random pages
+-------------------------------------------------------------------------------------*/
+	// a page of random markup, with the date somewhere in it
+	private void generate()
+	{
+		page.setLength(0);
+		if (random.nextInt(4) != 0)
+			page.append(pick("<!DOCTYPE html>","<!doctype html>","<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01//EN\">",
+				"<!DOCTYPE html PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\">","<!DOCTYPE>","<!DOCTYPE foo>"));
+		if (random.nextBoolean())
+			page.append("<html><head><title>t</title></head><body>");
+		int pieces = 1 + random.nextInt(60);
+		int date = random.nextInt(pieces + 1);
+		for (int i = 0; i < pieces; ++i)
+		{
+			if (i == date)
+				page.append(DATE);
+			piece();
+		}
+		if (date == pieces)
+			page.append(DATE);
+		if (random.nextBoolean())
+			page.append(pick("</body></html>","</html>","</body>","</p></body></html><p>after"));
+	}
+
+	// a real page with pieces taken out, copied and random markup put in
+	private void splice(String original)
+	{
+		page.setLength(0);
+		page.append(original);
+		int edits = 1 + random.nextInt(4);
+		for (int i = 0; i < edits; ++i)
+		{
+			int at = random.nextInt(page.length() + 1);
+			int length = Math.min(page.length() - at,random.nextInt(200));
+			switch (random.nextInt(3))
+			{
+				case 0:
+					page.delete(at,at + length);
+					break;
+				case 1:
+					page.insert(random.nextInt(page.length() + 1),page.substring(at,at + length));
+					break;
+				default:
+					StringBuilder whole = page;
+					page = new StringBuilder();
+					int count = 1 + random.nextInt(6);
+					for (int j = 0; j < count; ++j)
+						piece();
+					whole.insert(at,page);
+					page = whole;
+			}
+		}
+	}
+
+	// one random piece of markup
+	private void piece()
+	{
+		switch (random.nextInt(12))
+		{
+			case 0: case 1: case 2:
+				words();
+				break;
+			case 3: case 4: case 5:
+				page.append('<').append(tagName());
+				int attributes = random.nextInt(3);
+				for (int i = 0; i < attributes; ++i)
+					page.append(pick(ATTRIBUTES));
+				page.append(random.nextInt(8) == 0 ? "/>" : ">");
+				break;
+			case 6: case 7:
+				page.append("</").append(tagName()).append(random.nextInt(10) == 0 ? " x=y>" : ">");
+				break;
+			case 8:
+				page.append(pick(REFERENCES));
+				break;
+			case 9:
+				page.append(pick("<!-- c -->","<!---->","<!-- <p>no</p> -->","<!-->","<!x>","<?php x ?>","</ >","<>",
+					"< p>","a < b","a<3","</>","<p/>","<!-- open"));
+				break;
+			case 10:
+				String raw = pick(RAW);
+				page.append('<').append(raw).append('>');
+				words();
+				page.append(pick("<p>in raw</p>","</p>","&amp;","</" + raw + " ","<!--",""));
+				if (random.nextInt(6) != 0)
+					page.append("</").append(raw).append('>');
+				break;
+			default:
+				// a well formed paragraph, most of the text of a real page
+				page.append("<p>");
+				words();
+				page.append(pick("<b>","<i>","<a href=x>","","")).append("w");
+				words();
+				page.append(random.nextBoolean() ? "</p>" : "");
+		}
+	}
+
+	private void words()
+	{
+		int count = random.nextInt(5);
+		for (int i = 0; i < count; ++i)
+			page.append(pick(WHITESPACE)).append(pick("word","New","York","caf\u00e9","na\u00efve","1","x\u00a0y","a.b",""));
+		page.append(pick(WHITESPACE));
+	}
+
+	// the name of a tag, sometimes in upper case
+	private String tagName()
+	{
+		String name = pick(TAGS);
+		return random.nextInt(6) == 0 ? name.toUpperCase(Locale.ROOT) : name;
+	}
+
+	private String pick(String... choices)
+	{
+		return choices[random.nextInt(choices.length)];
+	}
+}
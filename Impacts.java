@@ -0,0 +1,240 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/*------------------------------------------------------------------------------------
+	- Precomputed bm25 scores ( impacts ) for every posting of a binary index
+	- The bm25 score of a posting only depends on its freq, the length of its document and the collection stats
+	  ( number of documents and total document length ), so it can be computed once when the index is built
+	- impacts.bin has a header with the stats the scores were computed with and the quantization, then one
+	  8 or 16 bit value per posting in the same order as the postings in index.bin ( lexicon order )
+	- A score is quantized as q = round((score - min) / scale), so the sum of the scores of t terms is
+	  t * min + scale * ( sum of the q's ) and a query only has to add integers
+	- Running this class as a program adds the impacts to an existing binary index
+-------------------------------------------------------------------------------------*/
+public class Impacts
+{
+	public static final String impactsFileName = "impacts.bin";
+	public static final int MAGIC = 0x54544950; // marks the start of an impacts file
+	public static final int VERSION = 1;
+
+	// the stats and the quantization the impacts were written with
+	public int bits;
+	public int N;
+	public long totalDocumentLength;
+	public int termCount;
+	public long postingCount;
+	public double min;
+	public double scale;
+	private ByteBuffer values; // the quantized values, right after the header
+
+
+	// writes impacts.bin for the binary index in the directory
+	// usage: java Impacts [bits] [dir]
+	public static void main(String [] args) throws Exception
+	{
+		int bits = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		String dir = args.length > 1 ? args[1] : "";
+		Impacts impacts = write(dir,bits);
+		System.out.println("Wrote " + impacts.postingCount + " " + bits + " bit impacts to " + dir + impactsFileName + ", max error " + impacts.scale / 2 + " per term");
+	}
+
+/*------------------------------------------------------------------------------------
+	- The bm25 score of one term in one document, ft is the frequency of the term in the document
+	- This is the only place the score is computed, so the builder and the QueryProcessor always agree
+-------------------------------------------------------------------------------------*/
+	public static double score(int ft, double documentLength, int N, double avgDocumentLength)
+	{
+		// parameters for the bm25 function
+		double k =  1.2;
+		double b = .75;
+
+		double secondTerm = k*((1-b) +b* (documentLength/avgDocumentLength));
+		return (Math.log(Math.abs((N-ft+.5))/(ft+.5)) / Math.log(2)) * ((k+1)*ft)/(secondTerm + ft); // take the log of this value in base 2
+	}
+
+	// the score of one term from its quantized value
+	public double toScore(int q)
+	{
+		return min + scale * q;
+	}
+
+	// the score of a document from the sum of the quantized values of its terms
+	public double toScore(long sum, int terms)
+	{
+		return terms * min + scale * sum;
+	}
+
+	// true if the impacts were computed with these collection stats and for this lexicon
+	public boolean matches(int N, long totalDocumentLength, ArrayList<BinaryIndex.LexiconEntry> entries)
+	{
+		long postings = 0;
+		for (BinaryIndex.LexiconEntry entry : entries)
+			postings += entry.docCount;
+		return this.N == N && this.totalDocumentLength == totalDocumentLength && termCount == entries.size() && postingCount == postings;
+	}
+
+	// reads the quantized values of count postings, starting at the given posting of the file ( see LexiconEntry.position )
+	public char [] decode(long position, int count)
+	{
+		char [] impacts = new char[count];
+		ByteBuffer buf = values.duplicate();
+		if (bits == 8)
+		{
+			buf.position((int)position);
+			for (int i = 0; i < count; ++i)
+				impacts[i] = (char)(buf.get() & 0xFF);
+		}
+		else
+		{
+			buf.position((int)(position * 2));
+			buf.asCharBuffer().get(impacts,0,count);
+		}
+		return impacts;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Opens impacts.bin in the directory. Returns null if there is no impacts file
+-------------------------------------------------------------------------------------*/
+	public static Impacts open(String dir) throws IOException
+	{
+		File file = new File(dir + impactsFileName);
+		if (!file.exists())
+			return null;
+
+		FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		try{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be mapped");
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+			if (buf.getInt() != MAGIC)
+				throw new IOException(file + " is not an impacts file");
+			int version = buf.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported impacts version " + version + " in " + file);
+
+			Impacts impacts = new Impacts();
+			impacts.bits = buf.getInt();
+			impacts.N = buf.getInt();
+			impacts.totalDocumentLength = buf.getLong();
+			impacts.termCount = buf.getInt();
+			impacts.postingCount = buf.getLong();
+			impacts.min = buf.getDouble();
+			impacts.scale = buf.getDouble();
+			impacts.values = buf.slice();
+			return impacts;
+		}
+		finally{
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- Computes the impacts of the binary index in the directory and writes impacts.bin next to it
+	- Two passes over the postings: the first finds the range of the scores, the second quantizes them
+-------------------------------------------------------------------------------------*/
+	public static Impacts write(String dir, int bits) throws IOException
+	{
+		if (bits != 8 && bits != 16)
+			throw new IOException("Impacts can only be 8 or 16 bits, not " + bits);
+
+		Impacts impacts = new Impacts();
+		impacts.bits = bits;
+
+		// the document lengths and the collection stats come from the url table, the same way QueryProcessor reads them
+		HashMap<Integer,Integer> lengths = new HashMap<Integer,Integer>();
+		BufferedReader reader = new BufferedReader(new FileReader(dir + "urlTable.txt"));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			String [] arr = line.split(";");
+			int length = Integer.parseInt(arr[2]);
+			lengths.put(Integer.parseInt(arr[3]),length);
+			impacts.totalDocumentLength += length;
+		}
+		reader.close();
+		impacts.N = lengths.size();
+		double avgDocumentLength = impacts.totalDocumentLength / (double) impacts.N;
+
+		ArrayList<BinaryIndex.LexiconEntry> entries = BinaryIndex.readLexicon(dir + BinaryIndex.lexiconFileName);
+		FileChannel channel = FileChannel.open(Paths.get(dir + BinaryIndex.postingsFileName),StandardOpenOption.READ);
+		try{
+			// a single mapping can only cover 2GB, larger files map each posting list on its own
+			ByteBuffer postings = null;
+			if (channel.size() <= Integer.MAX_VALUE)
+				postings = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+
+			// first pass, the range of the scores
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (BinaryIndex.LexiconEntry entry : entries)
+			{
+				double [] scores = scores(channel,postings,entry,lengths,impacts.N,avgDocumentLength);
+				for (double score : scores)
+				{
+					min = Math.min(min,score);
+					max = Math.max(max,score);
+				}
+				impacts.postingCount += entry.docCount;
+			}
+			impacts.termCount = entries.size();
+			impacts.min = impacts.postingCount > 0 ? min : 0;
+			impacts.scale = max > min ? (max - min) / ((1 << bits) - 1) : 1;
+
+			// second pass, quantize the scores
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir + impactsFileName),1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(impacts.bits);
+			out.writeInt(impacts.N);
+			out.writeLong(impacts.totalDocumentLength);
+			out.writeInt(impacts.termCount);
+			out.writeLong(impacts.postingCount);
+			out.writeDouble(impacts.min);
+			out.writeDouble(impacts.scale);
+			for (BinaryIndex.LexiconEntry entry : entries)
+			{
+				for (double score : scores(channel,postings,entry,lengths,impacts.N,avgDocumentLength))
+				{
+					int q = (int) Math.min((1 << bits) - 1,Math.round((score - impacts.min) / impacts.scale));
+					if (bits == 8)
+						out.writeByte(q);
+					else
+						out.writeChar(q);
+				}
+			}
+			out.close();
+		}
+		finally{
+			channel.close();
+		}
+		return impacts;
+	}
+
+	// decodes the postings of the entry and returns the bm25 score of each one
+	private static double [] scores(FileChannel channel, ByteBuffer postings, BinaryIndex.LexiconEntry entry, HashMap<Integer,Integer> lengths, int N, double avgDocumentLength) throws IOException
+	{
+		ByteBuffer buf;
+		if (postings != null)
+		{
+			buf = postings;
+			buf.position((int)entry.offset);
+		}
+		else
+			buf = channel.map(FileChannel.MapMode.READ_ONLY,entry.offset,entry.length);
+		int [] docIds = new int[entry.docCount];
+		int [] freqs = new int[entry.docCount];
+		int [] days = new int[entry.docCount];
+		BinaryIndex.decode(buf,entry.docCount,docIds,freqs,days);
+
+		double [] scores = new double[entry.docCount];
+		for (int i = 0; i < entry.docCount; ++i)
+			scores[i] = score(freqs[i],lengths.get(docIds[i]),N,avgDocumentLength);
+		return scores;
+	}
+}
@@ -1,4 +1,6 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.io.*;;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
@@ -12,14 +14,73 @@ public class IndexBuilder
 {
 	// used to hold all the files from the directory and reading the directory which has the files in it
 	private ArrayList<String> fileNames = new ArrayList<String>();
-	private final String dirName = "New_York/";
+	String dirName = "New_York/"; // the benchmark corpus ( SyntheticCorpus ) points it at its own directory
 	private HashMap<Integer,Document> urlTable = new HashMap<Integer,Document>(); // used for mapping of docIds and urls
 	private HashMap<String,InvertedIndex> invertedIndex = new HashMap<String,InvertedIndex>(); // used to hold the index
+	private Tokenizer tokenizer = new Tokenizer(); // splits the text into terms, the threads of a parallel build have their own
+	private HtmlExtractor extractor = new HtmlExtractor(); // takes the text out of the html, one per thread as well
 
 
 	// these variables are used to index the documents
 	private int docId = 1; 
 
+	// when set, the index is written in the binary format (index.bin + lexicon.bin) instead of index.txt
+	private boolean binary = false;
+
+	// number of threads used to parse and tokenize the documents. With more than one the documents are
+	// split into consecutive chunks, each chunk gets its own partial index and the partial indexes are merged in order
+	private int threads = 1;
+
+	// memory budget for the in memory index in bytes, 0 means no limit
+	// when the estimated size of the index reaches the budget, the index is flushed to a sorted run on disk
+	// and at the end the runs are merged into the final index
+	private long memoryBudget = 0;
+	private long memoryUsed = 0; // estimated size of invertedIndex and urlTable
+	private final int POSTING_BYTES = 48; // rough heap cost of one posting, a term and a document
+	private final int TERM_BYTES = 160;
+	private final int DOCUMENT_BYTES = 120;
+	private final int MAX_CHUNK = 256; // max number of files in one chunk of a parallel build
+	private final String runDirName = "runs/";
+	private ArrayList<String> runs = new ArrayList<String>(); // the runs written so far, in docId order
+	private PrintWriter urlTableWriter; // urlTable.txt, opened by the first flush
+
+	// directory the index files are written to, empty for the current directory
+	// with -segment only the files that are not in a segment yet are indexed, into a new segment under segments/
+	String outDir = "";
+	private boolean segment = false;
+
+	// when more than 0, impacts.bin is written next to the binary index with the bm25 score of every posting
+	// quantized to this many bits ( 8 or 16 ). The scores depend on the whole collection, so segments do not get them
+	private int impactBits = 0;
+
+	// when set, the documents are taken as revisions of one article: they are numbered in date order and the index is
+	// written as revision intervals ( versioned.bin + versionedLexicon.bin, see VersionedIndex ) instead of one posting per revision
+	private boolean versioned = false;
+
+	// when set, every document is parsed into the Jsoup DOM, the way it was done before HtmlExtractor. The text is the same,
+	// HtmlExtractor falls back to Jsoup by itself for the pages it does not follow
+	boolean dom = false;
+
+	// when set, positions.bin is written next to the binary index with the position of every term in its documents,
+	// for phrase queries ( see Positions ). The positions are kept in memory until the index is written
+	boolean positions = false;
+
+	// when more than 0, the documents are split into this many shards of consecutive docIds, each written as its own
+	// binary index under shards/ ( see Shards )
+	private int shards = 0;
+
+	// the time of each stage of the build ( see Metrics ). Registered with JMX by run, and with -metrics SECONDS appended
+	// to metrics.txt every SECONDS seconds. With -threads the documents are timed on every thread, so the read, parse and
+	// tokenize times add up to more than the time the build took
+	Metrics metrics = new Metrics("IndexBuilder");
+	private int metricsSeconds = 0;
+	private Metrics.Histogram listTimes = metrics.timer("build.list"); // listing the directory
+	private Metrics.Histogram readTimes = metrics.timer("build.read"); // per document, opening the file and reading its chars
+	private Metrics.Histogram parseTimes = metrics.timer("build.parse"); // per document, taking the text out of the html
+	private Metrics.Histogram tokenizeTimes = metrics.timer("build.tokenize"); // per document, adding its words to the index
+	private Metrics.Histogram writeTimes = metrics.timer("build.write"); // per run and for the index files at the end
+	private LongAdder jsoupPages = metrics.counter("build.jsoup"); // the pages parsed with Jsoup instead of HtmlExtractor
+
 
 	public static void main(String [] args) throws Exception
 	{
@@ -34,82 +95,603 @@ public class IndexBuilder
 		program.run(args);
 	}
 
-	private void run(String [] args) throws IOException
+	void run(String [] args) throws IOException
 	{
+		// read the command line options
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-binary"))
+				binary = true;
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-memory"))
+				memoryBudget = Long.parseLong(args[++i]) * 1024 * 1024; // given in MB
+			else if (args[i].equals("-segment"))
+			{
+				segment = true;
+				binary = true; // segments are always binary
+			}
+			else if (args[i].equals("-impacts"))
+			{
+				impactBits = Integer.parseInt(args[++i]);
+				binary = true; // the impacts follow the order of the binary index
+			}
+			else if (args[i].equals("-versioned"))
+				versioned = true;
+			else if (args[i].equals("-dom"))
+				dom = true;
+			else if (args[i].equals("-shards"))
+			{
+				shards = Integer.parseInt(args[++i]);
+				binary = true; // every shard is a binary index
+			}
+			else if (args[i].equals("-positions"))
+			{
+				positions = true;
+				binary = true; // the positions follow the order of the binary index
+			}
+			else if (args[i].equals("-metrics"))
+				metricsSeconds = Integer.parseInt(args[++i]);
+		}
+		metrics.register();
+		if (metricsSeconds > 0)
+			metrics.startDump(metricsSeconds,Metrics.metricsFileName);
+
+		if (!dom && !HtmlExtractor.SAME_JSOUP)
+			System.out.println("HtmlExtractor follows Jsoup " + HtmlExtractor.JSOUP_VERSION + ", not " + HtmlExtractor.jsoupVersion() + ", every page is parsed with Jsoup");
+
+		// the impacts need the stats of the whole collection, and the segments and the revisions are numbered their own way
+		if (shards > 0 && (segment || versioned || impactBits > 0))
+		{
+			System.out.println("-shards is not supported with -segment, -versioned or -impacts, writing one index");
+			shards = 0;
+		}
+
+		if (segment && impactBits > 0)
+		{
+			System.out.println("-impacts is not supported with -segment, the segments are written without impacts");
+			impactBits = 0;
+		}
+
+		// the revisions are renumbered when the index is written, so the whole index has to be in memory
+		if (versioned && (segment || memoryBudget > 0 || impactBits > 0))
+		{
+			System.out.println("-versioned is not supported with -segment, -memory or -impacts, writing the regular index");
+			versioned = false;
+		}
+
+		// the runs and the segments are merged from the postings alone, and the revisions have no positions of their own
+		if (positions && (segment || memoryBudget > 0 || versioned))
+		{
+			System.out.println("-positions is not supported with -segment, -memory or -versioned, writing the index without positions");
+			positions = false;
+		}
+
 		// get all the files in the directory
+		long start = System.nanoTime();
 		readAllFiles();
+		listTimes.since(start);
+
+		// in segment mode, skip the files we already have and index the rest into a new segment
+		// the manifest is locked until the new segment is in it, so another IndexBuilder -segment waits and then only
+		// indexes the files that are still new, with the docIds after this segment
+		ArrayList<Segments.Segment> segments = null;
+		String segmentName = null;
+		if (segment)
+			Segments.lock();
+		try{
+			if (segment)
+			{
+				segments = Segments.readManifest();
+				fileNames.removeAll(Segments.indexedFiles(segments));
+				if (fileNames.isEmpty())
+					System.out.println("No new documents to index");
+				else
+				{
+					if (!segments.isEmpty())
+						docId = segments.get(segments.size() - 1).lastDocId + 1;
+					segmentName = Segments.newSegmentName();
+					outDir = Segments.segmentDirName + segmentName + "/";
+				}
+			}
+
+			if (shards > 0)
+				buildShards();
+			else if (!segment || !fileNames.isEmpty())
+				buildIndex();
+			printStageTimes();
+
+			// add the new segment to the manifest, a QueryProcessor -segments started from here on searches it
+			if (segment && !fileNames.isEmpty())
+			{
+				segments.add(new Segments.Segment(segmentName,docId - fileNames.size(),docId - 1));
+				Segments.writeManifest(segments);
+			}
+		}
+		finally{
+			if (segment)
+				Segments.unlock();
+		}
+
+		if (segment)
+		{
+
+			// merge small segments in the background. The new segment can already be searched while this runs
+			Thread merger = new Thread(new Runnable(){
+				public void run()
+				{
+					try{
+						Segments.mergeAll();
+					}
+					catch(IOException e)
+					{
+						System.out.println("ERROR in merging the segments " + e);
+					}
+				}
+			},"segment-merger");
+			merger.start();
+		}
+	}
+
+	/*
+	* This method indexes the files in fileNames and writes the index and the url table to outDir
+	*/
+	private void buildIndex() throws IOException
+	{
+		if (!outDir.isEmpty())
+			new File(outDir).mkdirs();
 		
 		// loop through and index each document
-		for (String fileName : fileNames)
+		if (threads > 1)
+			buildParallel();
+		else
+		{
+			for (String fileName : fileNames)
+			{
+				memoryUsed += indexDocument(fileName,docId,tokenizer,extractor,invertedIndex,urlTable);
+				// before we go back to the top, increment the docId
+				docId++;
+				checkMemory();
+			}
+		}
+
+
+		// write the file to OutPut Directory
+		// the terms and documents are written in sorted order so the output does not depend on how the index was built
+		long start = System.nanoTime();
+		if (runs.isEmpty())
+		{
+			if (versioned)
+				writeVersionedIndex();
+			else if (binary)
+				writeBinaryIndex();
+			else
+				writeTextIndex(outDir + "index.txt");
+		}
+		else
+		{
+			// the rest of the index goes in one last run and all the runs are merged
+			flushRun();
+			mergeRuns();
+		}
+
+		// write the urlTable to the disk
+		writeUrlTable();
+		urlTableWriter.close();
+
+		// the columns QueryProcessor maps instead of parsing the url table
+		DocStore.write(outDir);
+
+		// the impacts need the lengths of all the documents, so they are computed from the files that were just written
+		if (impactBits > 0)
+			Impacts.write(outDir,impactBits);
+		writeTimes.since(start);
+	}
+
+	// prints the total time of each stage of the build
+	private void printStageTimes()
+	{
+		System.out.printf(Locale.ROOT,"Stage times: list %.1f ms, read %.1f ms, parse %.1f ms, tokenize %.1f ms, write %.1f ms ( %d documents, %d parsed with Jsoup )%n",
+			listTimes.getSum(),readTimes.getSum(),parseTimes.getSum(),tokenizeTimes.getSum(),writeTimes.getSum(),tokenizeTimes.getCount(),jsoupPages.sum());
+	}
+
+	/*
+	* This method splits the files into shards of consecutive docIds and indexes each one into its own directory under shards/
+	* The docIds are the ones one index of all the files would have, the manifest has the docId range of each shard
+	*/
+	private void buildShards() throws IOException
+	{
+		ArrayList<String> allFiles = fileNames;
+		String dir = outDir;
+		ArrayList<Shards.Shard> list = new ArrayList<Shards.Shard>();
+		for (int i = 0; i < shards; ++i)
+		{
+			fileNames = new ArrayList<String>(allFiles.subList(allFiles.size() * i / shards,allFiles.size() * (i + 1) / shards));
+			// more shards than files
+			if (fileNames.isEmpty())
+				continue;
+
+			Shards.Shard shard = new Shards.Shard("shard_" + i,docId,docId + fileNames.size() - 1);
+			outDir = shard.getDir();
+			// every shard starts with an empty index, the url table is emptied when it is written
+			invertedIndex = new HashMap<String,InvertedIndex>();
+			urlTableWriter = null;
+			memoryUsed = 0;
+			buildIndex();
+			list.add(shard);
+		}
+		fileNames = allFiles;
+		outDir = dir;
+		invertedIndex = new HashMap<String,InvertedIndex>();
+		Shards.writeManifest(list);
+		System.out.println("Wrote " + list.size() + " shards");
+	}
+
+	/*
+	* This method writes the index in the text format, one term per line
+	*/
+	private void writeTextIndex(String fileName) throws IOException
+	{
+		PrintWriter write = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+
+		for (String term : sortedTerms())
+		{
+			write.println(term +  invertedIndex.get(term));
+		}
+		write.close();
+	}
+
+	/*
+	* This method writes the documents in the url table to urlTable.txt and clears the table
+	*/
+	private void writeUrlTable() throws IOException
+	{
+		if (urlTableWriter == null)
+			urlTableWriter = new PrintWriter(new BufferedWriter(new FileWriter(outDir + "urlTable.txt")));
+
+		for (Map.Entry<Integer,Document> doc : new TreeMap<Integer,Document>(urlTable).entrySet())
+		{
+			Document tmp = doc.getValue();
+			// write to the file. Contains the docUrl,then date, then the Doc length and then the key
+			urlTableWriter.println(tmp.docUrl+ ";" + tmp.date + ";" + tmp.length + ";" + doc.getKey());
+		}
+		urlTable.clear();
+	}
+
+	/*
+	* This method flushes the index to a new run when it has grown over the memory budget
+	*/
+	private void checkMemory() throws IOException
+	{
+		if (memoryBudget > 0 && memoryUsed >= memoryBudget)
+		{
+			long start = System.nanoTime();
+			flushRun();
+			writeTimes.since(start);
+		}
+	}
+
+	/*
+	* This method writes the in memory index to the next run file and starts a new empty index
+	* The run is in the same format as index.txt. The documents of the run are written to urlTable.txt right away
+	*/
+	private void flushRun() throws IOException
+	{
+		new File(outDir + runDirName).mkdirs();
+		String runName = outDir + runDirName + "run_" + runs.size() + ".txt";
+		writeTextIndex(runName);
+		runs.add(runName);
+		writeUrlTable();
+
+		invertedIndex = new HashMap<String,InvertedIndex>();
+		memoryUsed = 0;
+	}
+
+	/*
+	* This method merges the sorted runs into the final index
+	* A heap on the term picks the next term. The runs cover increasing docIds so the postings of a term are concatenated
+	* in run order, they are copied from each run to the index as they are read and no list is held in memory
+	*/
+	private void mergeRuns() throws IOException
+	{
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(new Comparator<RunReader>(){
+			public int compare(RunReader r1, RunReader r2)
+			{
+				int c = r1.term.compareTo(r2.term);
+				return c != 0 ? c : r1.run - r2.run;
+			}
+		});
+		for (int i = 0; i < runs.size(); ++i)
+		{
+			RunReader reader = new RunReader(runs.get(i),i);
+			if (reader.next())
+				queue.add(reader);
+		}
+
+		PrintWriter text = null;
+		BinaryIndex.Writer writer = null;
+		if (binary)
+			writer = new BinaryIndex.Writer(outDir + BinaryIndex.postingsFileName,outDir + BinaryIndex.lexiconFileName);
+		else
+			text = new PrintWriter(new BufferedWriter(new FileWriter(outDir + "index.txt")));
+
+		while (!queue.isEmpty())
+		{
+			// take the term from every run that has it
+			String term = queue.peek().term;
+			if (binary)
+				writer.beginTerm(term);
+			else
+				text.print(term);
+			while (!queue.isEmpty() && queue.peek().term.equals(term))
+			{
+				RunReader reader = queue.poll();
+				if (binary)
+					reader.addPostings(writer);
+				else
+					reader.copyPostings(text);
+				if (reader.next())
+					queue.add(reader);
+			}
+
+			if (binary)
+				writer.endTerm();
+			else
+				text.println();
+		}
+
+		if (binary)
+			writer.close();
+		else
+			text.close();
+
+		// the runs are not needed anymore
+		for (String run : runs)
+			new File(run).delete();
+		new File(outDir + runDirName).delete();
+		runs.clear();
+	}
+
+	/*
+	* This method parses one document and adds its words to the given index and the document to the given url table
+	* Returns the estimated number of bytes the index and url table grew by
+	*/
+	long indexDocument(String fileName, int docId, Tokenizer tokenizer, HtmlExtractor extractor, HashMap<String,InvertedIndex> invertedIndex, HashMap<Integer,Document> urlTable) throws IOException
+	{
+		File file = new File(dirName + fileName);
+		CharSequence bodyText;
+		String date;
+		long start = System.nanoTime();
+		if (!dom && extractor.extract(file))
+		{
+			// all the text in the p tags and the date, read straight from the file without building the DOM
+			bodyText = extractor.getText();
+			date = extractor.getDate();
+			readTimes.record(extractor.getReadNanos());
+			parseTimes.record(System.nanoTime() - start - extractor.getReadNanos());
+		}
+		else
 		{
+			// Jsoup reads the file itself, so its read time ( and the time of a page HtmlExtractor gave up on ) is in the parse time
+			jsoupPages.increment();
 			// send the file over to JSOUP to parse it
-			//System.out.println(dirName+fileName);
-			org.jsoup.nodes.Document doc = Jsoup.parse(new File(dirName + fileName),"UTF-8");
-			// this basically gets all the text in the p tags and replaces all non characters with spaces. 
-			String bodyText = doc.body().getElementsByTag("p").text().replaceAll("[^a-zA-Z ]","");
+			org.jsoup.nodes.Document doc = Jsoup.parse(file,"UTF-8");
+			// all the text in the p tags, the tokenizer drops everything that is not a letter
+			bodyText = doc.body().getElementsByTag("p").text();
 
 			// get the document date that is in the span under the id mw-revision-date
-			String date = (doc.getElementById("mw-revision-date").text());
-			//DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
+			date = (doc.getElementById("mw-revision-date").text());
+			parseTimes.since(start);
+		}
+
+		start = System.nanoTime();
+		long bytes = DOCUMENT_BYTES + addTerms(bodyText,docId,date,tokenizer,invertedIndex);
+		tokenizeTimes.since(start);
+	
+		// put the document in the URLTable so we can map back to it during the queryExecuter stage
+		urlTable.put(docId,new Document(fileName,tokenizer.getLength(),date)); 
+		return bytes;
+	}
 
+	/*
+	* This method adds the terms of the text of one document to the given index, the tokenizer lower cases them as it reads the text
+	* Returns the estimated number of bytes the index grew by
+	*/
+	long addTerms(CharSequence bodyText, int docId, String date, Tokenizer tokenizer, HashMap<String,InvertedIndex> invertedIndex)
+	{
+		long bytes = 0;
 		
-			// put the document in the URLTable so we can map back to it during the queryExecuter stage
-			urlTable.put(docId,new Document(fileName,bodyText.length(),date)); 
-			
-			// now loop through each word and create a invertedIndex for it
-			for (String word : bodyText.split(" "))
-			{
-				// check if this word exists
-				//System.out.println("in here " + word);
-				if (invertedIndex.containsKey(word))
-				{
-					// ck if this document already exists
-					// if it does, simply incremenet the frequency
-					// if it doesnt exist, add the document to the list
-					//System.out.println("inheee");
-					InvertedIndex temp = invertedIndex.get(word);
-					if (temp.doesDocumentExist(docId))
-						temp.incrementFreq();
-					else
-						temp.addDocument(docId,date);
-				}
+		// now loop through each term and create a invertedIndex for it
+		tokenizer.reset(bodyText);
+		String word;
+		int position = 0; // the number of the term in the document
+		while ((word = tokenizer.next()) != null)
+		{
+			// check if this word exists
+			InvertedIndex temp = invertedIndex.get(word);
+			if (temp != null)
+			{
+				// ck if this document already exists
+				// if it does, simply incremenet the frequency
+				// if it doesnt exist, add the document to the list
+				if (temp.doesDocumentExist(docId))
+					temp.incrementFreq();
 				else
 				{
-					// if it doesnt exist, then create an entry for it
-					//System.out.println("otherwissse");
-					invertedIndex.put(word,new InvertedIndex(docId,date));
+					temp.addDocument(docId,date);
+					bytes += POSTING_BYTES;
 				}
 			}
+			else
+			{
+				// if it doesnt exist, then create an entry for it
+				//System.out.println("otherwissse");
+				temp = new InvertedIndex(docId,date);
+				invertedIndex.put(word,temp);
+				bytes += TERM_BYTES + POSTING_BYTES + 2 * word.length();
+			}
 
-
-			// before we go back to the top, increment the docId
-			docId++;
+			if (positions)
+				temp.addPosition(position);
+			position++;
 		}
+		return bytes;
+	}
 
+	/*
+	* This method indexes the documents on a pool of threads
+	* The files are cut into consecutive chunks. Each chunk is indexed into its own partial index with the same docIds
+	* a serial build would give it, and the partial indexes are appended to the index in chunk order so the postings stay sorted
+	* Only a few chunks per thread are queued at a time so the partial indexes waiting to be merged stay small
+	*/
+	private void buildParallel() throws IOException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		// a few chunks per thread so one slow chunk does not hold up the others
+		int chunkSize = Math.max(1,Math.min(MAX_CHUNK,(fileNames.size() + threads * 4 - 1) / (threads * 4)));
+		ArrayDeque<Future<PartialIndex>> chunks = new ArrayDeque<Future<PartialIndex>>();
+		int next = 0;
+
+		try{
+			while (next < fileNames.size() || !chunks.isEmpty())
+			{
+				// queue up more chunks
+				while (next < fileNames.size() && chunks.size() < threads * 2)
+				{
+					final int from = next;
+					final int to = Math.min(fileNames.size(),next + chunkSize);
+					final int firstId = docId + from;
+					chunks.add(pool.submit(new Callable<PartialIndex>(){
+						public PartialIndex call() throws IOException
+						{
+							PartialIndex partial = new PartialIndex();
+							for (int i = from; i < to; ++i)
+								partial.bytes += indexDocument(fileNames.get(i),firstId + i - from,partial.tokenizer,partial.extractor,partial.invertedIndex,partial.urlTable);
+							return partial;
+						}
+					}));
+					next = to;
+				}
 
-		// write the file to OutPut Directory
+				// merge the oldest chunk
+				PartialIndex partial = chunks.poll().get();
+				for (Map.Entry<String,InvertedIndex> entry : partial.invertedIndex.entrySet())
+				{
+					InvertedIndex temp = invertedIndex.get(entry.getKey());
+					if (temp == null)
+						invertedIndex.put(entry.getKey(),entry.getValue());
+					else
+						temp.append(entry.getValue());
+				}
+				urlTable.putAll(partial.urlTable);
+				memoryUsed += partial.bytes;
+				checkMemory();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			throw new IOException("Interrupted while building the index",e);
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException("Failed to index a document",e.getCause());
+		}
+		finally{
+			pool.shutdownNow();
+		}
 
-		
-		PrintWriter write = new PrintWriter("index.txt");
+		docId += fileNames.size();
+	}
+
+	// returns the terms of the index in sorted order
+	private ArrayList<String> sortedTerms()
+	{
+		ArrayList<String> terms = new ArrayList<String>(invertedIndex.keySet());
+		Collections.sort(terms);
+		return terms;
+	}
 
-		for (Map.Entry<String,InvertedIndex> entry : invertedIndex.entrySet())
+	/*
+	* This method writes the index in the binary format. The terms are written in sorted order
+	*/
+	private void writeBinaryIndex() throws IOException
+	{
+		BinaryIndex.Writer writer = new BinaryIndex.Writer(outDir + BinaryIndex.postingsFileName,outDir + BinaryIndex.lexiconFileName);
+		Positions.Writer positionsWriter = positions ? new Positions.Writer(outDir + Positions.positionsFileName) : null;
+		for (String term : sortedTerms())
 		{
-			write.println(entry.getKey() +  entry.getValue());
+			invertedIndex.get(term).writeTo(writer,term);
+			if (positions)
+				invertedIndex.get(term).writePositions(positionsWriter);
 		}
-		write.close();
+		writer.close();
+		if (positions)
+			positionsWriter.close();
+	}
 
-		// write the urlTable to the disk
-		write = new PrintWriter("urlTable.txt");
+	/*
+	* This method writes the versioned index. The documents are renumbered by date ( and by file name for the same date )
+	* so the docId of a document is its revision number, then the postings of each term are written as intervals of revisions
+	* The url table is renumbered too, so it is written with the revision numbers
+	*/
+	private void writeVersionedIndex() throws IOException
+	{
+		// the date of every document, parsed once for the sort
+		final HashMap<Integer,Long> times = new HashMap<Integer,Long>();
+		DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
 		for (Map.Entry<Integer,Document> doc : urlTable.entrySet())
 		{
-			Document tmp = doc.getValue();
-			// write to the file. Contains the docUrl,then date, then the Doc length and then the key
-			write.println(tmp.docUrl+ ";" + tmp.date + ";" + tmp.length + ";" + doc.getKey());
+			try{
+				times.put(doc.getKey(),formatter.parse(doc.getValue().date).getTime());
+			}
+			catch(java.text.ParseException e)
+			{
+				throw new IOException("Could not parse the date " + doc.getValue().date,e);
+			}
 		}
-			
-	
-		write.close();
 
+		ArrayList<Integer> order = new ArrayList<Integer>(urlTable.keySet());
+		Collections.sort(order,new Comparator<Integer>(){
+			public int compare(Integer d1, Integer d2)
+			{
+				int c = times.get(d1).compareTo(times.get(d2));
+				return c != 0 ? c : urlTable.get(d1).docUrl.compareTo(urlTable.get(d2).docUrl);
+			}
+		});
+
+		// the revision numbers start at the first docId, the same as the docIds did
+		int first = order.isEmpty() ? docId : Collections.min(order);
+		HashMap<Integer,Integer> revisions = new HashMap<Integer,Integer>();
+		HashMap<Integer,Document> renumbered = new HashMap<Integer,Document>();
+		for (int i = 0; i < order.size(); ++i)
+		{
+			revisions.put(order.get(i),first + i);
+			renumbered.put(first + i,urlTable.get(order.get(i)));
+		}
+
+		VersionedIndex.Writer writer = new VersionedIndex.Writer(outDir);
+		for (String term : sortedTerms())
+		{
+			ArrayList<InvertedList> list = invertedIndex.get(term).list;
+			// sort the postings by revision, the revision is kept in the high half so the freq comes along
+			long [] postings = new long[list.size()];
+			for (int i = 0; i < list.size(); ++i)
+				postings[i] = ((long) revisions.get(list.get(i).docId) << 32) | list.get(i).freq;
+			Arrays.sort(postings);
+
+			int [] revisionIds = new int[postings.length];
+			int [] freqs = new int[postings.length];
+			for (int i = 0; i < postings.length; ++i)
+			{
+				revisionIds[i] = (int)(postings[i] >>> 32);
+				freqs[i] = (int) postings[i];
+			}
+			writer.addTerm(term,revisionIds,freqs,postings.length);
+		}
+		writer.close();
+		urlTable = renumbered;
+
+		System.out.println("Wrote " + writer.getPostingCount() + " postings as " + writer.getIntervalCount() + " revision intervals");
 	}
 
 	/*
@@ -144,6 +726,11 @@ public class IndexBuilder
 		// used to hold the list for each document
 		private ArrayList<InvertedList> list;
 
+		// the positions of the term in its documents as variable byte gaps, in the order of the postings ( only with -positions )
+		private ByteArrayOutputStream positionBytes;
+		private int positionsDocId = -1; // the document of the last position
+		private int lastPosition;
+
 		public InvertedIndex()
 		{
 			list = new ArrayList<InvertedList>();
@@ -175,6 +762,36 @@ public class IndexBuilder
 			list.get(list.size()-1).incrementFreq();
 		}
 
+		// adds the position of the term in the document of the last posting, the positions of a document come in order
+		public void addPosition(int position)
+		{
+			if (positionBytes == null)
+				positionBytes = new ByteArrayOutputStream();
+			int docId = list.get(list.size()-1).docId;
+			if (docId != positionsDocId)
+			{
+				// the first position of a document is not a gap
+				positionsDocId = docId;
+				lastPosition = 0;
+			}
+			BinaryIndex.writeVByte(positionBytes,position - lastPosition);
+			lastPosition = position;
+		}
+
+		// adds the postings of the other list to the end of this one. All of its documents must come after the documents of this list
+		public void append(InvertedIndex other)
+		{
+			list.addAll(other.list);
+			if (other.positionBytes != null)
+			{
+				if (positionBytes == null)
+					positionBytes = new ByteArrayOutputStream();
+				positionBytes.write(other.positionBytes.toByteArray(),0,other.positionBytes.size());
+				positionsDocId = other.positionsDocId;
+				lastPosition = other.lastPosition;
+			}
+		}
+
 		// overriding the toString method to print the data to the file
 		public String toString()
 		{
@@ -188,6 +805,110 @@ public class IndexBuilder
 
 
 		}
+
+		// writes the list to the binary index
+		public void writeTo(BinaryIndex.Writer writer, String term) throws IOException
+		{
+			int [] docIds = new int[list.size()];
+			int [] freqs = new int[list.size()];
+			int [] days = new int[list.size()];
+			for (int i = 0; i < list.size(); ++i)
+			{
+				InvertedList l = list.get(i);
+				docIds[i] = l.docId;
+				freqs[i] = l.freq;
+				days[i] = writer.toEpochDay(l.date);
+			}
+			writer.addTerm(term,docIds,freqs,days,list.size());
+		}
+
+		// writes the positions of the postings, after the postings were written with writeTo
+		public void writePositions(Positions.Writer writer) throws IOException
+		{
+			int [] freqs = new int[list.size()];
+			for (int i = 0; i < list.size(); ++i)
+				freqs[i] = list.get(i).freq;
+			writer.addTerm(freqs,list.size(),positionBytes.toByteArray(),positionBytes.size());
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- The index and url table built by one chunk of documents in a parallel build
+-------------------------------------------------------------------------------------*/
+	class PartialIndex{
+		public HashMap<String,InvertedIndex> invertedIndex = new HashMap<String,InvertedIndex>();
+		public HashMap<Integer,Document> urlTable = new HashMap<Integer,Document>();
+		public Tokenizer tokenizer = new Tokenizer();
+		public HtmlExtractor extractor = new HtmlExtractor();
+		public long bytes = 0; // estimated size
+	}
+
+/*------------------------------------------------------------------------------------
+	- Reads a run one term at a time for the merge
+-------------------------------------------------------------------------------------*/
+	class RunReader{
+		private BufferedReader reader;
+		public int run; // position of the run, runs with a lower position have lower docIds
+		public String term;
+		private StringBuilder field = new StringBuilder(); // the value read last
+
+		public RunReader(String fileName, int run) throws IOException
+		{
+			this.reader = new BufferedReader(new FileReader(fileName),1 << 16);
+			this.run = run;
+		}
+
+		// reads the next term, the postings that follow it are read by copyPostings or addPostings
+		// returns false and closes the run at the end of the file
+		public boolean next() throws IOException
+		{
+			if (readField() < 0)
+			{
+				reader.close();
+				return false;
+			}
+			term = field.toString();
+			return true;
+		}
+
+		// copies the postings of the term to the text index as they are, up to the end of the line
+		public void copyPostings(PrintWriter out) throws IOException
+		{
+			out.write(';');
+			int c;
+			while ((c = reader.read()) >= 0 && c != '\n')
+			{
+				if (c != '\r')
+					out.write(c);
+			}
+		}
+
+		// gives the postings of the term to the binary writer one at a time, up to the end of the line
+		public void addPostings(BinaryIndex.Writer writer) throws IOException
+		{
+			int end;
+			do{
+				readField();
+				int docId = Integer.parseInt(field,0,field.length(),10);
+				readField();
+				int freq = Integer.parseInt(field,0,field.length(),10);
+				end = readField();
+				writer.addPosting(docId,freq,writer.toEpochDay(field.toString()));
+			} while (end == ';');
+		}
+
+		// reads up to the next ; or end of line into field, returns the char that ended it ( -1 at the end of the file )
+		private int readField() throws IOException
+		{
+			field.setLength(0);
+			int c;
+			while ((c = reader.read()) >= 0 && c != ';' && c != '\n')
+			{
+				if (c != '\r')
+					field.append((char) c);
+			}
+			return c;
+		}
 	}
 
 /*------------------------------------------------------------------------------------
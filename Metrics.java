@@ -0,0 +1,288 @@
+import java.util.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongSupplier;
+import javax.management.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Counters and histograms of where the searches and the index build spend their time, cheap enough for the hot paths
+	- A counter is a LongAdder and a histogram counts its values in power of two buckets. Both add to cells of their own per
+	  thread, so the searches that run at the same time do not wait on each other to count
+	- A gauge is read from a LongSupplier when the metrics are read, for the counts that are kept somewhere else ( the cache )
+	- The metrics are read as a snapshot: a counter or gauge by its name, a histogram as name.count, name.sum, name.mean,
+	  name.p50, name.p99 and name.max. Timers are histograms of nanoseconds that are read in milliseconds. The percentiles are the top
+	  of their bucket, so they are up to twice the real value
+	- The snapshot is what JMX shows ( the MBean timetravelsearch:type=NAME, in jconsole for example ), what the periodic dump
+	  appends to metrics.txt and what the server returns in /stats
+-------------------------------------------------------------------------------------*/
+public class Metrics implements DynamicMBean
+{
+	public static final String metricsFileName = "metrics.txt";
+	private static final int BUCKETS = 65; // a bucket for 0 and one for each number of bits of a long
+
+	private String type;
+	private LinkedHashMap<String,Object> metrics = new LinkedHashMap<String,Object>(); // in the order they were added
+
+
+	public Metrics(String type)
+	{
+		this.type = type;
+	}
+
+	// returns the counter with the name, it is added the first time
+	public synchronized LongAdder counter(String name)
+	{
+		Object metric = metrics.get(name);
+		if (metric == null)
+		{
+			metric = new LongAdder();
+			metrics.put(name,metric);
+		}
+		return (LongAdder) metric;
+	}
+
+	// returns the histogram with the name, it is added the first time
+	public synchronized Histogram histogram(String name)
+	{
+		return histogram(name,1);
+	}
+
+	// returns the timer with the name, a histogram of nanoseconds that is read in milliseconds
+	public synchronized Histogram timer(String name)
+	{
+		return histogram(name,1e-6);
+	}
+
+	private Histogram histogram(String name, double scale)
+	{
+		Object metric = metrics.get(name);
+		if (metric == null)
+		{
+			metric = new Histogram(scale);
+			metrics.put(name,metric);
+		}
+		return (Histogram) metric;
+	}
+
+	// adds a gauge, the value is read from the supplier every time the metrics are read
+	public synchronized void gauge(String name, LongSupplier supplier)
+	{
+		metrics.put(name,supplier);
+	}
+
+	/*
+	* Returns the value of every metric, the histograms as their count, sum, mean, p50, p99 and max
+	*/
+	public synchronized LinkedHashMap<String,Number> snapshot()
+	{
+		LinkedHashMap<String,Number> values = new LinkedHashMap<String,Number>();
+		for (Map.Entry<String,Object> entry : metrics.entrySet())
+		{
+			String name = entry.getKey();
+			Object metric = entry.getValue();
+			if (metric instanceof LongAdder)
+				values.put(name,((LongAdder) metric).sum());
+			else if (metric instanceof LongSupplier)
+				values.put(name,((LongSupplier) metric).getAsLong());
+			else
+			{
+				Histogram histogram = (Histogram) metric;
+				values.put(name + ".count",histogram.getCount());
+				values.put(name + ".sum",histogram.getSum());
+				values.put(name + ".mean",histogram.getMean());
+				values.put(name + ".p50",histogram.getQuantile(0.5));
+				values.put(name + ".p99",histogram.getQuantile(0.99));
+				values.put(name + ".max",histogram.getMax());
+			}
+		}
+		return values;
+	}
+
+	// one line per value
+	public String toString()
+	{
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String,Number> entry : snapshot().entrySet())
+		{
+			Number value = entry.getValue();
+			builder.append(entry.getKey()).append(' ');
+			if (value instanceof Double)
+				builder.append(String.format(Locale.ROOT,"%.3f",value.doubleValue()));
+			else
+				builder.append(value);
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+/*------------------------------------------------------------------------------------
+	- JMX and the periodic dump
+-------------------------------------------------------------------------------------*/
+	// registers the metrics with the platform MBean server as timetravelsearch:type=TYPE
+	public void register()
+	{
+		try{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,new ObjectName("timetravelsearch:type=" + type));
+		}
+		catch(Exception e)
+		{
+			System.out.println("ERROR in registering the metrics with JMX " + e);
+		}
+	}
+
+	/*
+	* Appends the metrics to the file every seconds seconds on a daemon thread, and one last time when the program exits
+	*/
+	public void startDump(int seconds, final String fileName)
+	{
+		ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable task)
+			{
+				Thread thread = new Thread(task,"metrics-dump");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		dumper.scheduleAtFixedRate(new Runnable(){
+			public void run()
+			{
+				dump(fileName);
+			}
+		},seconds,seconds,TimeUnit.SECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			public void run()
+			{
+				dump(fileName);
+			}
+		},"metrics-final-dump"));
+	}
+
+	// appends the metrics to the file, after a line with the time
+	public synchronized void dump(String fileName)
+	{
+		try{
+			PrintWriter write = new PrintWriter(new BufferedWriter(new FileWriter(fileName,true)));
+			write.println("# " + type + " " + new Date());
+			write.print(this);
+			write.close();
+		}
+		catch(IOException e)
+		{
+			System.out.println("ERROR in writing the metrics " + e);
+		}
+	}
+
+	public MBeanInfo getMBeanInfo()
+	{
+		ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String,Number> entry : snapshot().entrySet())
+			attributes.add(new MBeanAttributeInfo(entry.getKey(),entry.getValue().getClass().getName(),entry.getKey(),true,false,false));
+		return new MBeanInfo(getClass().getName(),"Metrics of the " + type,attributes.toArray(new MBeanAttributeInfo[0]),null,null,null);
+	}
+
+	public Object getAttribute(String name) throws AttributeNotFoundException
+	{
+		Number value = snapshot().get(name);
+		if (value == null)
+			throw new AttributeNotFoundException(name);
+		return value;
+	}
+
+	public AttributeList getAttributes(String [] names)
+	{
+		LinkedHashMap<String,Number> values = snapshot();
+		AttributeList list = new AttributeList();
+		for (String name : names)
+		{
+			if (values.containsKey(name))
+				list.add(new Attribute(name,values.get(name)));
+		}
+		return list;
+	}
+
+	// the metrics are read only
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+	{
+		throw new AttributeNotFoundException(attribute.getName() + " is read only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes){ return new AttributeList(); }
+
+	public Object invoke(String action, Object [] params, String [] signature) throws ReflectionException
+	{
+		throw new ReflectionException(new NoSuchMethodException(action));
+	}
+
+/*------------------------------------------------------------------------------------
+	- A histogram of longs in power of two buckets: bucket b has the values with b bits, so 0 is in bucket 0,
+	  1 in bucket 1, 2 and 3 in bucket 2 and so on
+-------------------------------------------------------------------------------------*/
+	public static class Histogram
+	{
+		private LongAdder [] buckets = new LongAdder[BUCKETS];
+		private LongAdder count = new LongAdder();
+		private LongAdder sum = new LongAdder();
+		private LongAccumulator max = new LongAccumulator(new LongBinaryOperator(){
+			public long applyAsLong(long a, long b){ return Math.max(a,b); }
+		},0);
+		private double scale; // what the values are multiplied by when they are read
+
+		public Histogram(double scale)
+		{
+			this.scale = scale;
+			for (int b = 0; b < BUCKETS; ++b)
+				buckets[b] = new LongAdder();
+		}
+
+		public void record(long value)
+		{
+			value = Math.max(0,value);
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		// records the nanoseconds since start, a System.nanoTime
+		public void since(long start)
+		{
+			record(System.nanoTime() - start);
+		}
+
+		public long getCount(){ return count.sum(); }
+		public double getSum(){ return sum.sum() * scale; }
+		public double getMax(){ return max.get() * scale; }
+
+		public double getMean()
+		{
+			long n = count.sum();
+			return n == 0 ? 0 : sum.sum() * scale / n;
+		}
+
+		// the largest value of the bucket the quantile is in, but not more than the max
+		public double getQuantile(double quantile)
+		{
+			long n = count.sum();
+			if (n == 0)
+				return 0;
+			long rank = Math.max(1,(long) Math.ceil(quantile * n));
+			long seen = 0;
+			for (int b = 0; b < BUCKETS; ++b)
+			{
+				seen += buckets[b].sum();
+				if (seen >= rank)
+				{
+					long top = b == 0 ? 0 : b == 64 ? Long.MAX_VALUE : (1L << b) - 1;
+					return Math.min(top,max.get()) * scale;
+				}
+			}
+			return getMax();
+		}
+	}
+}
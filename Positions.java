@@ -0,0 +1,177 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+
+/*------------------------------------------------------------------------------------
+	- The positions of the terms in the documents, for phrase queries. Written by IndexBuilder -positions next to a binary index
+	- The position of a term is its number in the text of the document, the first term is 0
+	- positions.bin has the positions of every posting in the same order as the postings in index.bin ( lexicon order ).
+	  For each term the block is:
+		the start of every group of BLOCK_SIZE postings after the first ( int, from the end of these starts ),
+		then for each posting its freq positions as gaps from the previous position of the document ( variable byte )
+	- The number of positions of a posting is its freq, so they are not stored. To read the positions of one posting only
+	  the postings before it in its group are skipped ( see groupStart and skip )
+	- The start of each term is only known once its positions are written, so the table of the starts is at the end of the
+	  file, after the number of terms and postings. The last 8 bytes are where the table begins
+-------------------------------------------------------------------------------------*/
+public class Positions
+{
+	public static final String positionsFileName = "positions.bin";
+	public static final int MAGIC = 0x54545053; // marks the start of a positions file
+	public static final int VERSION = 1;
+	public static final int BLOCK_SIZE = 64; // number of postings between two starts
+
+	public int termCount;
+	public long postingCount;
+	private long [] starts; // where the block of each term begins, in lexicon order
+	private ByteBuffer data; // the whole file
+
+
+/*------------------------------------------------------------------------------------
+	- Opens positions.bin in the directory. Returns null if there is no positions file
+-------------------------------------------------------------------------------------*/
+	public static Positions open(String dir) throws IOException
+	{
+		File file = new File(dir + positionsFileName);
+		if (!file.exists())
+			return null;
+
+		FileChannel channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+		try{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(file + " is too large to be mapped");
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+			if (buf.getInt(0) != MAGIC)
+				throw new IOException(file + " is not a positions file");
+			int version = buf.getInt(4);
+			if (version != VERSION)
+				throw new IOException("Unsupported positions version " + version + " in " + file);
+
+			Positions positions = new Positions();
+			int table = (int) buf.getLong(buf.limit() - 8);
+			positions.termCount = buf.getInt(table);
+			positions.postingCount = buf.getLong(table + 4);
+			positions.starts = new long[positions.termCount];
+			for (int i = 0; i < positions.termCount; ++i)
+				positions.starts[i] = buf.getLong(table + 12 + i * 8);
+			positions.data = buf;
+			return positions;
+		}
+		finally{
+			// the mapping stays valid after the channel is closed
+			channel.close();
+		}
+	}
+
+	// true if the positions were written for a lexicon with this many terms and postings
+	public boolean matches(int termCount, long postingCount)
+	{
+		return this.termCount == termCount && this.postingCount == postingCount;
+	}
+
+	/*
+	* Returns where the positions of the first posting of the group of the posting begin
+	* term is the number of the term in the lexicon and docCount the number of its postings
+	* The positions are only read with absolute gets on the mapped file, so many queries can read them at the same time
+	*/
+	public int groupStart(int term, int docCount, int posting)
+	{
+		int start = (int) starts[term];
+		int blocks = (docCount + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int at = start + 4 * (blocks - 1);
+		int block = posting / BLOCK_SIZE;
+		if (block > 0)
+			at += data.getInt(start + 4 * (block - 1));
+		return at;
+	}
+
+	// skips count positions starting at at and returns where the next one begins, the last byte of a number has the high bit set
+	public int skip(int at, int count)
+	{
+		for (; count > 0; --count)
+			while ((data.get(at++) & 0x80) == 0);
+		return at;
+	}
+
+	// reads the freq positions of the posting that begins at at into buffer and returns it, or a larger buffer if they did not fit
+	public int [] read(int at, int freq, int [] buffer)
+	{
+		if (buffer == null || buffer.length < freq)
+			buffer = new int[Math.max(freq,buffer == null ? 16 : buffer.length * 2)];
+		int position = 0;
+		for (int i = 0; i < freq; ++i)
+		{
+			int value = 0;
+			int shift = 0;
+			int b;
+			while (((b = data.get(at++)) & 0x80) == 0)
+			{
+				value |= b << shift;
+				shift += 7;
+			}
+			position += value | ((b & 0x7F) << shift);
+			buffer[i] = position;
+		}
+		return buffer;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Writes the positions of each term, in the same order as the terms are written to the binary index
+-------------------------------------------------------------------------------------*/
+	public static class Writer
+	{
+		private DataOutputStream out;
+		private long offset = 0;
+		private long [] starts = new long[1024];
+		private int termCount = 0;
+		private long postingCount = 0;
+
+		public Writer(String fileName) throws IOException
+		{
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName),1 << 16));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			offset = 8;
+		}
+
+		// writes the positions of the next term. positions has the variable byte gaps of all of its postings, in order,
+		// and the freq of each posting is its number of positions
+		public void addTerm(int [] freqs, int count, byte [] positions, int length) throws IOException
+		{
+			if (termCount == starts.length)
+				starts = Arrays.copyOf(starts,termCount * 2);
+			starts[termCount++] = offset;
+
+			// find where each group of postings starts
+			int blocks = (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			int at = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				if (i > 0 && i % BLOCK_SIZE == 0)
+					out.writeInt(at);
+				for (int j = 0; j < freqs[i]; ++j)
+					while ((positions[at++] & 0x80) == 0);
+			}
+			if (at != length)
+				throw new IOException("The positions of a term do not match its freqs");
+			out.write(positions,0,length);
+
+			offset += 4 * (blocks - 1) + length;
+			postingCount += count;
+		}
+
+		public void close() throws IOException
+		{
+			long table = offset;
+			out.writeInt(termCount);
+			out.writeLong(postingCount);
+			for (int i = 0; i < termCount; ++i)
+				out.writeLong(starts[i]);
+			out.writeLong(table);
+			out.close();
+		}
+	}
+}
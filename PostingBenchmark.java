@@ -0,0 +1,178 @@
+import java.util.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Compares the skip pointer / galloping nextGEQ of QueryProcessor.InvertedIndex to the old linear cursor
+	- The lists are synthetic and skewed: a rare term is intersected with a common one, the same way
+	  runDAAT walks them ( shortest list first )
+	- The linear cursor is the old nextGEQ over the ArrayList of posting objects InvertedIndex used to hold
+	- usage: java PostingBenchmark [number of documents] [iterations]
+-------------------------------------------------------------------------------------*/
+public class PostingBenchmark
+{
+	public static void main(String [] args) throws Exception
+	{
+		int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+		QueryProcessor processor = new QueryProcessor();
+		Random random = new Random(42);
+		Date date = new Date();
+
+		// each pair is the fraction of documents that contain the rare and the common term
+		double [][] pairs = { {0.0005,0.5}, {0.005,0.5}, {0.05,0.5}, {0.5,0.5} };
+
+		System.out.println("documents: " + numDocs + " iterations: " + iterations);
+		for (double [] pair : pairs)
+		{
+			int [] rare = randomList(random,numDocs,pair[0]);
+			int [] common = randomList(random,numDocs,pair[1]);
+
+			QueryProcessor.InvertedIndex rareIndex = toIndex(processor,rare,date);
+			QueryProcessor.InvertedIndex commonIndex = toIndex(processor,common,date);
+
+			LinearCursor rareList = new LinearCursor(rare,date);
+			LinearCursor commonList = new LinearCursor(common,date);
+
+			// warm up both versions and check they agree
+			int expected = intersectLinear(rareList,commonList);
+			int actual = intersect(rareIndex,commonIndex);
+			if (expected != actual)
+				throw new IllegalStateException("nextGEQ found " + actual + " documents but the linear cursor found " + expected);
+			for (int i = 0; i < iterations; ++i)
+			{
+				intersectLinear(rareList,commonList);
+				intersect(rareIndex,commonIndex);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; ++i)
+				intersectLinear(rareList,commonList);
+			double linear = (System.nanoTime() - start) / 1e6 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; ++i)
+				intersect(rareIndex,commonIndex);
+			double skipping = (System.nanoTime() - start) / 1e6 / iterations;
+
+			System.out.printf("rare %7d x common %7d -> %6d matches   linear %8.3f ms   skips %8.3f ms   speedup %6.1fx%n",
+				rare.length,common.length,expected,linear,skipping,linear / skipping);
+		}
+	}
+
+	// returns the sorted document IDs of a term that appears in the given fraction of the documents
+	static int [] randomList(Random random, int numDocs, double fraction)
+	{
+		int [] docs = new int[numDocs];
+		int count = 0;
+		for (int doc = 1; doc <= numDocs; ++doc)
+		{
+			if (random.nextDouble() < fraction)
+				docs[count++] = doc;
+		}
+		return Arrays.copyOf(docs,count);
+	}
+
+	static QueryProcessor.InvertedIndex toIndex(QueryProcessor processor, int [] docs, Date date)
+	{
+		QueryProcessor.InvertedIndex index = processor.new InvertedIndex();
+		for (int doc : docs)
+			index.addDocument(doc,1,date.getTime());
+		return index;
+	}
+
+	// the intersection loop of runDAAT, with a new cursor on each list
+	static int intersect(QueryProcessor.InvertedIndex shorterList, QueryProcessor.InvertedIndex longerList)
+	{
+		QueryProcessor.InvertedIndex.Cursor shorter = shorterList.cursor();
+		QueryProcessor.InvertedIndex.Cursor longer = longerList.cursor();
+		int matches = 0;
+		int did = shorter.nextGEQ(0);
+		while (did != -1)
+		{
+			int d = longer.nextGEQ(did);
+			if (d == -1)
+				break;
+			if (d == did)
+			{
+				matches++;
+				did++;
+			}
+			else
+				did = d;
+			did = shorter.nextGEQ(did);
+		}
+		return matches;
+	}
+
+	// the same loop with the old linear cursor
+	private static int intersectLinear(LinearCursor shorter, LinearCursor longer)
+	{
+		shorter.resetLastId();
+		longer.resetLastId();
+		int matches = 0;
+		int did = shorter.nextGEQ(0);
+		while (did != -1)
+		{
+			int d = longer.nextGEQ(did);
+			if (d == -1)
+				break;
+			if (d == did)
+			{
+				matches++;
+				did++;
+			}
+			else
+				did = d;
+			did = shorter.nextGEQ(did);
+		}
+		return matches;
+	}
+
+/*------------------------------------------------------------------------------------
+	- The nextGEQ and posting objects that InvertedIndex had before the skip pointers and the posting arrays
+-------------------------------------------------------------------------------------*/
+	static class LinearCursor
+	{
+		private ArrayList<Posting> list = new ArrayList<Posting>();
+		private int lastId = 0;
+
+		public LinearCursor(int [] docs, Date date)
+		{
+			for (int doc : docs)
+				list.add(new Posting(doc,1,date));
+		}
+
+		public void resetLastId(){ lastId = 0; }
+
+		public int nextGEQ(int docId)
+		{
+			if (docId == -1)
+				return -1;
+
+			for (int i = lastId; i < list.size(); ++i)
+			{
+				if (list.get(i).docID >= docId)
+				{
+					lastId = i;
+					return list.get(i).docID;
+				}
+			}
+			return -1;
+		}
+	}
+
+	static class Posting
+	{
+		private int docID;
+		private int freq;
+		private Date date;
+
+		public Posting(int docId, int freq, Date date)
+		{
+			this.docID = docId;
+			this.freq = freq;
+			this.date = date;
+		}
+	}
+}
@@ -1,4 +1,8 @@
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 import java.io.*;
 import java.lang.*;
 import java.text.SimpleDateFormat;
@@ -11,40 +15,125 @@ public class QueryProcessor{
 	private final String urlTableFileName = "urlTable.txt";
 	private final String invertedIndexFileName = "index.txt";
 	private final String userBasedRankingFileName = "userBasedRank.txt";
-	private final String currentEventFileName = "currentEventsRank.txt";
+	private final String clickLogFileName = "userBasedRank.log"; // the clicks since the last snapshot in userBasedRank.txt, see ClickLog
+	private final String currentEventFileName = "currentEventsRank.txt"; // the old format of the current events data, only read if there is no trendingQueries.bin
+	private final String trendingFileName = "trendingQueries.bin";
 
 	// data structures to hold the inverted index and urlTable
-	private HashMap<String,InvertedIndex> index = new HashMap<String,InvertedIndex>();
-	private HashMap<Integer,Document > urlTable = new HashMap<Integer,Document >();
+	// the index is concurrent since in lazy mode the queries add the lists they decode
+	private Map<String,InvertedIndex> index = new ConcurrentHashMap<String,InvertedIndex>();
+	private DocStore docs; // length, date and url of each document, from docStore.bin or urlTable.txt
 
 	// these variables will be used for calculating the BM25 score
-	private int totalDocumentLength = 0;
+	private long totalDocumentLength = 0;
 
-	// heap to hold the top k 
-	DataComparator comp = new DataComparator();
-	private PriorityQueue<Pair<Integer,Double> > heap =  new PriorityQueue<Pair<Integer,Double> >(comp); // used to keep the top K documents
+	// every search keeps its top k documents in its own TopK heap
+	private final int DEFAULT_K = 10; // number of results per page when the query does not give -k
 
 	// used to store the documents in its ranking order and will be used when the user makes a selection on the document
 	// private ArrayList<Pair<Integer,Double>> documentReturnList = new ArrayList<Pair<Integer,Double>>();
 
 	// HashMap used for user click based ranking
-	private HashMap<String,UserRank> userBasedRankTable = new HashMap<String,UserRank>();
-	private int documentClickFreq = 0; // keep track of how many users clicked on the document
+	private Map<String,UserRank> userBasedRankTable = new ConcurrentHashMap<String,UserRank>();
+	private volatile int documentClickFreq = 0; // keep track of how many users clicked on the document
 	private int documentClickCount = 0; // keep track how many documents were clicked all together
 
+	// every click is appended to the click log before it returns, and the log is compacted into userBasedRank.txt every
+	// compactSeconds ( -compact SECONDS, 0 only compacts on quit ) if there were new clicks
+	private ClickLog clickLog;
+	private int compactSeconds = 300;
+	private volatile long compactedClicks = 0; // the click count of the log at the last compaction
+	private final Object compactLock = new Object(); // one compaction at a time
+
 	// This is used for the current event ranking
-	private HashMap<String,Pair<Integer,Date>> currentRankTable = new HashMap<String,Pair<Integer,Date>>();
 	private final int DAYSTHRESHOLD = 7; // number of days we should check for the current rank search
 	private final int NUMOFCLICKS  = 10; // number of searches for this day that we need
 	private final int DAYSRANGE = 30; // number of days this search should be within
+	// the searches of the last DAYSTHRESHOLD days in count-min sketches, and the queries that reached NUMOFCLICKS of them
+	// created by run, the processors of the shards do not need one
+	private TrendingQueries trending;
 	private final int MILLIS_PER_DAY = 86400000;
-
+	private final int BLOCK_SIZE = 64; // number of postings covered by each skip pointer
+	private final double EPSILON = 1e-9; // slack for rounding when scores are compared to their upper bounds
+
+	// when set, the index is read from the binary format (index.bin + lexicon.bin) instead of index.txt
+	private boolean binary = false;
+
+	// when set, only the lexicon is read at startup and each posting list is decoded from the memory mapped index.bin the first time it is queried
+	private boolean lazy = false;
+	private HashMap<String,BinaryIndex.LexiconEntry> lexicon = new HashMap<String,BinaryIndex.LexiconEntry>();
+	private java.nio.channels.FileChannel postingsChannel;
+	private java.nio.MappedByteBuffer postingsMap; // null if index.bin is too large to be mapped in one piece
+
+	// precomputed bm25 scores of the postings ( impacts.bin, written by IndexBuilder -impacts )
+	// null if there is no impacts file or it was computed for a different collection, then the scores are computed at query time
+	private Impacts impacts;
+
+	// the positions of the terms for phrase queries ( positions.bin, written by IndexBuilder -positions ). Only opened by the
+	// first query with a phrase, so the other queries never read them. null if there are none or they are for another lexicon
+	private Positions positions;
+	private boolean positionsOpened = false;
+	private final Object positionsLock = new Object();
+	private int lexiconTerms = 0; // the size of the lexicon the index was read from, the positions have to match it
+	private long lexiconPostings = 0;
+
+	// when set, the index is the revision intervals written by IndexBuilder -versioned ( see VersionedIndex )
+	// -at MM/dd/yy searches the revision that was current at that time, other searches expand the intervals of a term into a posting list
+	private boolean versioned = false;
+	private VersionedIndex versionedIndex;
+	private int [] revisions; // the revisions ( docIds ) in date order
+	private long [] revisionTimes; // the date of each revision in revisions
+
+	// when set, the index is read from all the segments in the segments manifest ( see IndexBuilder -segment )
+	private boolean segments = false;
+
+	// when set, the index is the document partitioned shards written by IndexBuilder -shards ( see Shards ). Every shard is
+	// read by its own QueryProcessor, the first is searched on the thread of the query and the others on shardPool, this one
+	// merges their results
+	private boolean sharded = false;
+	private ArrayList<QueryProcessor> shards; // null if the index is not sharded
+	private ExecutorService shardPool; // shared by all the searches, as many threads as cores. null with one shard
+	private String indexDir = ""; // the directory of the binary index, a shard has its own
+
+	// what runTerms runs on the lists of the terms
+	private final int AND_SEARCH = 0; // runDAAT
+	private final int OR_SEARCH = 1; // runWAND
+	private final int TIME_SEARCH = 2; // runDAATTime
+	private final int CURRENT_SEARCH = 3; // runDAATCurrent
+
+	// with -batch the queries of the file are run on a pool of threads instead of reading them from the user
+	private String batchFileName = null;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// with -server the queries come from HTTP requests ( see QueryServer ) instead of the user
+	private int serverPort = 0;
+	private int maxRequests = 256; // requests that can be queued or running before the server answers 503
+
+	// results of the last searches, so a repeated query does not walk the lists again ( see ResultCache and CachedResult )
+	// -cache N sets the number of queries that are cached, 0 turns the cache off
+	private int cacheSize = 1024;
+	private ResultCache<CachedResult> cache;
+
+	// what the searches spend their time on ( see Metrics ). Registered with JMX by run, and with -metrics SECONDS appended
+	// to metrics.txt every SECONDS seconds. The processors of the shards count into the counters of this one
+	private Metrics metrics = new Metrics("QueryProcessor");
+	private int metricsSeconds = 0;
+	private Metrics.Histogram plainTimes = metrics.timer("search.plain"); // the time of a search by how it was ranked
+	private Metrics.Histogram currentTimes = metrics.timer("search.current");
+	private Metrics.Histogram timeTimes = metrics.timer("search.time");
+	private Metrics.Histogram cachedTimes = metrics.timer("search.cached"); // answered from the cache
+	private Metrics.Histogram heapSizes = metrics.histogram("search.heap"); // the number of results in the heap of a search
+	private LongAdder postingsScanned = metrics.counter("search.postings"); // how far the cursors moved, skipped postings included
+	private LongAdder nextGEQCalls = metrics.counter("search.nextGEQ");
+	private LongAdder notCurrent = metrics.counter("search.notCurrent"); // searches that were checked for current events and were not one
+	private LongAdder phrasesAsWords = metrics.counter("search.phrasesAsWords"); // phrases searched as words ( -or, or no positions )
+	private volatile boolean phrasesWarned = false;
 
 
 	public static void main(String [] args) throws Exception
 	{
 		QueryProcessor program = new QueryProcessor();
-		program.run();
+		program.run(args);
 		// Scanner in = new Scanner(System.in);
 
 		// String t = in.nextLine();
@@ -58,16 +147,71 @@ public class QueryProcessor{
 	}
 
 
-	private void run() throws Exception
+	private void run(String [] args) throws Exception
 	{
+		// read the command line options
+		for (int i = 0; i < args.length; ++i)
+		{
+			if (args[i].equals("-binary"))
+				binary = true;
+			else if (args[i].equals("-lazy"))
+				lazy = true;
+			else if (args[i].equals("-segments"))
+				segments = true;
+			else if (args[i].equals("-shards"))
+				sharded = true;
+			else if (args[i].equals("-versioned"))
+				versioned = true;
+			else if (args[i].equals("-batch"))
+				batchFileName = args[++i];
+			else if (args[i].equals("-threads"))
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-server"))
+				serverPort = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-maxRequests"))
+				maxRequests = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-cache"))
+				cacheSize = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-compact"))
+				compactSeconds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-metrics"))
+				metricsSeconds = Integer.parseInt(args[++i]);
+		}
+		cache = new ResultCache<CachedResult>(cacheSize);
+		trending = new TrendingQueries(DAYSTHRESHOLD,NUMOFCLICKS,DAYSRANGE);
+		startMetrics();
+
 		// read the data structures that are in hard drive into memory
-		readUrlTable();
-		readInvertedIndex();
+		if (segments)
+			readSegments();
+		else if (sharded)
+			readShards();
+		else
+		{
+			readDocuments("");
+			if (versioned)
+				readVersionedIndex();
+			else if (lazy)
+				openMappedIndex();
+			else if (binary)
+				readBinaryIndex("");
+			else
+				readInvertedIndex("");
+		}
 		readUserRankIndex(); // used to rank documents based on what user's selected
 		readCurrentSearch(); // this determines if it is a current events search
 
+		// the batch does not click, so only the interactive search and the server compact the click log
+		if (compactSeconds > 0 && batchFileName == null)
+			startCompaction();
+
 		// now run the query processor
-		queryProcessor();
+		if (serverPort > 0)
+			new QueryServer(this,serverPort,threads,maxRequests).start();
+		else if (batchFileName != null)
+			runBatch(batchFileName);
+		else
+			queryProcessor();
 	}
 //--------------------------------------------------------------------------------------------------------------File Reading/Writing
 
@@ -81,19 +225,29 @@ public class QueryProcessor{
 	private void readCurrentSearch()
 	{
 		try{
+			if (new File(trendingFileName).exists())
+			{
+				trending.read(trendingFileName);
+				return;
+			}
+
+			// the old file has one line per query: Query;number of times searched;last date searched
+			// the counts still in the window go in the sketch of their day, and the queries that were current stay current
 			Scanner reader = new Scanner(new File(currentEventFileName));
+			long now = System.currentTimeMillis();
 			while (reader.hasNext())
 			{
-				// read the whole line. Basically this is how the format of the file will be
-				// Query;DATE;number of times searched
 				String line = reader.nextLine();
 				String [] arr = line.split(";");
 				String query = arr[0];
 				int count = Integer.parseInt(arr[1]);
 				DateFormat formatter = new SimpleDateFormat("EEE MMM dd HH:mm:ss ZZZ yyyy",Locale.ENGLISH);
 				Date date = (Date)formatter.parse(arr[2]);
-				// insert the data in the hashtable
-				currentRankTable.put(query,new Pair<Integer,Date>(count,date));
+				long days = (now - date.getTime()) / MILLIS_PER_DAY;
+				if (days <= DAYSTHRESHOLD)
+					trending.addCount(query,date.getTime(),count);
+				if (days <= DAYSRANGE && count >= NUMOFCLICKS)
+					trending.addHeavyHitter(query,date.getTime());
 			}
 			reader.close();
 		}
@@ -108,14 +262,8 @@ public class QueryProcessor{
 	private void writeCurrentSearch()
 	{
 		try{
-			PrintWriter write = new PrintWriter(currentEventFileName);
-			for (Map.Entry<String,Pair<Integer,Date>> rank : currentRankTable.entrySet())
-			{
-				Pair<Integer,Date> tmp = rank.getValue();
-				write.println(rank.getKey()+";"+tmp.first+";"+tmp.second);
-			}
-			write.close();
-
+			// the server can still be counting searches while this is written, the sketches are locked while they are written
+			trending.write(trendingFileName);
 		}
 		catch(Exception e)
 		{
@@ -130,11 +278,14 @@ public class QueryProcessor{
 	{
 
 		try{
-			Scanner reader = new Scanner(new File(userBasedRankingFileName));
+			Scanner reader = new Scanner(new File(userBasedRankingFileName),"UTF-8");
 			while (reader.hasNext())
 			{
 				// The file is structured this way: QUERY <space> DOCUMENT ID  <space> # of Times selected
 				String line = reader.nextLine();
+				// the header of a snapshot written by a compaction
+				if (line.startsWith(ClickLog.HEADER))
+					continue;
 				String [] arr = line.split(":");
 				String query = arr[0];
 				UserRank userrank = new UserRank();
@@ -149,7 +300,6 @@ public class QueryProcessor{
 				}
 
 				userBasedRankTable.put(query, userrank);
-				System.out.println(userrank);
 			}
 			reader.close();
 		}
@@ -157,83 +307,163 @@ public class QueryProcessor{
 		{
 			System.out.println("ERROR OCCURED IN readUserRankIndex "+ e);
 		}	
+
+		// the clicks after the snapshot are in the click log
+		try{
+			int generation = ClickLog.readSnapshotGeneration(userBasedRankingFileName);
+			clickLog = ClickLog.open(clickLogFileName,generation,new ClickLog.Replay(){
+				public void click(String query, int docId)
+				{
+					countClick(query,docId);
+				}
+			});
+		}
+		catch (Exception e)
+		{
+			System.out.println("ERROR in reading the click log " + e);
+		}
 	}
 /*-----------------------------------------------------------------------------------------------------
 		- This is used for writing the user based ranking to the file
 ------------------------------------------------------------------------------------------------------*/
+	/*
+	* This is the compaction of the click log: the click table is written as a snapshot and the logs it covers are deleted
+	*/
 	private void  writeUserBasedRanking()
 	{
-		try{
-			PrintWriter write = new PrintWriter(userBasedRankingFileName);
-			for (Map.Entry<String,UserRank> rank : userBasedRankTable.entrySet())
-			{
-				//System.out.println(rank.getKey()+":"+rank.getValue()+":");
-				write.println(rank.getKey()+rank.getValue());
+		synchronized(compactLock)
+		{
+			try{
+				ArrayList<String> lines = new ArrayList<String>();
+				int generation = 0;
+				long clicks = 0;
+				// no click can come in while the log is rotated and the table is copied, so the snapshot has exactly the
+				// clicks of the generations before the new one
+				synchronized(this)
+				{
+					if (clickLog != null)
+					{
+						generation = clickLog.rotate();
+						clicks = clickLog.getClickCount();
+					}
+					for (Map.Entry<String,UserRank> rank : userBasedRankTable.entrySet())
+					{
+						//System.out.println(rank.getKey()+":"+rank.getValue()+":");
+						lines.add(rank.getKey()+rank.getValue());
+					}
+				}
+				ClickLog.writeSnapshot(userBasedRankingFileName,generation,lines);
+				if (clickLog != null)
+					clickLog.deleteBefore(generation);
+				compactedClicks = clicks;
+			}
+			catch(Exception e){
+				System.out.println("ERROR IN WRITING USER BASED RANKING"+e);
 			}
-			write.close();
-		}
-		catch(Exception e){
-			System.out.println("ERROR IN WRITING USER BASED RANKING"+e);
 		}
 	}
 
 	/*
-	* Reads the file for the URLTable and fills the URL in main memory since it is small (~20 documents)
+	* Compacts the click log every compactSeconds on a background thread, if there were clicks since the last compaction
 	*/
-	private void readUrlTable() throws Exception
+	private void startCompaction()
 	{
-		try{
-			Scanner reader = new Scanner(new File(urlTableFileName));
-
-			// loop through each 
-			while (reader.hasNext())
+		ScheduledExecutorService compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable task)
 			{
-				// read the whole line and parse the line
-				// the line format is document name;document last date modified;Document Size;Document ID
-				// split based of : (semi-colon)
-				String line = reader.nextLine(); 
-				String [] arr = line.split(";");
-				// for (String s:arr)
-				// 	System.out.println(s);
-				// now here's how the array is layed out:
-				// 0 - document name
-				// 1- date + time
-				// 2- Size
-				// 3- ID
-
-				// parse the string for the date, since we need to format it
-				DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
-				Date date = (Date)formatter.parse(arr[1]);
-				// put this document in the url table
-				int docid = Integer.parseInt(arr[3]);
-				String docname = arr[0];
-				int length = Integer.parseInt(arr[2]);
-				urlTable.put(docid,new Document(docname,date,length));
-
-				// sum the document length
-				totalDocumentLength+= length;
-				//Pair tmp = new Pair(docId,new Pair(urlName,length));
-			}
-
-			// close the reader
-			reader.close();
+				Thread thread = new Thread(task,"click-compactor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		compactor.scheduleWithFixedDelay(new Runnable(){
+			public void run()
+			{
+				if (clickLog != null && clickLog.getClickCount() != compactedClicks)
+					writeUserBasedRanking();
+			}
+		},compactSeconds,compactSeconds,TimeUnit.SECONDS);
+	}
 
+	/*
+	* Adds the counts that are kept outside of the metrics as gauges, registers the metrics with JMX and
+	* with -metrics starts appending them to metrics.txt
+	*/
+	private void startMetrics()
+	{
+		metrics.gauge("cache.hits",new LongSupplier(){
+			public long getAsLong(){ return cache.getHits(); }
+		});
+		metrics.gauge("cache.misses",new LongSupplier(){
+			public long getAsLong(){ return cache.getMisses(); }
+		});
+		metrics.gauge("clicks.queries",new LongSupplier(){
+			public long getAsLong(){ return userBasedRankTable.size(); }
+		});
+		metrics.register();
+		if (metricsSeconds > 0)
+			metrics.startDump(metricsSeconds,Metrics.metricsFileName);
+	}
+
+	// the metrics of the searches, the server returns them with the cache stats
+	Metrics getMetrics(){ return metrics; }
+
+	/*
+	* Opens the document store that IndexBuilder wrote next to urlTable.txt. The columns are mapped, so this does not parse every document
+	* An index without docStore.bin, or with a urlTable.txt that is newer, has its url table parsed instead
+	* dir is the directory of the index files
+	*/
+	void readDocuments(String dir) throws Exception
+	{
+		if (DocStore.isCurrent(dir))
+		{
+			try{
+				docs = DocStore.open(dir);
+			}
+			catch(IOException e)
+			{
+				System.out.println("ERROR in reading the document store, reading the URLTable file " + e);
+			}
 		}
+		if (docs == null)
+		{
+			DocStore.Builder builder = new DocStore.Builder();
+			readUrlTable(dir,builder);
+			docs = builder.build();
+		}
+		totalDocumentLength = docs.getTotalDocumentLength();
+	}
 
+	/*
+	* Adds the documents of the url table in the directory to the builder, from its docStore.bin if it is current
+	*/
+	private void readUrlTable(String dir, DocStore.Builder builder) throws Exception
+	{
+		try{
+			addUrlTable(dir,builder);
+		}
 		catch(IOException e)
 		{
 			System.out.println("ERROR in reading the URLTable file " + e);
 		}
 	}
 
+	private void addUrlTable(String dir, DocStore.Builder builder) throws IOException
+	{
+		if (DocStore.isCurrent(dir))
+			builder.addAll(DocStore.open(dir));
+		else
+			builder.addUrlTable(dir + urlTableFileName);
+	}
+
 	/*
-	* This method reads the invertedIndex
+	* This method reads the invertedIndex from the text format, dir is the directory of index.txt
 	*/
-	private void readInvertedIndex() throws Exception
+	void readInvertedIndex(String dir) throws Exception
 	{
 		try{
 
-			Scanner reader = new Scanner(new File(invertedIndexFileName));
+			Scanner reader = new Scanner(new File(dir + invertedIndexFileName));
 			
 			// loop through and read every intance of the inverted index
 			while (reader.hasNextLine())
@@ -257,7 +487,7 @@ public class QueryProcessor{
 					//parse the date
 					DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
 					Date date = (Date)formatter.parse( arr[++i]);
-					tmpIndex.addDocument(docid,freq,date);
+					tmpIndex.addDocument(docid,freq,date.getTime());
 				}
 				// insert the document to the hashMap
 				index.put(word,tmpIndex);
@@ -270,326 +500,1178 @@ public class QueryProcessor{
 		}
 	}
 
-// -------------------------------------------------------------------------------------------------------------- Query Processing & Ranking
 	/*
-	* This method will take a user input and return the top k documents
+	* This method reads the url tables and the indexes of all the segments in the manifest
+	* The segments are in docId order, so the posting lists of each segment are appended to the ones read before
 	*/
-	private void queryProcessor() throws Exception
+	private void readSegments() throws Exception
 	{
-		// ask and read the input given by the user
-		Scanner in = new Scanner(System.in);
-		// list that will contain the inverted index for all the terms
-		ArrayList<InvertedIndex> list = new ArrayList<InvertedIndex>();
-		boolean isResult = true;
-		boolean specialSearch = false; // if its a current search or time search4
-		Date date = null; // used for user entered date
-		//int year = 0; // this is the year the user enters in
+		if (lazy)
+			System.out.println("-lazy is not supported with -segments, reading the whole index");
+		ArrayList<Segments.Segment> list;
+		DocStore.Builder builder = new DocStore.Builder();
+		// a merge swaps the manifest and deletes its inputs under the lock, so the segments listed stay until they are read.
+		// A segment that can not be read stops the start, the index would be missing its documents
+		Segments.lock();
+		try{
+			list = Segments.readManifest();
+			for (Segments.Segment segment : list)
+			{
+				if (!new File(segment.getDir()).isDirectory())
+					throw new IOException("The segment " + segment.name + " in the manifest is missing");
+				addUrlTable(segment.getDir(),builder);
+				addBinaryIndex(segment.getDir());
+			}
+		}
+		finally{
+			Segments.unlock();
+		}
+		docs = builder.build();
+		totalDocumentLength = docs.getTotalDocumentLength();
+		System.out.println("Read " + list.size() + " segments");
+	}
 
-		while (true)
+	/*
+	* This method reads the shards in the manifest, each one into its own QueryProcessor with its own executor
+	* The url tables of all the shards are read here and the shards share them, so the bm25 stats ( number of documents and
+	* average document length ) and the document lengths are the ones of the whole collection and the scores do not depend
+	* on how the documents were split. The shards are binary indexes, with -lazy each shard maps its own index.bin
+	*/
+	private void readShards() throws Exception
+	{
+		ArrayList<Shards.Shard> list = Shards.readManifest();
+		if (versioned)
+			System.out.println("-versioned is not supported with -shards, reading the shards");
+		DocStore.Builder builder = new DocStore.Builder();
+		for (Shards.Shard shard : list)
+			readUrlTable(shard.getDir(),builder);
+		docs = builder.build();
+		totalDocumentLength = docs.getTotalDocumentLength();
+
+		shards = new ArrayList<QueryProcessor>();
+		for (Shards.Shard shard : list)
 		{
-			System.out.println("What would you like to search for?");
-			String query = in.nextLine();
-			if (query.equals("quit"))
-				break;
-
-			ArrayList<Pair<Integer,Double>> documentReturnList = new ArrayList<Pair<Integer,Double>>();
-			// if it is a current search or a time specified search, set it to true
-			if (query.contains("-c") || query.contains("-t"))
-				specialSearch = true;
-
-			// split the query into separate words
-			String [] values = query.split(" ");
-
-
-			// now for each word, we will put the invertedIndex in the list and run nextGEQ on them
-			for (int i = 0; i < values.length ; ++i)
-			{
-				if (values[i].equals("-t"))
-				{
-					//the next value is the year
-					// format the date
-					DateFormat formatter = new SimpleDateFormat("MM/dd/yy");
-					date = (Date)formatter.parse(values[i+1]);
-					System.out.println(date);
-					//year = Integer.parseInt(values[i+1].trim());
+			QueryProcessor processor = new QueryProcessor();
+			processor.indexDir = shard.getDir();
+			processor.binary = true;
+			processor.lazy = lazy;
+			processor.docs = docs;
+			processor.totalDocumentLength = totalDocumentLength;
+			// the cursors of the shards count into this processor's metrics
+			processor.nextGEQCalls = nextGEQCalls;
+			processor.postingsScanned = postingsScanned;
+			if (lazy)
+				processor.openMappedIndex();
+			else
+				processor.readBinaryIndex(shard.getDir());
+			shards.add(processor);
+		}
 
-					++i;
-				}
-				// find the invertedIndex for this string and add it to the list
-				else if (index.get(values[i]) == null)
+		// one pool for the shards of all the searches, a thread per shard and search would be shards x search threads
+		if (list.size() > 1)
+		{
+			int threads = Math.min(list.size() - 1,Runtime.getRuntime().availableProcessors());
+			shardPool = Executors.newFixedThreadPool(threads,new ThreadFactory(){
+				private int count = 0;
+				public synchronized Thread newThread(Runnable task)
 				{
-
-					isResult = false;
-					break;
+					Thread thread = new Thread(task,"shard-" + count++);
+					thread.setDaemon(true);
+					return thread;
 				}
-				
-				// only add it to list, if its not a parameter
-				else if (!values[i].equals("-c"))
-				{
-					list.add(index.get(values[i]));
-					index.get(values[i]).resetLastId(); // reset this lists last saved id
-					System.out.println(values[i]);
-				}			
-			}
-			// check if its a special search
-			// 		if it is, send it to the right search time ( either time or current)
-			if (specialSearch && list.size() > 0)
-			{
-				System.out.println("========" + date);
-				if (date!=null)
-					runDAATTime(list,date);
-				else
-					runDAATCurrent(list);
-				// runDAATCurrent(list);
-			}
-			else if (checkCurrent(query)) // if this is a current events search, then return true
-				runDAATCurrent(list);
-			// now we have all the lists ready. We will find the intersections using DAAT traversal
-			else if (list.size()>0 && isResult)
-			{
-				//System.out.println("Not a special search");
-				rankCurrent(query); // rank the current event documents
-				runDAAT(list,query);
-			}
-
-			//year = 0;
-			//comp.greater = true;
-			//System.out.println(heap.size());
-			int result = 0;
-			boolean hasResults = false; // used to keep track if this is a result, and can we take a user input for the result
-			while (heap.size() > 0)
-			{
-				Pair<Integer,Double> temp = heap.poll();
-				System.out.println(++result+") " + temp.first + " -> " + temp.second);
-				// add the document for when the user makes a selection
-				documentReturnList.add(temp); // this stores the results in the array, which the user can select the options
-				hasResults = true; // this is a result
-			}
-
-			if (hasResults){
-				System.out.println("Which result will you like to look at?");
-				int userChoice = Integer.parseInt(in.nextLine());
-				// this is the result the user likes and choose, so this result should get a score boost
-				rankDocument(userChoice,query,documentReturnList);
-			}
-			else{
-				System.out.println("No results found");
-			}
+			});
+		}
+		System.out.println("Read " + list.size() + " shards");
+	}
 
-			// reset everything
-			list.clear();
-			// documentReturnList.clear();
-			isResult = true;
-			specialSearch = false;
-			date = null;
+	/*
+	* This method reads the invertedIndex from the binary format written by IndexBuilder -binary or by BinaryIndex
+	* dir is the directory of the index files, the lists are appended to the lists already in the index
+	*/
+	private void readBinaryIndex(String dir) throws Exception
+	{
+		try{
+			addBinaryIndex(dir);
+		}
+		catch(IOException e)
+		{
+			System.out.println("ERROR in reading the binary index into main memory " + e);
 		}
-		// we broke out
-		in.close();
-		// write to the file the userBasedRanking
-		writeUserBasedRanking();
-		writeCurrentSearch();
 	}
 
-/*----------------------------------------------------------------------------------------------------------
-	-- Basically check if this was a current event search
------------------------------------------------------------------------------------------------------------*/
-	private boolean checkCurrent(String query)
+	private void addBinaryIndex(String dir) throws IOException
 	{
-		Pair<Integer,Date> tmp = currentRankTable.get(query);
-		if (tmp!=null)
+		ArrayList<BinaryIndex.LexiconEntry> entries = BinaryIndex.readLexicon(dir + BinaryIndex.lexiconFileName);
+		java.nio.ByteBuffer postings = BinaryIndex.readPostings(dir + BinaryIndex.postingsFileName);
+		// the impacts of a segment are not for the whole collection
+		if (!segments)
 		{
-			// ck if this is within the month time range and if its above the count limit needed to be a current events document
-			Date curr = new Date();
-			int days = (int)Math.abs(curr.getTime() - tmp.second.getTime())/MILLIS_PER_DAY ;
-			if (days <= DAYSRANGE && tmp.first >= NUMOFCLICKS)
-				return true; // its a current events search
+			openImpacts(entries);
+			countLexicon(entries);
 		}
 
-		System.out.println("FAiled current events search");
-		return false;
+		HashMap<String,InvertedIndex> tmpIndex = new HashMap<String,InvertedIndex>();
+		for (BinaryIndex.LexiconEntry entry : entries)
+		{
+			postings.position((int)entry.offset);
+			// terms are lower cased the same way as readInvertedIndex
+			tmpIndex.put(entry.term.toLowerCase(),decodeInvertedIndex(postings,entry));
+		}
 
+		for (Map.Entry<String,InvertedIndex> entry : tmpIndex.entrySet())
+		{
+			InvertedIndex list = index.get(entry.getKey());
+			if (list == null)
+				index.put(entry.getKey(),entry.getValue());
+			else
+				list.append(entry.getValue());
+		}
 	}
-/*----------------------------------------------------------------------------------------------------------
-	-- Basically check if this query was searched within the last week
------------------------------------------------------------------------------------------------------------*/
-	private void rankCurrent(String query)
+
+	/*
+	* This method only reads the lexicon and memory maps index.bin. The posting lists are decoded by getInvertedIndex when they are first used
+	*/
+	private void openMappedIndex() throws Exception
 	{
-		// 	check if this query was searched for within the past week, if yes update the time and increment the time
-		Pair<Integer,Date> tmp = currentRankTable.get(query);
-		if (tmp==null)
-		{
-			// create a new entry
-			tmp = new Pair<Integer,Date>(1,new Date());
-			currentRankTable.put(query,tmp);
+		try{
+			ArrayList<BinaryIndex.LexiconEntry> entries = BinaryIndex.readLexicon(indexDir + BinaryIndex.lexiconFileName);
+			for (BinaryIndex.LexiconEntry entry : entries)
+				lexicon.put(entry.term.toLowerCase(),entry);
+			openImpacts(entries);
+			countLexicon(entries);
+
+			postingsChannel = java.nio.channels.FileChannel.open(java.nio.file.Paths.get(indexDir + BinaryIndex.postingsFileName),java.nio.file.StandardOpenOption.READ);
+			// a single mapping can only cover 2GB, larger files map each posting list on its own
+			if (postingsChannel.size() <= Integer.MAX_VALUE)
+				postingsMap = postingsChannel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY,0,postingsChannel.size());
 		}
-		else
+		catch(IOException e)
 		{
-			// ck if this occurs within the last week, if yes, update the time and increment the search count
-			Date curr = new Date();
-			int days = (int)Math.abs(curr.getTime() - tmp.second.getTime())/ MILLIS_PER_DAY ;
-			//int days = 2;
+			System.out.println("ERROR in opening the mapped index " + e);
+		}
+	}
 
-			if (days <= DAYSTHRESHOLD)
+	/*
+	* This method reads the revision intervals. The posting lists are built from the intervals by getInvertedIndex when they are first used
+	*/
+	private void readVersionedIndex() throws Exception
+	{
+		try{
+			versionedIndex = VersionedIndex.read("");
+
+			// the revisions are numbered in date order, so the url table in docId order is sorted by date
+			revisions = new int[docs.getDocumentCount()];
+			revisionTimes = new long[docs.getDocumentCount()];
+			int i = 0;
+			for (int docId = docs.getFirstDocId(); docId <= docs.getLastDocId(); ++docId)
 			{
-				// increment the time and the date
-				tmp.first = tmp.first + 1;
-				tmp.second = curr;
+				if (!docs.contains(docId))
+					continue;
+				revisions[i] = docId;
+				revisionTimes[i++] = docs.getTime(docId);
 			}
-			else
+		}
+		catch(IOException e)
+		{
+			System.out.println("ERROR in reading the versioned index " + e);
+		}
+	}
+
+	/*
+	* Opens impacts.bin if there is one. The impacts are only used if they were computed for the url table and the lexicon we read
+	*/
+	private void openImpacts(ArrayList<BinaryIndex.LexiconEntry> entries)
+	{
+		try{
+			impacts = Impacts.open(indexDir);
+			if (impacts != null && !impacts.matches(docs.getDocumentCount(),totalDocumentLength,entries))
 			{
-				// otherwise set the occurance to one and reset the time
-				tmp.first = 1;
-				tmp.second = curr;
+				System.out.println(Impacts.impactsFileName + " was computed for another index, computing the scores at query time");
+				impacts = null;
 			}
 		}
-
+		catch(IOException e)
+		{
+			System.out.println("ERROR in reading the impacts " + e);
+			impacts = null;
+		}
 	}
 
-/*-----------------------------------------------------------------------------------------------------------
-	Rank documents based on user score ( note used for future ranking)
-
-	we have the file read in from the document already, so simply update the file and write it back to the disk 
-	(Note we are simply increasing the times a user clicked on this result for this particular query )
+	// keeps the number of terms and postings of the lexicon, to check the positions against it
+	private void countLexicon(ArrayList<BinaryIndex.LexiconEntry> entries)
+	{
+		lexiconTerms = entries.size();
+		lexiconPostings = 0;
+		for (BinaryIndex.LexiconEntry entry : entries)
+			lexiconPostings += entry.docCount;
+	}
 
-*----------------------------------------------------------`---------------------------------------------------*/
-	private void rankDocument(int userChoice,String query, ArrayList<Pair<Integer,Double>> documentReturnList)
+	/*
+	* Returns the positions of the binary index, opening positions.bin the first time. null if the index has no positions
+	* The positions are found by the number of the term in the lexicon, so the text index and the segments can not use them
+	*/
+	private Positions getPositions()
 	{
-		//check if this exists in the hashMap, if it does we'll simply increment the count
-		UserRank temp = userBasedRankTable.get(query);
-		documentClickFreq++; // we will always incremeent freq
-		if (temp == null)
+		synchronized(positionsLock)
 		{
-			//System.out.println(documentReturnList.get(userChoice-1).first);
-			temp = new UserRank(); // make a new entry for this query with the document selected and set freq to 1
-			temp.addRank(documentReturnList.get(userChoice-1).first,1);
-			userBasedRankTable.put(query,temp);
-			//System.out.println("=============" + query + " ==" + documentReturnList.get(userChoice-1).first );
-			// incremeent document click Count + freq
-			documentClickCount++;
+			if (!positionsOpened)
+			{
+				positionsOpened = true;
+				if ((binary || lazy) && !segments && !versioned)
+				{
+					try{
+						positions = Positions.open(indexDir);
+						if (positions != null && !positions.matches(lexiconTerms,lexiconPostings))
+						{
+							System.out.println(Positions.positionsFileName + " was written for another index, searching the phrases as words");
+							positions = null;
+						}
+					}
+					catch(IOException e)
+					{
+						System.out.println("ERROR in reading the positions " + e);
+						positions = null;
+					}
+				}
+			}
+			return positions;
 		}
-		else
-			temp.addRank(documentReturnList.get(userChoice-1).first);
-	} // end of rankDocument function
+	}
 
 	/*
-	* @ Param - this is the inverted list for each term. We will use these lists to find the intersections
-	* This method will find the document based on the year closest to the ones passed in
+	* Returns the inverted index of the term, or null if the term is not in the index
+	* In lazy mode the posting list is decoded from the mapped file the first time and kept in the index afterwards
 	*/
-	private void runDAATTime(ArrayList<InvertedIndex> list, Date date)
+	InvertedIndex getInvertedIndex(String term) throws IOException
 	{
-		// sort the list first
-		Collections.sort(list,new Comparator<InvertedIndex>(){
+		InvertedIndex tmpIndex = index.get(term);
+		if (tmpIndex != null || (!lazy && !versioned))
+			return tmpIndex;
+		if (versioned)
+			return expandIntervals(term);
+
+		BinaryIndex.LexiconEntry entry = lexicon.get(term);
+		if (entry == null)
+			return null;
+
+		// queries run at the same time, only one of them decodes the list and the others wait for it
+		synchronized(lexicon)
+		{
+			tmpIndex = index.get(term);
+			if (tmpIndex != null)
+				return tmpIndex;
 
-			public int compare(InvertedIndex l1, InvertedIndex l2)
+			java.nio.ByteBuffer postings;
+			if (postingsMap != null)
 			{
-				return l1.getListSize() - l2.getListSize();
+				postings = postingsMap;
+				postings.position((int)entry.offset);
 			}
+			else
+				postings = postingsChannel.map(java.nio.channels.FileChannel.MapMode.READ_ONLY,entry.offset,entry.length);
 
-		});
-
-		// we want to sort in decreasing order since this is the difference of the years
-		comp.greater = false;
+			tmpIndex = decodeInvertedIndex(postings,entry);
+			index.put(term,tmpIndex);
+			return tmpIndex;
+		}
+	}
 
-		// for (InvertedIndex i : list)
-		// 	System.out.println(i.getListSize());
-		int did = 0;
-		int d=-1;
+	// builds the posting list of the term from its revision intervals, one posting per revision of each interval
+	private InvertedIndex expandIntervals(String term)
+	{
+		VersionedIndex.IntervalList intervals = versionedIndex == null ? null : versionedIndex.get(term);
+		if (intervals == null)
+			return null;
 
-		// run until we have exaughsted all the documents of the shorter list
-		while (did != -1)
+		synchronized(versionedIndex)
 		{
-			// get the document from the shortest list
-			did = list.get(0).nextGEQ(did);
-
-			// check if other documents have the same document ID
-			for (int i = 0; ( i<list.size() && (d = list.get(i).nextGEQ(did)) == did ); ++i );
+			InvertedIndex tmpIndex = index.get(term);
+			if (tmpIndex != null)
+				return tmpIndex;
 
-			// this is not a intersection, so assign the new did and start over
-			if (d>did && did != -1) 
-				did = d;
-			// this is a intersection
-			// compute the BM25 score
-			else if (did != -1)
+			tmpIndex = new InvertedIndex(intervals.getPostingCount());
+			for (int i = 0; i < intervals.count; ++i)
 			{
-				//double diff = (double) Math.abs(list.get(0).getYear(did) - year); // this is the same document ID, so get the year based on the current value
-				Date curr = list.get(0).getDate(did);
-				double diff = (double) Math.abs((curr.getTime() - date.getTime()) / (double) MILLIS_PER_DAY );
-				heap.add(new Pair<Integer,Double>(did,diff));
-				
-				did++;// incremenet the DID
+				for (int revision = intervals.starts[i]; revision <= intervals.ends[i]; ++revision)
+					tmpIndex.addDocument(revision,intervals.freqs[i],docs.getTime(revision));
 			}
-
+			index.put(term,tmpIndex);
+			return tmpIndex;
 		}
 	}
 
+	// decodes the posting list of the entry starting at the current position of the buffer
+	private InvertedIndex decodeInvertedIndex(java.nio.ByteBuffer postings, BinaryIndex.LexiconEntry entry)
+	{
+		int [] docIds = new int[entry.docCount];
+		int [] freqs = new int[entry.docCount];
+		int [] days = new int[entry.docCount];
+		BinaryIndex.decode(postings,entry.docCount,docIds,freqs,days);
+
+		InvertedIndex tmpIndex = new InvertedIndex(entry.docCount);
+		for (int i = 0; i < entry.docCount; ++i)
+			tmpIndex.addDocument(docIds[i],freqs[i],BinaryIndex.epochDayToTime(days[i]));
+		tmpIndex.setTerm(entry.number);
+		if (impacts != null)
+			tmpIndex.setImpacts(impacts.decode(entry.position,entry.docCount));
+		return tmpIndex;
+	}
+
+// -------------------------------------------------------------------------------------------------------------- Query Processing & Ranking
 	/*
-	* @ Param - this is the inverted list for each term. We will use these lists to find the intersections
-	* This method will find the document based on the most relevant year
+	* This method will take a user input and return the top k documents
 	*/
-	private void runDAATCurrent(ArrayList<InvertedIndex> list)
+	private void queryProcessor() throws Exception
 	{
+		// ask and read the input given by the user
+		Scanner in = new Scanner(System.in);
+
+		while (true)
+		{
+			System.out.println("What would you like to search for?");
+			String query = in.nextLine();
+			if (query.equals("quit"))
+				break;
+
+			// read the paging options and take them out of the query
+			Query options;
+			try{
+				options = new Query(query);
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.out.println("Bad -k or -page: " + e.getMessage());
+				continue;
+			}
+			query = options.text;
+
+			ArrayList<Pair<Integer,Double>> documentReturnList;
+			try{
+				documentReturnList = search(query,options.k,options.getOffset());
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.out.println("Bad query: " + e.getMessage());
+				continue;
+			}
+
+			int result = 0;
+			for (Pair<Integer,Double> temp : documentReturnList)
+				System.out.println(++result+") " + temp.first + " -> " + temp.second);
+
+			if (!documentReturnList.isEmpty()){
+				System.out.println("Which result will you like to look at?");
+				int userChoice = Integer.parseInt(in.nextLine());
+				// this is the result the user likes and choose, so this result should get a score boost
+				rankDocument(userChoice,query,documentReturnList);
+			}
+			else{
+				System.out.println("No results found");
+			}
+		}
+		// we broke out
+		in.close();
+		System.out.println(cache);
+		// write to the file the userBasedRanking
+		writeUserBasedRanking();
+		writeCurrentSearch();
+	}
+
+	/*
+	* Writes the click and the current events rankings to disk, the server calls this when it stops
+	*/
+	void writeRankings()
+	{
+		writeUserBasedRanking();
+		writeCurrentSearch();
+	}
+
+	// returns the url of the document, or null if there is no document with this ID
+	String getDocumentUrl(int docId)
+	{
+		return docs.getUrl(docId);
+	}
+
+	/*
+	* Runs every query of the file ( one per line, with the same options as the interactive search ) on a pool of threads
+	* Each search has its own cursors and heap, so the queries only share the index, which they do not change
+	* The results are printed in the order of the file, then the number of queries per second
+	*/
+	private void runBatch(String fileName) throws Exception
+	{
+		ArrayList<Query> queries = new ArrayList<Query>();
+		BufferedReader reader = new BufferedReader(new FileReader(fileName));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.trim().isEmpty())
+				continue;
+			try{
+				queries.add(new Query(line));
+			}
+			catch(IllegalArgumentException e)
+			{
+				System.out.println("ERROR in the batch query " + line + ": " + e.getMessage());
+			}
+		}
+		reader.close();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<ArrayList<Pair<Integer,Double>>>> results = new ArrayList<Future<ArrayList<Pair<Integer,Double>>>>();
+		long start = System.nanoTime();
+		try{
+			for (final Query query : queries)
+			{
+				results.add(pool.submit(new Callable<ArrayList<Pair<Integer,Double>>>(){
+					public ArrayList<Pair<Integer,Double>> call() throws Exception
+					{
+						return search(query.text,query.k,query.getOffset());
+					}
+				}));
+			}
+			// wait for all of them before printing so the time does not include the printing
+			for (Future<ArrayList<Pair<Integer,Double>>> result : results)
+				result.get();
+		}
+		catch(ExecutionException e)
+		{
+			System.out.println("ERROR in running the batch " + e.getCause());
+			return;
+		}
+		finally{
+			pool.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		for (int i = 0; i < queries.size(); ++i)
+		{
+			System.out.println("Query: " + queries.get(i).text);
+			int result = 0;
+			for (Pair<Integer,Double> temp : results.get(i).get())
+				System.out.println(++result+") " + temp.first + " -> " + temp.second);
+		}
+		System.out.printf("Ran %d queries in %.3f s on %d threads ( %.1f queries/s )%n",queries.size(),seconds,threads,queries.size() / seconds);
+		System.out.println(cache);
+
+		// the searches still count for the current events ranking
+		writeCurrentSearch();
+	}
+
+	/*
+	* Runs the query and returns one page of results: k results starting at rank offset ( 0 is the best result )
+	* The DAAT routines only keep the best offset + k documents in the heap, so a page costs O(matches * log(offset + k))
+	*/
+	ArrayList<Pair<Integer,Double>> search(String text, int k, int offset) throws Exception
+	{
+		long start = System.nanoTime();
+		// the cache key, and what is searched: the same query written another way is the same search
+		final String query = canonicalQuery(text);
+		final int n = offset + k;
+		// an identical search is answered from the cache if its results can not have changed since
+		CachedResult cached = cache.get(query,new Predicate<CachedResult>(){
+			public boolean test(CachedResult result){ return result.isValid(query,n); }
+		});
+		if (cached != null)
+		{
+			// the search still counts for the current events ranking, the same as when it runs
+			if (cached.counted)
+				rankCurrent(query);
+			ArrayList<Pair<Integer,Double>> page = cached.page(offset,k);
+			cachedTimes.since(start);
+			return page;
+		}
+
+		// every click changes documentClickFreq, a click while the search runs may change its scores so it is not cached
+		int clickFreq = documentClickFreq;
+		CachedResult result = new CachedResult(n,clickFreq,userBasedRankTable.containsKey(query));
+		TopK heap = runSearch(query,n,result);
+		heapSizes.record(heap.size());
+		result.results = heap.page(0,n);
+		if (result.cacheable && documentClickFreq == clickFreq)
+			cache.put(query,result);
+
+		// the time goes to the way the search was ranked, -c and the current events are not cacheable
+		if (result.timeSearch)
+			timeTimes.since(start);
+		else if (!result.cacheable)
+			currentTimes.since(start);
+		else
+			plainTimes.since(start);
+		return result.page(offset,k);
+	}
+
+	/*
+	* Returns the query the way it is searched, cached and clicked: the words single spaced in their order, then the
+	* options in a fixed order ( -or, -c, -t, -at, -from, -to ) with their dates as MM/dd/yy
+	* So "-or world  trade" and "world trade -or" are the same query. An option without its date is left as a word
+	*/
+	static String canonicalQuery(String query)
+	{
+		String [] values = query.trim().split(" +");
+		StringBuilder words = new StringBuilder();
+		boolean or = false;
+		boolean current = false;
+		String [] dateOptions = { "-t", "-at", "-from", "-to" };
+		String [] dates = new String[dateOptions.length];
+		DateFormat formatter = new SimpleDateFormat("MM/dd/yy");
+		for (int i = 0; i < values.length; ++i)
+		{
+			int option = Arrays.asList(dateOptions).indexOf(values[i]);
+			if (values[i].equals("-or"))
+				or = true;
+			else if (values[i].equals("-c"))
+				current = true;
+			else if (option != -1 && i + 1 < values.length)
+			{
+				dates[option] = values[++i];
+				try{
+					dates[option] = formatter.format(formatter.parse(dates[option]));
+				}
+				catch(java.text.ParseException e)
+				{
+					// the search reports it
+				}
+			}
+			else if (!values[i].isEmpty())
+				words.append(words.length() > 0 ? " " : "").append(values[i]);
+		}
+		if (or)
+			words.append(" -or");
+		if (current)
+			words.append(" -c");
+		for (int i = 0; i < dateOptions.length; ++i)
+		{
+			if (dates[i] != null)
+				words.append(' ').append(dateOptions[i]).append(' ').append(dates[i]);
+		}
+		return words.toString().trim();
+	}
+
+	/*
+	* Returns the date that follows the option at values[i], written as MM/dd/yy
+	* A missing or bad date is a bad query, the interactive search prints it and the server answers 400
+	*/
+	private static Date optionDate(String [] values, int i)
+	{
+		if (i + 1 >= values.length)
+			throw new IllegalArgumentException(values[i] + " needs a date ( MM/dd/yy )");
+		try{
+			return new SimpleDateFormat("MM/dd/yy").parse(values[i + 1]);
+		}
+		catch(java.text.ParseException e)
+		{
+			throw new IllegalArgumentException("Bad date for " + values[i] + ": " + values[i + 1] + " ( MM/dd/yy )");
+		}
+	}
+
+	// returns the cache stats, printed by the batch and the interactive search and returned by the server
+	ResultCache<CachedResult> getCache(){ return cache; }
+
+	// the click log, null if it could not be opened. The server returns its counts
+	ClickLog getClickLog(){ return clickLog; }
+
+	/*
+	* Runs the query and returns the heap with its best n documents. Tells the cache how the search was ranked in result
+	*/
+	private TopK runSearch(String query, int n, CachedResult result) throws Exception
+	{
+		// list that will contain all the terms, their inverted indexes are looked up by runTerms
+		ArrayList<String> list = new ArrayList<String>();
+		boolean isResult = true;
+		boolean specialSearch = false; // if its a current search or time search4
+		boolean orSearch = false; // ranked OR instead of AND, terms that are not in the index are skipped
+		Date date = null; // used for user entered date
+		//int year = 0; // this is the year the user enters in
+		long from = Long.MIN_VALUE; // the -from and -to dates, only documents in between are returned
+		long to = Long.MAX_VALUE;
+
+		TopK heap = new TopK(n); // used to keep the top K documents of this search
+
+		// split the query into separate words
+		String [] values = query.split(" ");
+
+		// a time point search only looks up the intervals that have the revision, the posting lists are not built
+		if (Arrays.asList(values).contains("-at"))
+		{
+			runAtTime(values,query,heap);
+			result.timeSearch = true;
+			return heap;
+		}
+
+		// the words in quotes are phrases. The quotes are taken off, and the words are searched like the others
+		int [] phraseOf = parsePhrases(values);
+		int [] termOf = new int[values.length]; // where each word is in list, -1 if it is not
+		Arrays.fill(termOf,-1);
+
+		if (Arrays.asList(values).contains("-or"))
+			orSearch = true;
+
+		// if it is a current search or a time specified search, set it to true
+		// ( the words are checked, the query string contains "-t" when it has "-to" )
+		if (Arrays.asList(values).contains("-c") || Arrays.asList(values).contains("-t"))
+			specialSearch = true;
+
+		// now for each word, we will put the invertedIndex in the list and run nextGEQ on them
+		for (int i = 0; i < values.length ; ++i)
+		{
+			if (values[i].equals("-t"))
+			{
+				//the next value is the year
+				date = optionDate(values,i);
+				//year = Integer.parseInt(values[i+1].trim());
+
+				++i;
+			}
+			// the date range, both days are included
+			else if (values[i].equals("-from"))
+				from = optionDate(values,i++).getTime();
+			else if (values[i].equals("-to"))
+				to = optionDate(values,i++).getTime() + MILLIS_PER_DAY - 1;
+			else if (values[i].equals("-or"))
+				continue;
+			// a quote on its own
+			else if (values[i].isEmpty() && phraseOf[i] != -1)
+				continue;
+			// in an OR search a missing term just does not add anything to the score
+			else if (orSearch && !hasTerm(values[i]))
+				continue;
+			// find the invertedIndex for this string and add it to the list
+			else if (!hasTerm(values[i]))
+			{
+
+				isResult = false;
+				break;
+			}
+			
+			// only add it to list, if its not a parameter
+			else if (!values[i].equals("-c"))
+			{
+				termOf[i] = list.size();
+				list.add(values[i]);
+			}			
+		}
+		// the range is checked by the cursors, so postings and blocks outside of it are skipped while the lists are walked
+		DateRange range = null;
+		if (from != Long.MIN_VALUE || to != Long.MAX_VALUE)
+			range = new DateRange(from,to);
+
+		// the documents that have all the words are checked for the phrases, only then are the positions read
+		ArrayList<Phrase> phrases = phrases(phraseOf,termOf);
+		if (phrases != null && orSearch)
+		{
+			phrasesAsWords.increment();
+			phrases = null;
+		}
+		else if (phrases != null && !hasPositions())
+		{
+			// only told once, the later ones are counted
+			if (!phrasesWarned)
+			{
+				phrasesWarned = true;
+				System.out.println("Phrases need " + Positions.positionsFileName + " ( IndexBuilder -positions ) and -binary or -lazy, searching them as words");
+			}
+			phrasesAsWords.increment();
+			phrases = null;
+		}
+
+		// check if its a special search
+		// 		if it is, send it to the right search time ( either time or current)
+		if (specialSearch && list.size() > 0)
+		{
+			if (date!=null)
+			{
+				runTerms(list,TIME_SEARCH,date,query,range,phrases,heap);
+				result.timeSearch = true;
+			}
+			else
+			{
+				runTerms(list,CURRENT_SEARCH,date,query,range,phrases,heap);
+				result.cacheable = false; // ranked by the distance to the current time
+			}
+			// runDAATCurrent(list);
+		}
+		else if (checkCurrent(query)) // if this is a current events search, then return true
+		{
+			runTerms(list,CURRENT_SEARCH,date,query,range,phrases,heap);
+			result.cacheable = false;
+		}
+		// now we have all the lists ready. We will find the intersections using DAAT traversal
+		else if (list.size()>0 && isResult)
+		{
+			//System.out.println("Not a special search");
+			rankCurrent(query); // rank the current event documents
+			result.counted = true;
+			runTerms(list,orSearch ? OR_SEARCH : AND_SEARCH,date,query,range,phrases,heap);
+		}
+
+		return heap;
+	}
+
+	/*
+	* Runs the search routine of the mode on the posting lists of the terms
+	* With shards, every shard runs it on its own lists and into its own heap, the first on this thread and the others on
+	* shardPool, then the best documents of the shards are merged into heap. The shards share the documents and the
+	* collection stats ( see readShards ), so a document gets the score it gets in one index and the best n of the shards
+	* are the best n of the collection
+	*/
+	private void runTerms(final ArrayList<String> terms, final int mode, final Date date, final String query, final DateRange range, final ArrayList<Phrase> phrases, TopK heap) throws Exception
+	{
+		if (shards == null)
+		{
+			ArrayList<InvertedIndex> lists = new ArrayList<InvertedIndex>();
+			for (String term : terms)
+				lists.add(getInvertedIndex(term));
+			runLists(lists,mode,date,query,range,phrases,heap);
+			return;
+		}
+
+		// the other shards go to the pool and the first one is searched here meanwhile, so a search never only waits
+		final int n = heap.getCapacity();
+		ArrayList<Future<ArrayList<Pair<Integer,Double>>>> results = new ArrayList<Future<ArrayList<Pair<Integer,Double>>>>();
+		for (int s = 1; s < shards.size(); ++s)
+		{
+			final QueryProcessor shard = shards.get(s);
+			results.add(shardPool.submit(new Callable<ArrayList<Pair<Integer,Double>>>(){
+				public ArrayList<Pair<Integer,Double>> call() throws Exception
+				{
+					return shard.runShard(terms,mode,date,query,range,phrases,n);
+				}
+			}));
+		}
+		ArrayList<Pair<Integer,Double>> first;
+		try{
+			first = shards.get(0).runShard(terms,mode,date,query,range,phrases,n);
+		}
+		catch(Exception e)
+		{
+			for (Future<ArrayList<Pair<Integer,Double>>> result : results)
+				result.cancel(true);
+			throw e;
+		}
+
+		// the date searches rank by the distance, lower is better
+		heap.setGreater(mode == AND_SEARCH || mode == OR_SEARCH);
+		for (Pair<Integer,Double> document : first)
+			heap.add(document.first,document.second);
+		try{
+			for (Future<ArrayList<Pair<Integer,Double>>> result : results)
+			{
+				for (Pair<Integer,Double> document : result.get())
+					heap.add(document.first,document.second);
+			}
+		}
+		catch(ExecutionException e)
+		{
+			throw new IOException("Failed to search a shard",e.getCause());
+		}
+	}
+
+	// runs the search routine of the mode on the lists of this shard, returns its best n documents
+	private ArrayList<Pair<Integer,Double>> runShard(ArrayList<String> terms, int mode, Date date, String query, DateRange range, ArrayList<Phrase> phrases, int n) throws IOException
+	{
+		ArrayList<InvertedIndex> lists = new ArrayList<InvertedIndex>();
+		for (String term : terms)
+		{
+			InvertedIndex list = getInvertedIndex(term);
+			if (list != null)
+				lists.add(list);
+			// none of the documents of this shard has all the terms
+			else if (mode != OR_SEARCH)
+				return new ArrayList<Pair<Integer,Double>>();
+		}
+		// the phrases keep the positions they read, so each shard has its own
+		ArrayList<Phrase> shardPhrases = null;
+		if (phrases != null)
+		{
+			shardPhrases = new ArrayList<Phrase>();
+			for (Phrase phrase : phrases)
+				shardPhrases.add(new Phrase(phrase.terms));
+		}
+		TopK shardHeap = new TopK(n);
+		runLists(lists,mode,date,query,range,shardPhrases,shardHeap);
+		return shardHeap.page(0,n);
+	}
+
+	// runs the search routine of the mode on the lists
+	private void runLists(ArrayList<InvertedIndex> lists, int mode, Date date, String query, DateRange range, ArrayList<Phrase> phrases, TopK heap)
+	{
+		if (mode == TIME_SEARCH)
+			runDAATTime(lists,date,range,phrases,heap);
+		else if (mode == CURRENT_SEARCH)
+			runDAATCurrent(lists,range,phrases,heap);
+		else if (mode == OR_SEARCH)
+			runWAND(lists,query,range,heap);
+		else
+			runDAAT(lists,query,range,phrases,heap);
+	}
+
+	// true if the term is in the index, with shards if it is in any of them
+	private boolean hasTerm(String term) throws IOException
+	{
+		if (shards == null)
+			return getInvertedIndex(term) != null;
+		for (QueryProcessor shard : shards)
+		{
+			if (shard.hasTerm(term))
+				return true;
+		}
+		return false;
+	}
+
+	// true if the phrases can be checked, with shards every shard needs its positions
+	private boolean hasPositions()
+	{
+		if (shards == null)
+			return getPositions() != null;
+		for (QueryProcessor shard : shards)
+		{
+			if (shard.getPositions() == null)
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	* Takes the quotes off the words of the query. Returns the number of the phrase each word is in, -1 for the words that are not in quotes
+	*/
+	private int [] parsePhrases(String [] values)
+	{
+		int [] phraseOf = new int[values.length];
+		int phrase = -1; // the phrase we are in
+		int count = 0;
+		for (int i = 0; i < values.length; ++i)
+		{
+			String word = values[i];
+			if (phrase == -1 && word.startsWith("\""))
+			{
+				phrase = count++;
+				word = word.substring(1);
+			}
+			phraseOf[i] = phrase;
+			if (phrase != -1 && word.endsWith("\""))
+			{
+				word = word.substring(0,word.length() - 1);
+				phrase = -1;
+			}
+			values[i] = word;
+		}
+		return phraseOf;
+	}
+
+	// the phrases of more than one word, with the positions of their words in the list of the search. null if there are none
+	private ArrayList<Phrase> phrases(int [] phraseOf, int [] termOf)
+	{
+		ArrayList<Phrase> phrases = null;
+		for (int i = 0; i < phraseOf.length; ++i)
+		{
+			// the words of a phrase are next to each other, start at the first one
+			if (phraseOf[i] == -1 || (i > 0 && phraseOf[i - 1] == phraseOf[i]))
+				continue;
+			ArrayList<Integer> words = new ArrayList<Integer>();
+			for (int j = i; j < phraseOf.length && phraseOf[j] == phraseOf[i]; ++j)
+			{
+				if (termOf[j] != -1)
+					words.add(termOf[j]);
+			}
+			if (words.size() > 1)
+			{
+				if (phrases == null)
+					phrases = new ArrayList<Phrase>();
+				int [] terms = new int[words.size()];
+				for (int j = 0; j < terms.length; ++j)
+					terms[j] = words.get(j);
+				phrases.add(new Phrase(terms));
+			}
+		}
+		return phrases;
+	}
+
+	// true if the document the cursors are on has the words of every phrase one after the other
+	// the cursors are in the order of the terms of the search
+	private boolean matchesPhrases(ArrayList<Phrase> phrases, ArrayList<InvertedIndex.Cursor> cursors)
+	{
+		for (Phrase phrase : phrases)
+		{
+			if (!phrase.matches(cursors))
+				return false;
+		}
+		return true;
+	}
+
+/*----------------------------------------------------------------------------------------------------------
+	-- Basically check if this was a current event search
+-----------------------------------------------------------------------------------------------------------*/
+	private boolean checkCurrent(String query)
+	{
+		// a query is a current events search for DAYSRANGE days after it was searched NUMOFCLICKS times in DAYSTHRESHOLD days
+		if (trending.isTrending(query,System.currentTimeMillis()))
+			return true; // its a current events search
+
+		// only runSearch calls this, so every search is counted once ( the cache checks the sketches itself )
+		notCurrent.increment();
+		return false;
+
+	}
+/*----------------------------------------------------------------------------------------------------------
+	-- Basically check if this query was searched within the last week
+-----------------------------------------------------------------------------------------------------------*/
+	private void rankCurrent(String query)
+	{
+		// count the search in the sketch of today, the sketches are safe to update while other queries run
+		trending.add(query,System.currentTimeMillis());
+	}
+
+/*-----------------------------------------------------------------------------------------------------------
+	Rank documents based on user score ( note used for future ranking)
+
+	we have the file read in from the document already, so simply update the file and write it back to the disk 
+	(Note we are simply increasing the times a user clicked on this result for this particular query )
+
+*----------------------------------------------------------`---------------------------------------------------*/
+	private void rankDocument(int userChoice,String query, ArrayList<Pair<Integer,Double>> documentReturnList)
+	{
+		try{
+			clickDocument(query,documentReturnList.get(userChoice-1).first);
+		}
+		catch(IOException e)
+		{
+			System.out.println("ERROR the click is counted but could not be logged, it is lost if the program stops before the next compaction " + e);
+		}
+	} // end of rankDocument function
+
+	/*
+	* Counts one click on the document for this query. Used by rankDocument and by the click endpoint of the server
+	* Throws if the click could not be written to the click log, it is still counted
+	*/
+	void clickDocument(String query, int docId) throws IOException
+	{
+		long seq = 0;
+		synchronized(this)
+		{
+			countClick(query,docId);
+			// the click boosts of the query changed
+			cache.invalidate(query);
+			if (clickLog != null)
+				seq = clickLog.add(query,docId);
+		}
+		// wait for the click to be on disk outside of the lock, so the clicks of other requests can go in the same sync
+		if (clickLog != null)
+			clickLog.await(seq);
+	}
+
+	// adds one click to the click table, for a new click and for the clicks replayed from the log
+	private void countClick(String query, int docId)
+	{
+		//check if this exists in the hashMap, if it does we'll simply increment the count
+		UserRank temp = userBasedRankTable.get(query);
+		documentClickFreq++; // we will always incremeent freq
+		if (temp == null)
+		{
+			temp = new UserRank(); // make a new entry for this query with the document selected and set freq to 1
+			temp.addRank(docId,1);
+			userBasedRankTable.put(query,temp);
+			// incremeent document click Count + freq
+			documentClickCount++;
+		}
+		else
+			temp.addRank(docId);
+	}
+
+	/*
+	* Time point search on the versioned index: query words -at MM/dd/yy
+	* Finds the revision that was current at the end of that day ( the last one saved on or before it ) and returns it
+	* if it has all the terms. Each term is one binary search for the interval that has the revision, so no other
+	* revision is touched. The score is the same bm25 and click score the regular search gives that revision
+	*/
+	private void runAtTime(String [] values, String query, TopK heap) throws Exception
+	{
+		heap.setGreater(true);
+		if (!versioned || versionedIndex == null)
+		{
+			System.out.println("-at needs the versioned index, run with -versioned");
+			return;
+		}
+
+		long time = Long.MIN_VALUE;
+		ArrayList<VersionedIndex.IntervalList> terms = new ArrayList<VersionedIndex.IntervalList>();
+		for (int i = 0; i < values.length; ++i)
+		{
+			if (values[i].equals("-at"))
+				time = optionDate(values,i++).getTime() + MILLIS_PER_DAY - 1;
+			else if (versionedIndex.get(values[i]) == null)
+				return; // the term is in no revision
+			else
+				terms.add(versionedIndex.get(values[i]));
+		}
+		if (terms.isEmpty())
+			return;
+
+		// the last revision that is not after the time
+		int position = Arrays.binarySearch(revisionTimes,time);
+		if (position < 0)
+			position = -position - 2;
+		else
+			while (position + 1 < revisionTimes.length && revisionTimes[position + 1] == time)
+				position++;
+		if (position < 0)
+			return; // the article did not exist yet
+		int did = revisions[position];
+
+		int N = docs.getDocumentCount();
+		double avgDocumentLength = totalDocumentLength / (double) N;
+		double documentLength = docs.getLength(did);
+		double bm25 = 0;
+		for (VersionedIndex.IntervalList intervals : terms)
+		{
+			int interval = intervals.find(did);
+			if (interval == -1)
+				return; // the term was not in the article at that time
+			bm25 += termScore(intervals.freqs[interval],documentLength,N,avgDocumentLength);
+		}
+
+		// add the user rank score, the same as runDAAT
+		UserRank tmp = userBasedRankTable.get(query);
+		if (tmp != null)
+		{
+			int click = tmp.getFreq(did);
+			if (click > 0)
+				bm25 += clickScore(click);
+		}
+		heap.add(did,bm25);
+	}
+
+	/*
+	* @ Param - this is the inverted list for each term. We will use these lists to find the intersections
+	* This method will find the document based on the year closest to the ones passed in
+	*/
+	private void runDAATTime(ArrayList<InvertedIndex> terms, Date date, DateRange range, ArrayList<Phrase> phrases, TopK heap)
+	{
+		runDAATNearest(terms,date.getTime(),range,phrases,heap);
+	}
+
+	/*
+	* @ Param - this is the inverted list for each term. We will use these lists to find the intersections
+	* This method will find the document based on the most relevant year
+	*/
+	private void runDAATCurrent(ArrayList<InvertedIndex> terms, DateRange range, ArrayList<Phrase> phrases, TopK heap)
+	{
+		runDAATNearest(terms,System.currentTimeMillis(),range,phrases,heap); // current time
+	}
+
+	/*
+	* @ Param - this is the inverted list for each term. We will use these lists to find the intersections
+	* Finds the documents that have all the terms and whose dates are closest to target, the score is the distance in days
+	* The shortest list is walked one block at a time, closest block first. The distance of a block is how far the range
+	* of its dates ( min and max date of its postings ) is from the target, none of its documents can be closer than that.
+	* Once the heap is full and the next block is further away than every document in the heap, the search stops
+	* With phrases, a document that has all the terms is only added if it has the phrases too
+	*/
+	private void runDAATNearest(ArrayList<InvertedIndex> terms, long target, DateRange range, ArrayList<Phrase> phrases, TopK heap)
+	{
+		if (terms.isEmpty())
+			return;
+		ArrayList<InvertedIndex.Cursor> list = cursors(terms,range);
+		// the phrases know their words by the order of the terms
+		ArrayList<InvertedIndex.Cursor> byTerm = phrases == null ? null : new ArrayList<InvertedIndex.Cursor>(list);
 		// sort the list first
-		Collections.sort(list,new Comparator<InvertedIndex>(){
+		Collections.sort(list,new Comparator<InvertedIndex.Cursor>(){
 
-			public int compare(InvertedIndex l1, InvertedIndex l2)
+			public int compare(InvertedIndex.Cursor l1, InvertedIndex.Cursor l2)
 			{
 				return l1.getListSize() - l2.getListSize();
 			}
 
 		});
 
-		comp.greater = false; // we want min heap in this case
-		// for (InvertedIndex i : list)
-		// 	System.out.println(i.getListSize());
-		int did = 0;
-		int d=-1;
+		// we want to sort in increasing order since this is the difference of the dates
+		heap.setGreater(false);
 
-		// run until we have exaughsted all the documents of the shorter list
-		while (did != -1)
+		InvertedIndex shortest = list.get(0).getList();
+		long [][] blockDates = shortest.getBlockDates();
+		int blocks = blockDates[0].length;
+
+		// the closest any document of each block can be to the target, in days
+		final double [] closest = new double[blocks];
+		Integer [] order = new Integer[blocks];
+		for (int b = 0; b < blocks; ++b)
 		{
-			// get the document from the shortest list
-			did = list.get(0).nextGEQ(did);
+			long gap = Math.max(0,Math.max(blockDates[0][b] - target,target - blockDates[1][b]));
+			closest[b] = gap / (double) MILLIS_PER_DAY;
+			order[b] = b;
+		}
+		Arrays.sort(order,new Comparator<Integer>(){
+			public int compare(Integer b1, Integer b2)
+			{
+				return Double.compare(closest[b1],closest[b2]);
+			}
+		});
 
-			// check if other documents have the same document ID
-			for (int i = 0; ( i<list.size() && (d = list.get(i).nextGEQ(did)) == did ); ++i );
+		for (int b : order)
+		{
+			// every document that is left is further away than the ones in the heap
+			// ( a document at the same distance can still get in if it has a lower docID, so equal blocks are still visited )
+			if (closest[b] > heap.threshold())
+				break;
+			// none of the documents of the block are in the date range
+			if (range != null && !range.overlaps(blockDates[0][b],blockDates[1][b]))
+				continue;
 
-			// this is not a intersection, so assign the new did and start over
-			if (d>did && did != -1) 
-				did = d;
-			// this is a intersection
-			// compute the BM25 score
-			else if (did != -1)
-			{
-				//double year = (double)list.get(0).getYear(did); // this is the same document ID, so get the year based on the current value
-				Date curr = new Date(); // current time
-				Date date = list.get(0).getDate(did); // get the date for this document
-				double diff = (double) Math.abs((curr.getTime() - date.getTime()) / (double) MILLIS_PER_DAY );
-				heap.add(new Pair<Integer,Double>(did,diff));
-				
-				did++;// incremenet the DID
+			int end = Math.min(shortest.getListSize(),(b + 1) * BLOCK_SIZE);
+			for (int position = b * BLOCK_SIZE; position < end; ++position)
+			{
+				int did = list.get(0).moveTo(position);
+				long curr = list.get(0).getTime(); // every list that has this document has the same date for it
+				double diff = (double) Math.abs((curr - target) / (double) MILLIS_PER_DAY );
+				// only look for the document in the other lists if it could get into the heap
+				if (diff > heap.threshold() || (range != null && !range.contains(curr)))
+					continue;
+
+				// check if other documents have the same document ID, the cursors go back when a block starts before them
+				int i = 1;
+				while (i < list.size() && list.get(i).seek(did) == did)
+					++i;
+				// this is a intersection
+				if (i == list.size() && (phrases == null || matchesPhrases(phrases,byTerm)))
+					heap.add(did,diff);
 			}
 		}
+		countCursors(list);
 	}
+
 	/*
 	* @Param list- this is the inverted List for each term. We will use these lists to find the intersections
 	* This method will find all the documents and add them to the Min Heap, and return them.
+	* With phrases the intersections are checked for them before they are scored, the positions are only read for the
+	* documents that have all the terms
 	*/
-	private void runDAAT(ArrayList<InvertedIndex> list,String query)
+	private void runDAAT(ArrayList<InvertedIndex> terms,String query, DateRange range, ArrayList<Phrase> phrases, TopK heap)
 	{
+		ArrayList<InvertedIndex.Cursor> list = cursors(terms,range);
+		// the phrases know their words by the order of the terms, and the scores are added in that order so they do not
+		// depend on the sizes of the lists ( a shard has other sizes )
+		ArrayList<InvertedIndex.Cursor> byTerm = new ArrayList<InvertedIndex.Cursor>(list);
+
 		// sort the list first
-		Collections.sort(list,new Comparator<InvertedIndex>(){
-			public int compare(InvertedIndex l1, InvertedIndex l2)
+		Collections.sort(list,new Comparator<InvertedIndex.Cursor>(){
+			public int compare(InvertedIndex.Cursor l1, InvertedIndex.Cursor l2)
 			{
 				return l1.getListSize() - l2.getListSize();
 			}
 		});
 
-		comp.greater = true;
+		heap.setGreater(true);
 		// for (InvertedIndex i : list)
 		// 	System.out.println(i.getListSize());
 		int did = 0;
 		int d=-1;
 
+		int N = docs.getDocumentCount(); // total number of documents in the collection
+		double avgDocumentLength = totalDocumentLength / (double) N;
+		// with impacts the bm25 score is the sum of the precomputed scores, and the document length is not needed
+		boolean quantized = true;
+		for (InvertedIndex.Cursor l : list)
+			quantized &= l.getList().hasImpacts();
+
 		// run until we have exaughsted all the documents of the shorter list
 		while (did != -1)
 		{
@@ -599,42 +1681,39 @@ public class QueryProcessor{
 			// check if other documents have the same document ID
 			for (int i = 0; ( i<list.size() && (d = list.get(i).nextGEQ(did)) == did ); ++i );
 
+			// one of the lists has no documents left, so there are no more intersections
+			if (d == -1)
+				did = -1;
 			// this is not a intersection, so assign the new did and start over
-			if (d>did && did != -1) 
+			else if (d>did) 
 				did = d;
+			// it has all the terms, but not the phrases
+			else if (phrases != null && !matchesPhrases(phrases,byTerm))
+				did++;
 			// this is a intersection
 			// compute the BM25 score
-			else if (did != -1)
+			else
 			{
 				// compute the bm25 score for this document and push it onto the heap
-
-				int N = urlTable.size(); // total number of documents in the collection
-				// parameters for the bm25 function
-				double k =  1.2;
-				double b = .75;
-
 				double bm25 = 0;
 
-				// loop through each occurance of the list since the bm25 score will be the sum of all of them
-				for (int i = 0; i < list.size(); ++i)
+				if (quantized)
 				{
-					// this will return the 
-					// get all the variables for the formula
-					int nqi = list.get(i).getListSize(); // total number of documents that contain this term
-					int ft = list.get(i).getFreq(did); // get the frequency for this term
-					double avgDocumentLength = totalDocumentLength / (double) N;
-					double documentLength =  urlTable.get(did).length;
-
-					//System.out.println((N-ft+.5)/(ft+.5));
-
-					// compute and sum the total bm25 score
-					double secondTerm = k*((1-b) +b* (documentLength/avgDocumentLength));
-					
-					double idf = (double) (Math.log(Math.abs((N-ft+.5))/(ft+.5)) / Math.log(2)) * ((k+1)*ft)/(secondTerm + ft); // take the log of this value in base 2
-					//System.out.println( Math.log((N-ft+.5)/(ft+.5))+ " * " + ((k+1)*ft)/(secondTerm + ft) );
-					bm25 += idf;
-						// double K = k1 * ((1-b) + b *(docLength/dAvg));
-						// bm25Score += (Math.log((N-ft+.5)/(ft+.5)) / Math.log(2)) * ((k1+1)*ft)/(K + ft);
+					long sum = 0;
+					for (int i = 0; i < list.size(); ++i)
+						sum += list.get(i).getImpact();
+					bm25 = impacts.toScore(sum,list.size());
+				}
+				else
+				{
+					double documentLength =  docs.getLength(did);
+
+					// loop through each occurance of the list since the bm25 score will be the sum of all of them
+					for (int i = 0; i < byTerm.size(); ++i)
+					{
+						int ft = byTerm.get(i).getFreq(); // get the frequency for this term, the list is already on this document
+						bm25 += termScore(ft,documentLength,N,avgDocumentLength);
+					}
 				}
 
 				// add the user rank score
@@ -645,134 +1724,596 @@ public class QueryProcessor{
 					int click = tmp.getFreq(did); // get click
 					// only add score if there is a click
 					if (click>0)
-					{
-						//double avgClicks = (double)click/(double)documentClickFreq; // #clicks for this doc/total number of clicks
-						double secondTerm = k*((1-b) +b* (double)click/(double)documentClickFreq);
-						// double firstTerm = (double)Math.log((documentClickFreq-click+.5)/(click+.5))/Math.log(2);	
-						// System.out.println("====================== did: " + did);
-						// System.out.println("Document clicks: " + click + " Total Document Clicks: " + documentClickFreq+  " Avg clicks: "+ avgClicks);
-						// System.out.println("Document count: "+documentClickCount);
-						// System.out.println("Second Term: " + secondTerm + " First Term: " + firstTerm + " first*second = " + secondTerm*firstTerm);
-
-						bm25 += secondTerm;
-					}
+						bm25 += clickScore(click);
 				}
 
-				heap.add(new Pair<Integer,Double>(did,bm25));
+				heap.add(did,bm25);
 				did++;// incremenet the DID
 			}
 
 		}
+		countCursors(list);
+	}
+
+	// returns a new cursor on each list, in the same order. With a range the cursors skip the postings outside of it
+	private ArrayList<InvertedIndex.Cursor> cursors(Collection<InvertedIndex> lists, DateRange range)
+	{
+		ArrayList<InvertedIndex.Cursor> list = new ArrayList<InvertedIndex.Cursor>();
+		for (InvertedIndex l : lists)
+		{
+			InvertedIndex.Cursor cursor = l.cursor();
+			if (range != null)
+				cursor.setRange(range);
+			list.add(cursor);
+		}
+		return list;
+	}
+
+	// adds the nextGEQ calls of the cursors and how far they moved to the metrics, once per search so the cursors
+	// only count in their own fields while the lists are walked
+	private void countCursors(ArrayList<InvertedIndex.Cursor> list)
+	{
+		long calls = 0;
+		long scanned = 0;
+		for (InvertedIndex.Cursor cursor : list)
+		{
+			calls += cursor.calls;
+			scanned += cursor.scanned;
+		}
+		nextGEQCalls.add(calls);
+		postingsScanned.add(scanned);
+	}
+
+	/*
+	* The bm25 score of one term in one document, ft is the frequency of the term in the document
+	*/
+	private double termScore(int ft, double documentLength, int N, double avgDocumentLength)
+	{
+		// the formula is shared with the impacts IndexBuilder precomputes
+		return Impacts.score(ft,documentLength,N,avgDocumentLength);
+	}
+
+	/*
+	* The score a document gets for being clicked click times for this query
+	*/
+	private double clickScore(int click)
+	{
+		double k =  1.2;
+		double b = .75;
+		return k*((1-b) +b* (double)click/(double)documentClickFreq);
+	}
+
+	/*
+	* @Param list- this is the inverted List for each term
+	* Ranked OR search. A document only needs one of the terms, the score is the sum of the bm25 scores of the terms it has
+	* This uses WAND with block max scores: every list knows the max score of any of its postings and of each block of BLOCK_SIZE postings.
+	* The cursors are kept sorted by document. The pivot is the first cursor where the max scores of the cursors up to it could beat the
+	* worst document in the heap, every document before the pivot document can be skipped. At the pivot document the block max scores are
+	* checked, and if they cant beat the heap either the lists skip to the end of the shortest block
+	*/
+	private void runWAND(ArrayList<InvertedIndex> terms, String query, DateRange range, TopK heap)
+	{
+		heap.setGreater(true);
+		int N = docs.getDocumentCount(); // total number of documents in the collection
+		double avgDocumentLength = totalDocumentLength / (double) N;
+
+		// one cursor per term, a term given twice is only counted once
+		ArrayList<InvertedIndex.Cursor> list = cursors(new LinkedHashSet<InvertedIndex>(terms),range);
+		int n = list.size();
+		int [] cur = new int[n]; // the document each cursor is on, -1 when the list is done
+		Integer [] order = new Integer[n]; // the cursors sorted by document
+		for (int i = 0; i < n; ++i)
+		{
+			list.get(i).getList().computeMaxScores(N,avgDocumentLength);
+			cur[i] = list.get(i).nextGEQ(0);
+			order[i] = i;
+		}
+
+		// the most any document can get from the clicks on this query
+		UserRank clicks = userBasedRankTable.get(query);
+		double clickBound = 0;
+		if (clicks != null && clicks.getMaxFreq() > 0)
+			clickBound = clickScore(clicks.getMaxFreq());
+
+		final int [] doc = cur;
+		Comparator<Integer> byDocument = new Comparator<Integer>(){
+			public int compare(Integer i1, Integer i2)
+			{
+				// finished lists go to the end
+				long d1 = doc[i1] == -1 ? Long.MAX_VALUE : doc[i1];
+				long d2 = doc[i2] == -1 ? Long.MAX_VALUE : doc[i2];
+				return Long.compare(d1,d2);
+			}
+		};
+
+		while (true)
+		{
+			Arrays.sort(order,byDocument);
+			double threshold = heap.threshold();
+
+			// find the pivot, negative scores are left out of the bounds since a document does not have to have that term
+			double bound = clickBound;
+			int pivot = -1;
+			for (int i = 0; i < n && cur[order[i]] != -1; ++i)
+			{
+				bound += Math.max(0,list.get(order[i]).getMaxScore());
+				if (bound + EPSILON > threshold)
+				{
+					pivot = i;
+					break;
+				}
+			}
+			// no document left can make it into the heap
+			if (pivot == -1)
+				break;
+
+			int pivotDoc = cur[order[pivot]];
+			// the lists after the pivot that are on the same document have it too
+			while (pivot + 1 < n && cur[order[pivot + 1]] == pivotDoc)
+				pivot++;
+
+			if (cur[order[0]] != pivotDoc)
+			{
+				// move the lists before the pivot up to the pivot document
+				for (int i = 0; i < pivot && cur[order[i]] < pivotDoc; ++i)
+					cur[order[i]] = list.get(order[i]).nextGEQ(pivotDoc);
+				continue;
+			}
+
+			// every list up to the pivot is on the pivot document. Check the block max scores first
+			// until next, only these lists can have documents and they stay in their current blocks
+			double blockBound = clickBound;
+			int next = Integer.MAX_VALUE;
+			for (int i = 0; i <= pivot; ++i)
+			{
+				InvertedIndex.Cursor l = list.get(order[i]);
+				blockBound += Math.max(0,l.getBlockMaxScore());
+				next = Math.min(next,l.getBlockEnd() + 1);
+			}
+			if (pivot + 1 < n && cur[order[pivot + 1]] != -1)
+				next = Math.min(next,cur[order[pivot + 1]]);
+
+			if (blockBound + EPSILON <= threshold)
+			{
+				for (int i = 0; i <= pivot; ++i)
+					cur[order[i]] = list.get(order[i]).nextGEQ(next);
+				continue;
+			}
+
+			// compute the bm25 score for this document and push it onto the heap, adding the scores in the order of the terms
+			double bm25 = 0;
+			for (int i = 0; i < n; ++i)
+			{
+				if (cur[i] == pivotDoc)
+					bm25 += list.get(i).getScore(N,avgDocumentLength);
+			}
+			if (clicks != null)
+			{
+				int click = clicks.getFreq(pivotDoc);
+				if (click > 0)
+					bm25 += clickScore(click);
+			}
+			heap.add(pivotDoc,bm25);
+
+			for (int i = 0; i <= pivot; ++i)
+				cur[order[i]] = list.get(order[i]).nextGEQ(pivotDoc + 1);
+		}
+		countCursors(list);
 	}
 
 /*---------------------------------------------------------------------------------------------------------- Classes */
 
-	// holds the inverted index 
+	// holds the inverted index of one term
+	// the postings are kept in parallel arrays ( document IDs, freqs and dates in milliseconds ) instead of one object per posting
+	// once the index is read the list does not change, so many queries can walk it at the same time. Each query walks it
+	// with its own Cursor: nextGEQ moves the cursor over the arrays, and getFreq/getTime return the values of the posting under it
 	class InvertedIndex{
 	
-		private ArrayList<InvertedList> list;
-		private int lastId; // this is the saved state for the last Document ID
+		private int [] docIds;
+		private int [] freqs;
+		private long [] dates;
+		private int size; // number of postings in the arrays
+		private volatile int [] skips; // skip pointers, the last document ID of each block of BLOCK_SIZE postings. Built on the first nextGEQ
+		private volatile double [] blockMaxScores; // the max bm25 score in each block, built on the first OR search that uses this list
+		private double maxScore; // the max bm25 score of the list
+		private char [] quantizedScores; // the impact of each posting, null if the index has no impacts
+		private volatile long [][] blockDates; // the min ( [0] ) and max ( [1] ) date of each block, built by the first date search that uses this list
+		private int term = -1; // the number of the term in the lexicon of the binary index, where its positions are
 
 		// contructor for constructing an instance of the class
 		public InvertedIndex()
 		{
-		
-			list = new ArrayList<InvertedList>();
-			lastId = 0;
+			this(8);
 		}
 
-		public void addDocument(int doc, int freq, Date date)
+		public InvertedIndex(int capacity)
 		{
-			// create a new document and add it to the list
-			list.add(new InvertedList(doc,freq,date));
+			docIds = new int[Math.max(1,capacity)];
+			freqs = new int[docIds.length];
+			dates = new long[docIds.length];
+			size = 0;
 		}
 
-		public int getListSize(){ return list.size();}
-
-		// this method is used with DAAT
-		// returns the next document greater than or equal to docID, returns -1 otherwise
-		public int nextGEQ(int docId)
+		// only used while the index is read, before any query can see the list
+		public void addDocument(int doc, int freq, long date)
 		{
-			// if the passed in docId isnt valid, return -1
-			if (docId == -1)
-				return -1;
-
-			for (int i = lastId; i < list.size();++i)
+			// grow the arrays when they are full
+			if (size == docIds.length)
 			{
-				// if we have found a document ID atleast the value of docID, return it
-				if (list.get(i).docID >= docId)
-				{
-					// save the state
-					lastId = i;
-					return list.get(i).docID;
-				}
-					
+				docIds = Arrays.copyOf(docIds,size * 2);
+				freqs = Arrays.copyOf(freqs,size * 2);
+				dates = Arrays.copyOf(dates,size * 2);
 			}
+			docIds[size] = doc;
+			freqs[size] = freq;
+			dates[size] = date;
+			size++;
+			skips = null; // the skip pointers have to be rebuilt
+			blockMaxScores = null;
+			quantizedScores = null;
+			blockDates = null;
+		}
+
+		// sets the quantized bm25 score of every posting, in the same order as the postings
+		public void setImpacts(char [] quantizedScores){ this.quantizedScores = quantizedScores; }
+		public boolean hasImpacts(){ return quantizedScores != null; }
 
-			// we havent found a document
-			return -1;
+		// sets the number of the term in the lexicon
+		public void setTerm(int term){ this.term = term; }
+
+		public int getListSize(){ return size;}
+
+		// adds the postings of the other list to the end of this one. All of its documents must come after the documents of this list
+		public void append(InvertedIndex other)
+		{
+			for (int i = 0; i < other.size; ++i)
+				addDocument(other.docIds[i],other.freqs[i],other.dates[i]);
 		}
 
-		// this basically resets the saved value of lastId to 0
-		public void resetLastId(){lastId = 0;}
+		// returns a new cursor on the first posting of the list
+		public Cursor cursor(){ return new Cursor(); }
+
+		// returns the first index in [from,to) whose value is at least target, or to if there is none
+		// the search doubles the step from "from" until it passes target and then binary searches the last step
+		private int gallop(int [] values, int from, int to, int target)
+		{
+			int lo = from;
+			int step = 1;
+			if (lo >= to || values[lo] >= target)
+				return lo;
+			while (lo + step < to && values[lo + step] < target)
+			{
+				lo += step;
+				step <<= 1;
+			}
+			int hi = Math.min(to,lo + step);
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (values[mid] < target)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo;
+		}
 
-		// get the frequency of the given document ID
-		public int getFreq(int docId)
+		// builds the skip pointers for the list, the first query that needs them builds them and the others wait for it
+		private synchronized int [] buildSkips()
 		{
-			for (InvertedList l : list)
+			if (skips == null)
 			{
-				if (l.docID == docId)
-					return l.freq;
+				int [] tmp = new int[(size + BLOCK_SIZE - 1) / BLOCK_SIZE];
+				for (int i = 0; i < tmp.length; ++i)
+					tmp[i] = docIds[Math.min(size,(i + 1) * BLOCK_SIZE) - 1];
+				skips = tmp;
 			}
-			// else return - 1
-			return -1;
+			return skips;
 		}
 
-		// get the year of the given document ID
-		public Date getDate(int docId)
+		// computes the max bm25 score of each block and of the whole list
+		public synchronized void computeMaxScores(int N, double avgDocumentLength)
 		{
-			for (InvertedList l : list)
+			if (blockMaxScores != null)
+				return;
+			int [] skips = buildSkips();
+
+			double [] scores = new double[skips.length];
+			Arrays.fill(scores,Double.NEGATIVE_INFINITY);
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < size; ++i)
 			{
-				if (l.docID == docId)
-					return l.date;
+				double score = score(i,N,avgDocumentLength);
+				scores[i / BLOCK_SIZE] = Math.max(scores[i / BLOCK_SIZE],score);
+				max = Math.max(max,score);
 			}
-			// else return - 1
-			return null;
+			// maxScore is set before the volatile blockMaxScores, so a query that sees the block scores sees it too
+			maxScore = max;
+			blockMaxScores = scores;
 		}
 
+		// returns the min and max date of each block of BLOCK_SIZE postings. The dates are not in docId order,
+		// so these let a date search tell which blocks can have documents close to the date without looking at the postings
+		public long [][] getBlockDates()
+		{
+			long [][] bounds = blockDates;
+			if (bounds != null)
+				return bounds;
+			synchronized(this)
+			{
+				if (blockDates == null)
+				{
+					int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+					bounds = new long[2][blocks];
+					for (int b = 0; b < blocks; ++b)
+					{
+						long min = Long.MAX_VALUE;
+						long max = Long.MIN_VALUE;
+						for (int i = b * BLOCK_SIZE; i < Math.min(size,(b + 1) * BLOCK_SIZE); ++i)
+						{
+							min = Math.min(min,dates[i]);
+							max = Math.max(max,dates[i]);
+						}
+						bounds[0][b] = min;
+						bounds[1][b] = max;
+					}
+					blockDates = bounds;
+				}
+				return blockDates;
+			}
+		}
 
+		// the bm25 score of the posting at position i, from the impacts if there are any
+		double score(int i, int N, double avgDocumentLength)
+		{
+			if (quantizedScores != null)
+				return impacts.toScore(quantizedScores[i]);
+			return termScore(freqs[i],docs.getLength(docIds[i]),N,avgDocumentLength);
+		}
 
 		public String toString()
 		{
 			StringBuilder builder = new StringBuilder();
 
 			// loop through each element of the array and output it
-			for(InvertedList l : list )
-				builder.append(l.toString());
+			for (int i = 0; i < size; ++i)
+				builder.append(":" + docIds[i] + ":" + freqs[i] + ":" + new Date(dates[i]));
 
 			return builder.toString();
 		}
 
-			// classs to hold the inverted list
-		class InvertedList{
+		// the position of one query in the list
+		class Cursor{
+			private int lastId = 0; // this is the saved state for the last Document ID
+			private int [] skips = InvertedIndex.this.skips; // null until the first nextGEQ that needs them
+			private DateRange range; // when set, only the postings with a date in the range are returned
+			private long [][] blockDates; // the date range of each block, set with the range
+			private int positionsPosting = -1; // the last posting getPositions read, and where its positions begin
+			private int positionsAt;
+			private int calls = 0; // the nextGEQ calls and how far they moved the cursor, added to the metrics by countCursors
+			private long scanned = 0;
+
+			public InvertedIndex getList(){ return InvertedIndex.this; }
+			public int getListSize(){ return size; }
+
+			public void setRange(DateRange range)
+			{
+				this.range = range;
+				this.blockDates = getBlockDates();
+			}
+
+			// this method is used with DAAT
+			// returns the next document greater than or equal to docID whose date is in the range, returns -1 otherwise
+			public int nextGEQ(int docId)
+			{
+				int from = lastId;
+				int did = nextInRange(docId);
+				calls++;
+				scanned += lastId - from;
+				return did;
+			}
+
+			// a block whose dates are all outside of the range is skipped without looking at its postings
+			private int nextInRange(int docId)
+			{
+				int did = advance(docId);
+				if (range == null)
+					return did;
+
+				while (did != -1 && !range.contains(dates[lastId]))
+				{
+					int block = lastId / BLOCK_SIZE;
+					int next = lastId + 1;
+					if (!range.overlaps(blockDates[0][block],blockDates[1][block]))
+						next = (block + 1) * BLOCK_SIZE;
+					// no postings left, the cursor stays past the end
+					if (next >= size)
+					{
+						lastId = size;
+						return -1;
+					}
+					lastId = next;
+					did = docIds[lastId];
+				}
+				return did;
+			}
+
+			// returns the next document greater than or equal to docID, returns -1 otherwise
+			// the skip pointers are searched first to find the block of docID, then only that block is scanned
+			// the skip pointers are galloped forward from the saved position so the cost depends on how far we jump and not on the list size
+			private int advance(int docId)
+			{
+				// if the passed in docId isnt valid, return -1
+				if (docId == -1 || lastId >= size)
+					return -1;
+
+				// most calls in an intersection land on the saved position
+				if (docIds[lastId] >= docId)
+					return docIds[lastId];
+
+				// small jumps are cheaper to scan than to look up in the skip pointers
+				int limit = Math.min(size,lastId + 8);
+				for (int i = lastId + 1; i < limit; ++i)
+				{
+					if (docIds[i] >= docId)
+					{
+						lastId = i;
+						return docIds[i];
+					}
+				}
+
+				if (skips == null)
+					skips = buildSkips();
+
+				// find the first block whose last document ID is at least docID, usually it is the current block
+				int i = lastId;
+				int block = i / BLOCK_SIZE;
+				if (skips[block] < docId)
+				{
+					block = gallop(skips,block + 1,skips.length,docId);
+					// we havent found a document
+					if (block == skips.length)
+						return -1;
+					i = block * BLOCK_SIZE;
+				}
+
+				// now scan the block for the document, the last posting of the block is always >= docID
+				while (docIds[i] < docId)
+					++i;
+
+				// save the state
+				lastId = i;
+				return docIds[i];
+			}
+
+			// like nextGEQ, but docID can be before the saved position, then the cursor starts over from the first posting
+			public int seek(int docId)
+			{
+				if (lastId >= size || docIds[lastId] > docId)
+					lastId = 0;
+				return nextGEQ(docId);
+			}
+
+			// moves the cursor to the posting at the position and returns its document ID
+			public int moveTo(int position)
+			{
+				scanned++;
+				lastId = position;
+				return docIds[position];
+			}
+
+			// the max score of the list, computeMaxScores has to be called on the list first
+			public double getMaxScore(){ return maxScore; }
+
+			// the max score and the last document ID of the block the last nextGEQ landed in
+			public double getBlockMaxScore(){ return blockMaxScores[lastId / BLOCK_SIZE]; }
+			public int getBlockEnd()
+			{
+				if (skips == null)
+					skips = buildSkips();
+				return skips[lastId / BLOCK_SIZE];
+			}
+
+			// get the frequency of the document the last nextGEQ returned
+			public int getFreq(){ return freqs[lastId]; }
+
+			// get the date ( in milliseconds ) of the document the last nextGEQ returned
+			public long getTime(){ return dates[lastId]; }
+
+			// get the quantized and the real bm25 score of the document the last nextGEQ returned
+			public int getImpact(){ return quantizedScores[lastId]; }
+			public double getScore(int N, double avgDocumentLength){ return score(lastId,N,avgDocumentLength); }
 
-			private	int docID;
-			private	int freq;
-			//private	int year;
-			private Date date;
+			// get the positions of the term in the document the last nextGEQ returned, there are getFreq of them
+			// buffer is returned if they fit in it. The documents are checked in order, so when the posting is in the same
+			// group as the last one that was read the positions are skipped from there instead of from the start of the group
+			// The positions are the ones of the index the list was read from, getPositions has opened them
+			public int [] getPositions(int [] buffer)
+			{
+				int at;
+				if (positionsPosting != -1 && positionsPosting <= lastId && positionsPosting / Positions.BLOCK_SIZE == lastId / Positions.BLOCK_SIZE)
+					at = positions.skip(positionsAt,count(positionsPosting,lastId));
+				else
+					at = positions.skip(positions.groupStart(term,size,lastId),count(lastId / Positions.BLOCK_SIZE * Positions.BLOCK_SIZE,lastId));
+				positionsPosting = lastId;
+				positionsAt = at;
+				return positions.read(at,freqs[lastId],buffer);
+			}
 
-			public InvertedList(int docId,int freq,Date date)
+			// the number of positions of the postings from the first one up to the last one ( not included )
+			private int count(int first, int last)
 			{
-				this.docID = docId;
-				this.freq = freq;
-				this.date = date;
+				int count = 0;
+				for (int i = first; i < last; ++i)
+					count += freqs[i];
+				return count;
 			}
-			public String toString()
+		}
+	}
+
+	// keeps the best capacity results seen so far, best is decided by comp
+	// the heap is ordered the other way round, so the worst result we keep is on top and is the one that gets replaced
+	// every search has its own heap and comparator, so queries running at the same time do not see each other's results
+	class TopK{
+		private PriorityQueue<Pair<Integer,Double>> queue;
+		private int capacity;
+		private DataComparator comp = new DataComparator();
+
+		public TopK(int capacity)
+		{
+			this.capacity = capacity;
+			this.queue = new PriorityQueue<Pair<Integer,Double>>(Math.max(1,Math.min(capacity,1024)),Collections.reverseOrder(comp));
+		}
+
+		// true if higher scores are better ( bm25 ), false if lower scores are better ( distance in days )
+		public void setGreater(boolean greater){ comp.greater = greater; }
+
+		public void add(int did, double score)
+		{
+			if (capacity <= 0)
+				return;
+			if (queue.size() < capacity)
+				queue.add(new Pair<Integer,Double>(did,score));
+			else
 			{
-				return  ":" + docID + ":" + freq + ":" + date;
-			}		
+				// only replace the worst result if this one is better
+				Pair<Integer,Double> worst = queue.peek();
+				boolean better = comp.greater ? score > worst.second : score < worst.second;
+				// equal scores are ranked by docID, so the result does not depend on the order the documents were found in
+				if (score == worst.second && did < worst.first)
+					better = true;
+				if (better)
+				{
+					queue.poll();
+					queue.add(new Pair<Integer,Double>(did,score));
+				}
+			}
+		}
+
+		public int size(){ return queue.size(); }
+		public int getCapacity(){ return capacity; }
+
+		// the score a document has to beat to get into the heap
+		public double threshold()
+		{
+			if (queue.size() < capacity)
+				return comp.greater ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+			return queue.peek().second;
 		}
 
+		// returns the results from rank offset to offset + k, best first. Empties the heap
+		public ArrayList<Pair<Integer,Double>> page(int offset, int k)
+		{
+			// the heap gives the worst result first
+			ArrayList<Pair<Integer,Double>> sorted = new ArrayList<Pair<Integer,Double>>(Collections.nCopies(queue.size(),(Pair<Integer,Double>)null));
+			for (int i = sorted.size() - 1; i >= 0; --i)
+				sorted.set(i,queue.poll());
+
+			ArrayList<Pair<Integer,Double>> result = new ArrayList<Pair<Integer,Double>>();
+			for (int i = Math.max(0,offset); i < sorted.size() && i < offset + k; ++i)
+				result.add(sorted.get(i));
+			return result;
+		}
 	}
 
 	class DataComparator implements Comparator<Pair<Integer,Double>>
@@ -787,83 +2328,113 @@ public class QueryProcessor{
 			Double x2 =  p2.second;
 
 			// depending on the query time, we want to sort it in ascending order or descending order
+			int c;
 			if (greater)
-				return x2.compareTo(x1);
+				c = x2.compareTo(x1);
 			else
 			{
 				// reset the value back to greater than since thats what most of out queries are
 				//greater = true;
-				return x1.compareTo(x2);
+				c = x1.compareTo(x2);
 			}
-				
-		}
-	}
-
-	class Document{
-		public String docUrl;
-		public int length;
-		public Date date;
-
-		public Document(String docUrl,Date date, Integer length)
-		{
-			this.docUrl = docUrl;
-			this.length = length;
-			this.date = date;
-			//System.out.println(length);
+			// equal scores go by docID
+			return c != 0 ? c : p1.first.compareTo(p2.first);
 		}
 	}
 
 	// used to store the user Ranked documents
+	// the methods are synchronized since the clicks come in while other queries read the counts
 	class UserRank{
-		ArrayList<Pair<Integer,Integer>> rankList;
+		// open addressing table from docId to the number of clicks, so a lookup while scoring does not scan a list
+		// the size is a power of two and at most half of the slots are used. Free slots have the docId EMPTY
+		private final int EMPTY = -1;
+		private int [] docIds;
+		private int [] clicks;
+		private int size = 0;
+		private int shift = 29; // 32 - log2 of the size of the table, the slot is the top bits of the hash
 
 		public UserRank()
 		{
-			rankList = new ArrayList<Pair<Integer,Integer>>();
+			docIds = new int[8];
+			clicks = new int[8];
+			Arrays.fill(docIds,EMPTY);
 		}
-		// inserts the rank for this page into the list if it doesnt exist yet
+		// inserts the rank for this page into the table if it doesnt exist yet
 		// otherwise, we find it the rank and increment it's value
-		public void addRank(int docid)
+		public synchronized void addRank(int docid)
+		{
+			addRank(docid,1);
+		}
+		public synchronized void addRank(int docid, int freq)
 		{
-			Integer d = new Integer(docid);
-			for (Pair<Integer,Integer> p: rankList)
+			int slot = slot(docid);
+			if (docIds[slot] == EMPTY)
 			{
-				//System.out.println(p.first + "="+docid);
-				if (p.first.equals(docid))
-				{
-					p.second = p.second+1;
-					return;
-				}			
+				docIds[slot] = docid;
+				size++;
+			}
+			clicks[slot] += freq;
+			if (size * 2 > docIds.length)
+				grow();
+		}
+
+		// the most clicks any document got for this query
+		public synchronized int getMaxFreq()
+		{
+			int max = 0;
+			for (int i = 0; i < docIds.length; ++i)
+			{
+				if (docIds[i] != EMPTY)
+					max = Math.max(max,clicks[i]);
 			}
-			// otherwise insert it
-			//System.out.println("INSERTzi");
-			rankList.add(new Pair<Integer,Integer>(docid,1)); // set the freq to one
+			return max;
+		}
+
+		public synchronized int getFreq(int docid)
+		{
+			int slot = slot(docid);
+			return docIds[slot] == docid ? clicks[slot] : -1;
 		}
-		public void addRank(int docid, int freq)
+
+		// the slot of the docId, or the free slot where it would go
+		private int slot(int docid)
 		{
-			rankList.add(new Pair<Integer,Integer>(docid,freq));
+			int mask = docIds.length - 1;
+			// fibonacci hashing: the top bits of the product depend on every bit of the docId, at any table size
+			int i = (docid * 0x9E3779B9) >>> shift;
+			while (docIds[i] != EMPTY && docIds[i] != docid)
+				i = (i + 1) & mask;
+			return i;
 		}
 
-		public int getFreq(int docid)
+		// doubles the table and puts every docId in its new slot
+		private void grow()
 		{
-			Integer d = new Integer(docid);
-			for (Pair<Integer,Integer> p: rankList)
+			int [] oldDocIds = docIds;
+			int [] oldClicks = clicks;
+			docIds = new int[oldDocIds.length * 2];
+			clicks = new int[docIds.length];
+			shift--;
+			Arrays.fill(docIds,EMPTY);
+			for (int i = 0; i < oldDocIds.length; ++i)
 			{
-				if (p.first.equals(d))			
-					return p.second;
+				if (oldDocIds[i] != EMPTY)
+				{
+					int slot = slot(oldDocIds[i]);
+					docIds[slot] = oldDocIds[i];
+					clicks[slot] = oldClicks[i];
+				}
 			}
-
-			return -1;
 		}
 
-		public String toString()
+		public synchronized String toString()
 		{
 			//StringBuilder builder = StringBuilder();
 			StringBuilder builder = new StringBuilder();
-			for (Pair<Integer,Integer> p: rankList)
+			for (int i = 0; i < docIds.length; ++i)
 			{
-				builder.append(":"+p.first + ":" + p.second);
-				//System.out.println(builder.toString());
+				if (docIds[i] != EMPTY)
+					builder.append(":"+docIds[i] + ":" + clicks[i]);
 			}
 
 			return builder.toString();
@@ -871,6 +2442,144 @@ public class QueryProcessor{
 
 	}
 
+	// the -from / -to filter of a search, in milliseconds. Both ends are included
+	class DateRange{
+		public long from;
+		public long to;
+
+		public DateRange(long from, long to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		public boolean contains(long date){ return date >= from && date <= to; }
+
+		// true if some date between min and max is in the range
+		public boolean overlaps(long min, long max){ return max >= from && min <= to; }
+	}
+
+	// the words of a phrase in quotes, as the positions of their lists in the terms of the search
+	// it keeps the positions of its words in the document that is checked, so every search has its own
+	class Phrase{
+		public int [] terms;
+		private int [][] wordPositions;
+		private int [] next; // the first position of each word that can still be part of the phrase
+
+		public Phrase(int [] terms)
+		{
+			this.terms = terms;
+			wordPositions = new int[terms.length][];
+			next = new int[terms.length];
+		}
+
+		// true if the document the cursors are on has the words one after the other
+		// the positions are sorted, so word j is looked for from where it was for the last start of the phrase
+		public boolean matches(ArrayList<InvertedIndex.Cursor> cursors)
+		{
+			for (int j = 0; j < terms.length; ++j)
+			{
+				wordPositions[j] = cursors.get(terms[j]).getPositions(wordPositions[j]);
+				next[j] = 0;
+			}
+
+			int starts = cursors.get(terms[0]).getFreq();
+			for (int k = 0; k < starts; ++k)
+			{
+				int start = wordPositions[0][k];
+				int j = 1;
+				for (; j < terms.length; ++j)
+				{
+					int count = cursors.get(terms[j]).getFreq();
+					while (next[j] < count && wordPositions[j][next[j]] < start + j)
+						next[j]++;
+					// the word is not after this start, so it is not after the next ones either
+					if (next[j] == count)
+						return false;
+					if (wordPositions[j][next[j]] != start + j)
+						break;
+				}
+				if (j == terms.length)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	// one line typed by the user, with the paging options ( -k results per page, -page page number ) taken out of the query
+	class Query{
+		public String text;
+		public int k = DEFAULT_K;
+		public int page = 1;
+
+		public Query(String line)
+		{
+			StringBuilder rest = new StringBuilder();
+			String [] values = line.split(" ");
+			for (int i = 0; i < values.length; ++i)
+			{
+				if (values[i].equals("-k") && i + 1 < values.length)
+					k = Integer.parseInt(values[++i]);
+				else if (values[i].equals("-page") && i + 1 < values.length)
+					page = Integer.parseInt(values[++i]);
+				else
+					rest.append(rest.length() > 0 ? " " : "").append(values[i]);
+			}
+			text = canonicalQuery(rest.toString());
+			// a page has to start at a rank a search can ask for, n = offset + k has to fit in an int too
+			if (k < 1 || page < 1)
+				throw new IllegalArgumentException("-k and -page have to be at least 1");
+			if ((long) page * k > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("-page " + page + " with -k " + k + " is too far");
+		}
+
+		// rank of the first result of the page
+		public int getOffset(){ return (page - 1) * k; }
+	}
+
+/*------------------------------------------------------------------------------------
+	- The results of one search in the cache, the best n documents
+	- The results stay the same until a click changes the click boosts of the query, or until the query becomes a current
+	  events search. A click on any query changes documentClickFreq, which every click boost is divided by, so the results of
+	  a query that has clicks are only valid for the documentClickFreq they were computed with
+	- -c and current events searches are ranked by the distance to the current time, so they are never cached
+-------------------------------------------------------------------------------------*/
+	class CachedResult{
+		public ArrayList<Pair<Integer,Double>> results;
+		public int n; // the number of results the search asked for
+		public int clickFreq; // documentClickFreq when the search ran
+		public boolean clicked; // the query had click boosts
+		public boolean cacheable = true;
+		public boolean timeSearch = false; // a -t or -at search, these do not become current events searches
+		public boolean counted = false; // the search was counted by rankCurrent
+
+		public CachedResult(int n, int clickFreq, boolean clicked)
+		{
+			this.n = n;
+			this.clickFreq = clickFreq;
+			this.clicked = clicked;
+		}
+
+		// true if the results can answer a search for the best n documents of the query right now
+		public boolean isValid(String query, int n)
+		{
+			// a shorter list than asked for already has every match
+			if (n > this.n && results.size() == this.n)
+				return false;
+			if (clicked && clickFreq != documentClickFreq)
+				return false;
+			return timeSearch || !trending.isTrending(query,System.currentTimeMillis());
+		}
+
+		public ArrayList<Pair<Integer,Double>> page(int offset, int k)
+		{
+			ArrayList<Pair<Integer,Double>> page = new ArrayList<Pair<Integer,Double>>();
+			for (int i = Math.max(0,offset); i < results.size() && i < offset + k; ++i)
+				page.add(results.get(i));
+			return page;
+		}
+	}
+
 	// pair class to hold the document information, that require two elements
 	class Pair<T1,T2>{
 		public T1 first;
@@ -0,0 +1,319 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/*------------------------------------------------------------------------------------
+	- HTTP server for the QueryProcessor, started with java QueryProcessor -server PORT
+	- GET /search?q=world+trade&k=10&page=1   the query takes the same options as the interactive search ( -c, -t MM/dd/yy, -or )
+	  returns {"query":...,"k":...,"page":...,"results":[{"rank":1,"docId":29,"url":"...","score":13.1},...]}
+	- GET or POST /click?q=world+trade&docId=29   counts a click on the result for the query, the same as picking it in the interactive search
+	- The requests run on a fixed pool of threads. Searches only share the read only index, so they run at the same time
+	- At most maxRequests requests are queued or running. A request over the limit is answered with 503 right away instead of searching
+	- Every response has a Content-Length, so clients can keep the connection open for the next request
+	- GET /stats   the hits and misses of the result cache, the clicks logged and the syncs they took, and the search metrics
+	  ( see Metrics )
+	- The click and current events rankings are written to disk when the server stops
+-------------------------------------------------------------------------------------*/
+public class QueryServer
+{
+	private QueryProcessor processor;
+	private int port;
+	private int threads;
+	private Semaphore permits; // one permit per request that is queued or running
+	private ThreadLocal<Boolean> admitted = new ThreadLocal<Boolean>(); // false while the dispatcher answers a request that was over the limit
+
+	public QueryServer(QueryProcessor processor, int port, int threads, int maxRequests)
+	{
+		this.processor = processor;
+		this.port = port;
+		this.threads = threads;
+		this.permits = new Semaphore(maxRequests);
+	}
+
+	public void start() throws IOException
+	{
+		HttpServer server = HttpServer.create(new InetSocketAddress(port),0);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		// the permit is taken when the request is handed to the pool, so requests waiting in the queue count too
+		// a request over the limit is not queued, it is answered with 503 on the dispatcher thread right away
+		server.setExecutor(new Executor(){
+			public void execute(final Runnable task)
+			{
+				if (!permits.tryAcquire())
+				{
+					admitted.set(false);
+					try{
+						task.run();
+					}
+					finally{
+						admitted.remove();
+					}
+					return;
+				}
+				pool.execute(new Runnable(){
+					public void run()
+					{
+						admitted.set(true);
+						try{
+							task.run();
+						}
+						finally{
+							admitted.remove();
+							permits.release();
+						}
+					}
+				});
+			}
+		});
+
+		server.createContext("/search",new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				if (checkAdmitted(exchange))
+					search(exchange);
+			}
+		});
+		server.createContext("/click",new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				if (checkAdmitted(exchange))
+					click(exchange);
+			}
+		});
+		server.createContext("/stats",new HttpHandler(){
+			public void handle(HttpExchange exchange) throws IOException
+			{
+				if (checkAdmitted(exchange))
+					stats(exchange);
+			}
+		});
+
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			public void run()
+			{
+				processor.writeRankings();
+			}
+		},"rankings-writer"));
+
+		server.start();
+		System.out.println("Listening on port " + port + " with " + threads + " threads");
+	}
+
+	// answers 503 if the request is over the limit, returns true if it can run
+	private boolean checkAdmitted(HttpExchange exchange) throws IOException
+	{
+		if (admitted.get())
+			return true;
+		exchange.getResponseHeaders().set("Retry-After","1");
+		send(exchange,503,"{\"error\":\"too many requests\"}");
+		return false;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Handlers
+-------------------------------------------------------------------------------------*/
+	private void search(HttpExchange exchange) throws IOException
+	{
+		try{
+			Map<String,String> params = readParams(exchange);
+			String q = params.get("q");
+			if (q == null || q.trim().isEmpty())
+			{
+				send(exchange,400,"{\"error\":\"missing q\"}");
+				return;
+			}
+
+			// the paging parameters go through the same parsing as a typed query
+			String line = q.trim();
+			if (params.containsKey("k"))
+				line += " -k " + Integer.parseInt(params.get("k"));
+			if (params.containsKey("page"))
+				line += " -page " + Integer.parseInt(params.get("page"));
+			QueryProcessor.Query query = processor.new Query(line);
+
+			ArrayList<QueryProcessor.Pair<Integer,Double>> results = processor.search(query.text,query.k,query.getOffset());
+
+			StringBuilder json = new StringBuilder();
+			json.append("{\"query\":").append(quote(query.text));
+			json.append(",\"k\":").append(query.k);
+			json.append(",\"page\":").append(query.page);
+			json.append(",\"results\":[");
+			int rank = query.getOffset();
+			for (QueryProcessor.Pair<Integer,Double> result : results)
+			{
+				if (rank > query.getOffset())
+					json.append(',');
+				json.append("{\"rank\":").append(++rank);
+				json.append(",\"docId\":").append(result.first);
+				json.append(",\"url\":").append(quote(processor.getDocumentUrl(result.first)));
+				json.append(",\"score\":").append(number(result.second));
+				json.append('}');
+			}
+			json.append("]}");
+			send(exchange,200,json.toString());
+		}
+		// NumberFormatException, a k or page below 1 and a missing or bad date
+		catch(IllegalArgumentException | java.text.ParseException e)
+		{
+			send(exchange,400,"{\"error\":" + quote("bad request: " + e.getMessage()) + "}");
+		}
+		catch(Exception e)
+		{
+			System.out.println("ERROR in the search request " + e);
+			send(exchange,500,"{\"error\":" + quote(e.toString()) + "}");
+		}
+	}
+
+	private void click(HttpExchange exchange) throws IOException
+	{
+		try{
+			Map<String,String> params = readParams(exchange);
+			String q = params.get("q");
+			String docId = params.get("docId");
+			if (q == null || docId == null)
+			{
+				send(exchange,400,"{\"error\":\"missing q or docId\"}");
+				return;
+			}
+			int id = Integer.parseInt(docId);
+			if (processor.getDocumentUrl(id) == null)
+			{
+				send(exchange,404,"{\"error\":\"no document " + id + "\"}");
+				return;
+			}
+
+			// clicks are counted for the query without the paging options, the same as the interactive search
+			processor.clickDocument(processor.new Query(q.trim()).text,id);
+			send(exchange,200,"{\"ok\":true}");
+		}
+		// NumberFormatException, and a k or page below 1 in the query
+		catch(IllegalArgumentException e)
+		{
+			send(exchange,400,"{\"error\":" + quote("bad request: " + e.getMessage()) + "}");
+		}
+		catch(Exception e)
+		{
+			System.out.println("ERROR in the click request " + e);
+			send(exchange,500,"{\"error\":" + quote(e.toString()) + "}");
+		}
+	}
+
+	private void stats(HttpExchange exchange) throws IOException
+	{
+		readParams(exchange);
+		ResultCache<?> cache = processor.getCache();
+		StringBuilder json = new StringBuilder();
+		json.append("{\"cache\":{\"hits\":").append(cache.getHits());
+		json.append(",\"misses\":").append(cache.getMisses());
+		json.append(",\"evictions\":").append(cache.getEvictions());
+		json.append(",\"size\":").append(cache.size());
+		json.append(",\"capacity\":").append(cache.getCapacity());
+		json.append('}');
+		ClickLog clickLog = processor.getClickLog();
+		if (clickLog != null)
+		{
+			json.append(",\"clickLog\":{\"clicks\":").append(clickLog.getClickCount());
+			json.append(",\"syncs\":").append(clickLog.getBatchCount());
+			json.append('}');
+		}
+		// the search metrics, the same values JMX shows
+		json.append(",\"metrics\":{");
+		boolean first = true;
+		for (Map.Entry<String,Number> metric : processor.getMetrics().snapshot().entrySet())
+		{
+			if (!first)
+				json.append(',');
+			first = false;
+			Number value = metric.getValue();
+			json.append(quote(metric.getKey())).append(':');
+			if (value instanceof Double)
+				json.append(String.format(Locale.ROOT,"%.3f",value.doubleValue()));
+			else
+				json.append(value);
+		}
+		json.append('}');
+		json.append('}');
+		send(exchange,200,json.toString());
+	}
+
+/*------------------------------------------------------------------------------------
+	- Request and response helpers
+-------------------------------------------------------------------------------------*/
+	// reads the parameters of the url and, for a POST, of the form in the body
+	private Map<String,String> readParams(HttpExchange exchange) throws IOException
+	{
+		HashMap<String,String> params = new HashMap<String,String>();
+		parseParams(exchange.getRequestURI().getRawQuery(),params);
+
+		// the body is always read to the end, otherwise the connection can not be used for the next request
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte [] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) > 0)
+			body.write(buf,0,n);
+		in.close();
+		if (exchange.getRequestMethod().equals("POST"))
+			parseParams(body.toString("UTF-8"),params);
+		return params;
+	}
+
+	private void parseParams(String query, Map<String,String> params) throws UnsupportedEncodingException
+	{
+		if (query == null || query.isEmpty())
+			return;
+		for (String pair : query.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			if (eq == -1)
+				params.put(URLDecoder.decode(pair,"UTF-8"),"");
+			else
+				params.put(URLDecoder.decode(pair.substring(0,eq),"UTF-8"),URLDecoder.decode(pair.substring(eq + 1),"UTF-8"));
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, String json) throws IOException
+	{
+		byte [] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type","application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status,bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	// a json string, with the characters json does not allow escaped
+	private static String quote(String value)
+	{
+		if (value == null)
+			return "null";
+		StringBuilder builder = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); ++i)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if (c < 0x20)
+				builder.append(String.format("\\u%04x",(int)c));
+			else
+				builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+	// json has no NaN or infinity
+	private static String number(double value)
+	{
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return "null";
+		return Double.toString(value);
+	}
+}
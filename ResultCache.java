@@ -0,0 +1,90 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+
+/*------------------------------------------------------------------------------------
+	- Bounded cache for the results of the QueryProcessor, keyed by the query
+	- At most capacity entries, the least recently used entry is evicted when a new one comes in
+	- Admission: a key is only cached the second time it misses. Queries that are only searched once are remembered in
+	  a second LRU list of keys ( no results ) of the same size, so they do not push the repeated queries out of the cache
+	- The caller decides when an entry is stale ( see get ), and removes the entries of a query when its results change
+	- Counts the hits and the misses
+-------------------------------------------------------------------------------------*/
+public class ResultCache<V>
+{
+	private int capacity;
+	private LinkedHashMap<String,V> entries; // in access order, the first entry is the least recently used
+	private LinkedHashMap<String,Boolean> seen; // the keys that missed once and were not admitted yet
+	private LongAdder hits = new LongAdder();
+	private LongAdder misses = new LongAdder();
+	private LongAdder evictions = new LongAdder();
+
+	public ResultCache(final int capacity)
+	{
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String,V>(16,0.75f,true){
+			protected boolean removeEldestEntry(Map.Entry<String,V> eldest)
+			{
+				if (size() <= capacity)
+					return false;
+				evictions.increment();
+				return true;
+			}
+		};
+		this.seen = new LinkedHashMap<String,Boolean>(16,0.75f,true){
+			protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest)
+			{
+				return size() > capacity;
+			}
+		};
+	}
+
+	// returns the value of the key if it is cached and still valid, otherwise null. An entry that is not valid is removed
+	public synchronized V get(String key, Predicate<V> valid)
+	{
+		V value = entries.get(key);
+		if (value != null && !valid.test(value))
+		{
+			entries.remove(key);
+			value = null;
+		}
+		if (value == null)
+			misses.increment();
+		else
+			hits.increment();
+		return value;
+	}
+
+	// caches the value if the key has missed before, otherwise only remembers the key
+	public synchronized void put(String key, V value)
+	{
+		if (capacity <= 0)
+			return;
+		if (!entries.containsKey(key) && seen.remove(key) == null)
+		{
+			seen.put(key,Boolean.TRUE);
+			return;
+		}
+		entries.put(key,value);
+	}
+
+	// removes the entry of the key, the next get misses
+	public synchronized void invalidate(String key)
+	{
+		entries.remove(key);
+	}
+
+	public synchronized int size(){ return entries.size(); }
+	public int getCapacity(){ return capacity; }
+	public long getHits(){ return hits.sum(); }
+	public long getMisses(){ return misses.sum(); }
+	public long getEvictions(){ return evictions.sum(); }
+
+	public String toString()
+	{
+		long h = getHits();
+		long m = getMisses();
+		return String.format("cache hits %d, misses %d ( %.1f%% hits ), %d of %d entries, %d evicted",h,m,h + m > 0 ? 100.0 * h / (h + m) : 0.0,size(),capacity,getEvictions());
+	}
+}
@@ -0,0 +1,440 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/*------------------------------------------------------------------------------------
+	- Incremental indexing keeps the index as a list of immutable segments under segments/
+	- Each segment is a directory with its own binary index ( index.bin + lexicon.bin ) and urlTable.txt
+	  and covers a range of docIds. Newer segments always have higher docIds
+	- segments/segments.txt is the manifest, one segment per line in docId order: name;first docId;last docId
+	  It is replaced atomically, so a reader sees either the old or the new list of segments
+	- Small segments are merged with a log structured policy: whenever MERGE_FACTOR neighbouring segments
+	  are in the same size level they are merged into one segment of the next level. Since the segments cover
+	  consecutive docIds, merging is a concatenation of the posting lists of each term
+	- segments/lock is locked ( FileChannel.lock ) by whoever changes the manifest or takes a segment name, so two
+	  IndexBuilder -segment runs and their mergers do not lose each other's segments or pick the same name. A merge
+	  runs without the lock, and is thrown away if its inputs are no longer in the manifest when it is done
+	- QueryProcessor -segments reads all the segments into one index when it starts, a segment added later is only
+	  searched after a restart
+-------------------------------------------------------------------------------------*/
+public class Segments
+{
+	public static final String segmentDirName = "segments/";
+	public static final String manifestFileName = segmentDirName + "segments.txt";
+	public static final String lockFileName = segmentDirName + "lock";
+	public static final int MERGE_FACTOR = 4;
+
+	// the file lock keeps out the other processes, the threads of this one wait on threadLock first
+	// ( a process can only hold one lock on the file )
+	private static final ReentrantLock threadLock = new ReentrantLock();
+	private static FileChannel lockChannel; // open while a thread of this process has the lock
+
+
+	// merges the segments until the merge policy finds nothing to merge
+	// usage: java Segments
+	public static void main(String [] args) throws Exception
+	{
+		System.out.println("Merged " + mergeAll() + " times");
+	}
+
+/*------------------------------------------------------------------------------------
+	- One line of the manifest
+-------------------------------------------------------------------------------------*/
+	public static class Segment
+	{
+		public String name;
+		public int firstDocId;
+		public int lastDocId;
+
+		public Segment(String name, int firstDocId, int lastDocId)
+		{
+			this.name = name;
+			this.firstDocId = firstDocId;
+			this.lastDocId = lastDocId;
+		}
+
+		public String getDir(){ return segmentDirName + name + "/"; }
+		public int getDocCount(){ return lastDocId - firstDocId + 1; }
+
+		// segments with MERGE_FACTOR^n to MERGE_FACTOR^(n+1) documents are in level n
+		public int getLevel()
+		{
+			int level = 0;
+			for (long size = MERGE_FACTOR; size <= getDocCount(); size *= MERGE_FACTOR)
+				level++;
+			return level;
+		}
+
+		public String toString(){ return name + ";" + firstDocId + ";" + lastDocId; }
+	}
+
+	// reads the manifest, returns an empty list if there are no segments yet
+	public static synchronized ArrayList<Segment> readManifest() throws IOException
+	{
+		ArrayList<Segment> segments = new ArrayList<Segment>();
+		File file = new File(manifestFileName);
+		if (!file.exists())
+			return segments;
+
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.isEmpty())
+				continue;
+			String [] arr = line.split(";");
+			segments.add(new Segment(arr[0],Integer.parseInt(arr[1]),Integer.parseInt(arr[2])));
+		}
+		reader.close();
+		return segments;
+	}
+
+	// writes the manifest to a temporary file and moves it over the old one
+	public static synchronized void writeManifest(ArrayList<Segment> segments) throws IOException
+	{
+		new File(segmentDirName).mkdirs();
+		File tmp = new File(manifestFileName + ".tmp");
+		PrintWriter write = new PrintWriter(tmp);
+		for (Segment segment : segments)
+			write.println(segment);
+		write.close();
+		Files.move(tmp.toPath(),Paths.get(manifestFileName),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/*
+	* Takes the lock on the manifest, waits until no other thread or process has it. The holder can take it again
+	* Every lock has to be followed by an unlock
+	*/
+	public static void lock() throws IOException
+	{
+		threadLock.lock();
+		if (threadLock.getHoldCount() > 1)
+			return;
+		try{
+			new File(segmentDirName).mkdirs();
+			lockChannel = FileChannel.open(Paths.get(lockFileName),StandardOpenOption.CREATE,StandardOpenOption.WRITE);
+			lockChannel.lock();
+		}
+		catch(IOException e)
+		{
+			if (lockChannel != null)
+				lockChannel.close();
+			lockChannel = null;
+			threadLock.unlock();
+			throw e;
+		}
+	}
+
+	// gives up the lock taken by lock, closing the channel releases the file lock
+	public static void unlock() throws IOException
+	{
+		try{
+			if (threadLock.getHoldCount() == 1 && lockChannel != null)
+			{
+				lockChannel.close();
+				lockChannel = null;
+			}
+		}
+		finally{
+			threadLock.unlock();
+		}
+	}
+
+	/*
+	* Takes the name for a new segment and creates its directory, so no one else can take it
+	* The number is higher than any segment in the manifest and any directory under segments/ ( the segments that are
+	* being built or merged are not in the manifest yet )
+	*/
+	public static String newSegmentName() throws IOException
+	{
+		lock();
+		try{
+			int next = 0;
+			for (Segment segment : readManifest())
+				next = Math.max(next,segmentNumber(segment.name) + 1);
+			String [] dirs = new File(segmentDirName).list();
+			if (dirs != null)
+			{
+				for (String dir : dirs)
+				{
+					if (dir.startsWith("seg_"))
+						next = Math.max(next,segmentNumber(dir) + 1);
+				}
+			}
+			String name = "seg_" + next;
+			if (!new File(segmentDirName + name).mkdirs())
+				throw new IOException("Failed to create the segment " + name);
+			return name;
+		}
+		finally{
+			unlock();
+		}
+	}
+
+	// the number in the name of a segment, -1 if it has none
+	private static int segmentNumber(String name)
+	{
+		try{
+			return Integer.parseInt(name.substring(name.indexOf('_') + 1));
+		}
+		catch(NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+	// returns where the inputs are in the segments, one after the other, or -1 if they are not
+	private static int findInputs(ArrayList<Segment> segments, ArrayList<Segment> inputs)
+	{
+		for (int i = 0; i + inputs.size() <= segments.size(); ++i)
+		{
+			int j = 0;
+			while (j < inputs.size() && segments.get(i + j).name.equals(inputs.get(j).name))
+				j++;
+			if (j == inputs.size())
+				return i;
+		}
+		return -1;
+	}
+
+	// returns the names of all the files that are already in a segment
+	public static HashSet<String> indexedFiles(ArrayList<Segment> segments) throws IOException
+	{
+		HashSet<String> files = new HashSet<String>();
+		for (Segment segment : segments)
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(segment.getDir() + "urlTable.txt"));
+			String line;
+			while ((line = reader.readLine()) != null)
+				files.add(line.substring(0,line.indexOf(';')));
+			reader.close();
+		}
+		return files;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Merge policy
+-------------------------------------------------------------------------------------*/
+	// returns the position of the first MERGE_FACTOR neighbouring segments in the same level, or -1 if there are none
+	public static int findMerge(ArrayList<Segment> segments)
+	{
+		for (int i = 0; i + MERGE_FACTOR <= segments.size(); ++i)
+		{
+			int level = segments.get(i).getLevel();
+			int j = i + 1;
+			while (j < i + MERGE_FACTOR && segments.get(j).getLevel() == level)
+				j++;
+			if (j == i + MERGE_FACTOR)
+				return i;
+		}
+		return -1;
+	}
+
+	// runs the merge policy until there is nothing left to merge, returns the number of merges
+	public static int mergeAll() throws IOException
+	{
+		int merges = 0;
+		while (true)
+		{
+			ArrayList<Segment> segments = readManifest();
+			int start = findMerge(segments);
+			if (start == -1)
+				return merges;
+
+			ArrayList<Segment> inputs = new ArrayList<Segment>(segments.subList(start,start + MERGE_FACTOR));
+			String name = newSegmentName();
+			Segment merged;
+			try{
+				merged = merge(inputs,name);
+			}
+			catch(IOException e)
+			{
+				// another merge can have swapped and deleted the inputs while they were read, then this one is not needed
+				deleteSegment(new Segment(name,0,0));
+				if (findInputs(readManifest(),inputs) == -1)
+					continue;
+				throw e;
+			}
+
+			// swap the inputs for the merged segment. The manifest is read again in case a segment was added meanwhile
+			boolean swapped = false;
+			lock();
+			try{
+				segments = readManifest();
+				int position = findInputs(segments,inputs);
+				if (position != -1)
+				{
+					for (int i = 0; i < inputs.size(); ++i)
+						segments.remove(position);
+					segments.add(position,merged);
+					writeManifest(segments);
+					swapped = true;
+				}
+			}
+			finally{
+				unlock();
+			}
+
+			// another merge got to the inputs first
+			if (!swapped)
+			{
+				deleteSegment(merged);
+				continue;
+			}
+
+			for (Segment input : inputs)
+				deleteSegment(input);
+			merges++;
+		}
+	}
+
+	// merges the segments ( which must cover consecutive docIds, in order ) into a new segment
+	public static Segment merge(ArrayList<Segment> inputs, String name) throws IOException
+	{
+		Segment merged = new Segment(name,inputs.get(0).firstDocId,inputs.get(inputs.size() - 1).lastDocId);
+		new File(merged.getDir()).mkdirs();
+
+		// the url tables are already in docId order
+		PrintWriter urlTable = new PrintWriter(new BufferedWriter(new FileWriter(merged.getDir() + "urlTable.txt")));
+		for (Segment input : inputs)
+		{
+			BufferedReader reader = new BufferedReader(new FileReader(input.getDir() + "urlTable.txt"));
+			String line;
+			while ((line = reader.readLine()) != null)
+				urlTable.println(line);
+			reader.close();
+		}
+		urlTable.close();
+		DocStore.write(merged.getDir());
+
+		// merge the lexicons in term order, the postings of a term are concatenated in segment order
+		PriorityQueue<SegmentReader> queue = new PriorityQueue<SegmentReader>(new Comparator<SegmentReader>(){
+			public int compare(SegmentReader r1, SegmentReader r2)
+			{
+				int c = r1.entry.term.compareTo(r2.entry.term);
+				return c != 0 ? c : r1.segment - r2.segment;
+			}
+		});
+		ArrayList<SegmentReader> readers = new ArrayList<SegmentReader>();
+		for (int i = 0; i < inputs.size(); ++i)
+		{
+			SegmentReader reader = new SegmentReader(inputs.get(i),i);
+			readers.add(reader);
+			if (reader.next())
+				queue.add(reader);
+		}
+
+		BinaryIndex.Writer writer = new BinaryIndex.Writer(merged.getDir() + BinaryIndex.postingsFileName,merged.getDir() + BinaryIndex.lexiconFileName);
+		int [] docIds = new int[16];
+		int [] freqs = new int[16];
+		int [] days = new int[16];
+		while (!queue.isEmpty())
+		{
+			String term = queue.peek().entry.term;
+			int count = 0;
+			while (!queue.isEmpty() && queue.peek().entry.term.equals(term))
+			{
+				SegmentReader reader = queue.poll();
+				int docCount = reader.entry.docCount;
+				if (count + docCount > docIds.length)
+				{
+					int length = Math.max(docIds.length * 2,count + docCount);
+					docIds = Arrays.copyOf(docIds,length);
+					freqs = Arrays.copyOf(freqs,length);
+					days = Arrays.copyOf(days,length);
+				}
+				reader.decode(docIds,freqs,days,count);
+				count += docCount;
+				if (reader.next())
+					queue.add(reader);
+			}
+			writer.addTerm(term,docIds,freqs,days,count);
+		}
+		writer.close();
+
+		for (SegmentReader reader : readers)
+			reader.close();
+		return merged;
+	}
+
+	// deletes the directory of a segment that is no longer in the manifest
+	public static void deleteSegment(Segment segment)
+	{
+		File dir = new File(segment.getDir());
+		File [] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File file : files)
+				file.delete();
+		}
+		dir.delete();
+	}
+
+/*------------------------------------------------------------------------------------
+	- Walks the lexicon of one segment in term order, the postings are read from the memory mapped index.bin
+-------------------------------------------------------------------------------------*/
+	static class SegmentReader
+	{
+		public int segment; // position of the segment in the merge, lower positions have lower docIds
+		public BinaryIndex.LexiconEntry entry;
+		private Iterator<BinaryIndex.LexiconEntry> entries;
+		private FileChannel channel;
+		private ByteBuffer postings;
+		private int [] tmpDocIds = new int[0];
+		private int [] tmpFreqs = new int[0];
+		private int [] tmpDays = new int[0];
+
+		public SegmentReader(Segment input, int segment) throws IOException
+		{
+			this.segment = segment;
+			this.entries = BinaryIndex.readLexicon(input.getDir() + BinaryIndex.lexiconFileName).iterator();
+			this.channel = FileChannel.open(Paths.get(input.getDir() + BinaryIndex.postingsFileName),StandardOpenOption.READ);
+			if (channel.size() <= Integer.MAX_VALUE)
+				this.postings = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+		}
+
+		public boolean next()
+		{
+			if (!entries.hasNext())
+				return false;
+			entry = entries.next();
+			return true;
+		}
+
+		// decodes the postings of the current entry into the arrays starting at position from
+		public void decode(int [] docIds, int [] freqs, int [] days, int from) throws IOException
+		{
+			ByteBuffer buf;
+			if (postings != null)
+			{
+				buf = postings;
+				buf.position((int)entry.offset);
+			}
+			else
+				buf = channel.map(FileChannel.MapMode.READ_ONLY,entry.offset,entry.length);
+
+			if (tmpDocIds.length < entry.docCount)
+			{
+				tmpDocIds = new int[entry.docCount];
+				tmpFreqs = new int[entry.docCount];
+				tmpDays = new int[entry.docCount];
+			}
+			BinaryIndex.decode(buf,entry.docCount,tmpDocIds,tmpFreqs,tmpDays);
+			System.arraycopy(tmpDocIds,0,docIds,from,entry.docCount);
+			System.arraycopy(tmpFreqs,0,freqs,from,entry.docCount);
+			System.arraycopy(tmpDays,0,days,from,entry.docCount);
+		}
+
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+import java.util.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+
+/*------------------------------------------------------------------------------------
+	- IndexBuilder -shards N splits the documents into N document partitioned shards under shards/
+	- Each shard is a directory with its own binary index ( index.bin + lexicon.bin ), urlTable.txt and docStore.bin
+	  and covers a range of consecutive docIds. The docIds are the same as in one index of all the documents
+	- shards/shards.txt is the manifest, one shard per line in docId order: name;first docId;last docId
+	- QueryProcessor -shards reads every shard into its own index and runs each query on all of them in parallel,
+	  then merges the best documents of the shards
+-------------------------------------------------------------------------------------*/
+public class Shards
+{
+	public static final String shardDirName = "shards/";
+	public static final String manifestFileName = shardDirName + "shards.txt";
+
+
+/*------------------------------------------------------------------------------------
+	- One line of the manifest
+-------------------------------------------------------------------------------------*/
+	public static class Shard
+	{
+		public String name;
+		public int firstDocId;
+		public int lastDocId;
+
+		public Shard(String name, int firstDocId, int lastDocId)
+		{
+			this.name = name;
+			this.firstDocId = firstDocId;
+			this.lastDocId = lastDocId;
+		}
+
+		public String getDir(){ return shardDirName + name + "/"; }
+		public int getDocCount(){ return lastDocId - firstDocId + 1; }
+
+		public String toString(){ return name + ";" + firstDocId + ";" + lastDocId; }
+	}
+
+	// reads the manifest
+	public static ArrayList<Shard> readManifest() throws IOException
+	{
+		ArrayList<Shard> shards = new ArrayList<Shard>();
+		BufferedReader reader = new BufferedReader(new FileReader(manifestFileName));
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			if (line.isEmpty())
+				continue;
+			String [] arr = line.split(";");
+			shards.add(new Shard(arr[0],Integer.parseInt(arr[1]),Integer.parseInt(arr[2])));
+		}
+		reader.close();
+		return shards;
+	}
+
+	// writes the manifest to a temporary file and moves it over the old one
+	public static void writeManifest(ArrayList<Shard> shards) throws IOException
+	{
+		new File(shardDirName).mkdirs();
+		File tmp = new File(manifestFileName + ".tmp");
+		PrintWriter write = new PrintWriter(tmp);
+		for (Shard shard : shards)
+			write.println(shard);
+		write.close();
+		Files.move(tmp.toPath(),Paths.get(manifestFileName),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+}
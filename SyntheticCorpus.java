@@ -0,0 +1,158 @@
+import java.util.*;
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.text.DateFormat;
+
+
+/*------------------------------------------------------------------------------------
+	- Generates a synthetic corpus in the format of New_York/, so the benchmarks run offline at any size
+	- The words are random letter strings drawn from a Zipf distribution ( the word of rank r has weight 1 / (r + 1) ),
+	  so a few terms are in almost every document and most terms are in a few, like in the real articles
+	- Each document is an html page with its text in <p> tags ( with capitals, punctuation and numbers the indexer
+	  has to drop ) and its date in #mw-revision-date, one document every few hours starting in 2001
+	- The same size and seed always give the same corpus
+	- index runs IndexBuilder on the corpus, which writes index.txt, urlTable.txt and docStore.bin next to New_York/
+	- usage: java SyntheticCorpus dir [documents] [words per document]
+-------------------------------------------------------------------------------------*/
+public class SyntheticCorpus
+{
+	public static final int VOCABULARY = 50000;
+	public static final int WORDS_PER_DOCUMENT = 400;
+	public static final int WORDS_PER_PARAGRAPH = 60;
+	public static final long SEED = 42;
+
+	private Random random;
+	private String [] words; // by rank, the most common first
+	private double [] cumulative; // the sum of the weights of the words up to each rank
+
+
+	public static void main(String [] args) throws Exception
+	{
+		String dir = args.length > 0 ? args[0] : "corpus/";
+		if (!dir.endsWith("/"))
+			dir += "/";
+		int documents = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int wordsPerDocument = args.length > 2 ? Integer.parseInt(args[2]) : WORDS_PER_DOCUMENT;
+
+		new SyntheticCorpus(VOCABULARY,SEED).write(dir,documents,wordsPerDocument);
+		index(dir);
+		System.out.println("Wrote and indexed " + documents + " documents in " + dir);
+	}
+
+	public SyntheticCorpus(int vocabulary, long seed)
+	{
+		random = new Random(seed);
+		words = new String[vocabulary];
+		cumulative = new double[vocabulary];
+
+		HashSet<String> used = new HashSet<String>();
+		double sum = 0;
+		for (int rank = 0; rank < vocabulary; ++rank)
+		{
+			String word;
+			do{
+				// short words are the common ones
+				word = randomWord(2 + Math.min(8,rank * 8 / Math.max(1,vocabulary / 4)) + random.nextInt(3));
+			} while (!used.add(word));
+			words[rank] = word;
+			sum += 1.0 / (rank + 1);
+			cumulative[rank] = sum;
+		}
+	}
+
+	// the word of the rank, 0 is the most common word
+	public String word(int rank){ return words[rank]; }
+
+	// draws a word from the distribution
+	public String nextWord()
+	{
+		int rank = Arrays.binarySearch(cumulative,random.nextDouble() * cumulative[cumulative.length - 1]);
+		return words[rank >= 0 ? rank : Math.min(-rank - 1,words.length - 1)];
+	}
+
+	private String randomWord(int length)
+	{
+		char [] chars = new char[length];
+		for (int i = 0; i < length; ++i)
+			chars[i] = (char)('a' + random.nextInt(26));
+		return new String(chars);
+	}
+
+	// the text of one paragraph: sentences of 5 to 20 words, a capital at the start of each and a number now and then
+	private String paragraph(int length)
+	{
+		StringBuilder builder = new StringBuilder();
+		int sentence = 0;
+		for (int i = 0; i < length; ++i)
+		{
+			String word = nextWord();
+			if (sentence == 0)
+				word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+			builder.append(word);
+			if (random.nextInt(40) == 0)
+				builder.append(' ').append(1800 + random.nextInt(220));
+			if (++sentence >= 5 + random.nextInt(16) || i == length - 1)
+			{
+				builder.append(random.nextInt(10) == 0 ? "; " : ". ");
+				sentence = 0;
+			}
+			else
+				builder.append(random.nextInt(12) == 0 ? ", " : " ");
+		}
+		return builder.toString().trim();
+	}
+
+/*------------------------------------------------------------------------------------
+	- Writing and indexing the corpus
+-------------------------------------------------------------------------------------*/
+	// writes the documents to dir/New_York/, each has about wordsPerDocument words
+	public void write(String dir, int documents, int wordsPerDocument) throws IOException
+	{
+		File articles = new File(dir + "New_York/");
+		articles.mkdirs();
+		DateFormat formatter = new SimpleDateFormat("HH:mm, d MMM yyyy");
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2001,Calendar.JANUARY,1);
+
+		for (int doc = 0; doc < documents; ++doc)
+		{
+			calendar.add(Calendar.MINUTE,60 + random.nextInt(600));
+			int length = wordsPerDocument / 2 + random.nextInt(wordsPerDocument + 1);
+
+			PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File(articles,String.format("NY_%06d.htm",doc)))));
+			out.println("<html><head><title>New York City - Wikipedia</title></head>");
+			out.println("<body><h1 id=\"firstHeading\">New York City</h1>");
+			out.println("<div id=\"content\">");
+			for (int words = 0; words < length; words += WORDS_PER_PARAGRAPH)
+				out.println("<p>" + paragraph(Math.min(WORDS_PER_PARAGRAPH,length - words)) + "</p>");
+			out.println("<ul><li>" + nextWord() + "</li><li>" + nextWord() + "</li></ul>");
+			out.println("</div>");
+			out.println("<div id=\"footer\">This page was last modified on <span id=\"mw-revision-date\">" + formatter.format(calendar.getTime()) + "</span>.</div>");
+			out.println("</body></html>");
+			out.close();
+		}
+	}
+
+	// indexes dir/New_York/ into dir with IndexBuilder, in the text format
+	public static void index(String dir) throws IOException
+	{
+		IndexBuilder builder = new IndexBuilder();
+		builder.dirName = dir + "New_York/";
+		builder.outDir = dir;
+		builder.run(new String[0]);
+	}
+
+	// returns the directory of the indexed corpus of this size, under the corpus.dir property ( default target/corpus/ )
+	// the corpus is only generated the first time, the benchmark runs after that reuse it
+	public static synchronized String prepare(int documents) throws IOException
+	{
+		String dir = System.getProperty("corpus.dir","target/corpus/") + documents + "/";
+		if (!new File(dir + DocStore.docStoreFileName).exists())
+		{
+			new SyntheticCorpus(VOCABULARY,SEED).write(dir,documents,WORDS_PER_DOCUMENT);
+			index(dir);
+		}
+		return dir;
+	}
+}
@@ -0,0 +1,132 @@
+/*------------------------------------------------------------------------------------
+	- Splits the text of a document into index terms in one pass over its chars
+	- A term is a run of letters between whitespace, in lower case. Every other char is dropped without ending the
+	  term ( "New-York's" is newyorks ), the same terms replaceAll("[^a-zA-Z ]","") and split(" ") gave, but folded
+	  to lower case and without the empty terms
+	- The chars of a term are looked up in a table of the terms seen so far while they are read, so a term that was
+	  seen before costs no String. A new term becomes a String once, and the table is cleared when it gets to MAX_TERMS
+	- getLength is the number of chars the old regex kept ( letters and whitespace ), the length of the document in
+	  the url table, so the bm25 scores stay the same
+	- Not thread safe, each indexing thread has its own
+-------------------------------------------------------------------------------------*/
+public class Tokenizer
+{
+	public static final int MAX_TERMS = 1 << 20;
+
+	private CharSequence text;
+	private int position;
+	private int length;
+	private char [] buffer = new char[32]; // the chars of the term being read
+
+	// open addressing table of the terms seen so far, with their hashes ( String.hashCode )
+	private String [] terms = new String[1024];
+	private int [] hashes = new int[1024];
+	private int termCount = 0;
+
+
+	// starts reading the text
+	public void reset(CharSequence text)
+	{
+		this.text = text;
+		this.position = 0;
+		this.length = 0;
+	}
+
+	// returns the next term of the text, or null at the end
+	public String next()
+	{
+		int end = text.length();
+		while (position < end)
+		{
+			int size = 0;
+			int hash = 0;
+			while (position < end)
+			{
+				char c = text.charAt(position++);
+				if (c <= ' ')
+				{
+					length++;
+					break;
+				}
+				if (c >= 'A' && c <= 'Z')
+					c += 'a' - 'A';
+				else if (c < 'a' || c > 'z')
+					continue;
+				length++;
+				if (size == buffer.length)
+					buffer = java.util.Arrays.copyOf(buffer,size * 2);
+				buffer[size++] = c;
+				hash = 31 * hash + c;
+			}
+			if (size > 0)
+				return term(size,hash);
+		}
+		return null;
+	}
+
+	// the number of letters and whitespace chars read so far
+	public int getLength(){ return length; }
+
+	// the String of the term in the buffer, from the table if it was seen before
+	private String term(int size, int hash)
+	{
+		int mask = terms.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (terms[slot] != null)
+		{
+			if (hashes[slot] == hash && matches(terms[slot],size))
+				return terms[slot];
+			slot = (slot + 1) & mask;
+		}
+
+		String term = new String(buffer,0,size);
+		if (termCount >= MAX_TERMS)
+		{
+			clear();
+			return term;
+		}
+		terms[slot] = term;
+		hashes[slot] = hash;
+		if (++termCount * 2 > terms.length)
+			grow();
+		return term;
+	}
+
+	private boolean matches(String term, int size)
+	{
+		if (term.length() != size)
+			return false;
+		for (int i = 0; i < size; ++i)
+		{
+			if (term.charAt(i) != buffer[i])
+				return false;
+		}
+		return true;
+	}
+
+	private void grow()
+	{
+		String [] oldTerms = terms;
+		int [] oldHashes = hashes;
+		terms = new String[oldTerms.length * 2];
+		hashes = new int[terms.length];
+		int mask = terms.length - 1;
+		for (int i = 0; i < oldTerms.length; ++i)
+		{
+			if (oldTerms[i] == null)
+				continue;
+			int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+			while (terms[slot] != null)
+				slot = (slot + 1) & mask;
+			terms[slot] = oldTerms[i];
+			hashes[slot] = oldHashes[i];
+		}
+	}
+
+	private void clear()
+	{
+		terms = new String[1024];
+		hashes = new int[1024];
+		termCount = 0;
+	}
+}
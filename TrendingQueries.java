@@ -0,0 +1,267 @@
+import java.util.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+
+/*------------------------------------------------------------------------------------
+	- Finds the current events queries: queries searched at least threshold times in the last windowDays days
+	- The searches are counted in one count-min sketch per day, so the memory does not grow with the number of distinct
+	  queries. Only the sketches of the days in the window are kept, the sketch of a day that left the window is cleared
+	  and reused. The count of a query in the window is the sum of its estimates in the sketches of those days
+	- A count-min sketch never counts too low, only too high ( by at most e / WIDTH of the searches of the day with
+	  probability 1 - e^-DEPTH ), and conservative update keeps the error far lower for skewed traffic
+	- The counts only have to reach the threshold, so the counters are single bytes that stop at MAX_COUNT. That gives
+	  four times the counters for the memory: 4 rows of 512K counters are 2MB a day, and with 3 million distinct
+	  queries a day a query searched once is almost never taken for one searched 10 times
+	- The queries that reached the threshold are kept in a short list, the heavy hitters, with the time they last reached it.
+	  A query stays a current events query for rangeDays days after that. The list is bounded, the oldest entry goes first
+	- write / read keep the sketches and the heavy hitters in a binary file. A sketch with few counters that are not 0 is
+	  written as position, value pairs, a full one as the rows. The file is written to fileName.tmp, synced and moved
+	  over the old one, so a crash while writing leaves the old file and not half of the new one
+-------------------------------------------------------------------------------------*/
+public class TrendingQueries
+{
+	public static final int MAGIC = 0x54545451; // marks the start of a trending queries file
+	public static final int VERSION = 1;
+	public static final int DEPTH = 4; // rows of each sketch
+	public static final int WIDTH = 1 << 19; // counters per row
+	public static final int MAX_COUNT = 255; // a counter stays at this value once it gets there
+	public static final int MAX_HEAVY_HITTERS = 1024;
+	public static final long MILLIS_PER_DAY = 86400000L;
+
+	private int windowDays; // the window is today and the windowDays days before
+	private int threshold;
+	private int rangeDays;
+	private byte [][][] sketches; // [day % sketches.length][row][column], unsigned
+	private long [] sketchDays; // the day each sketch counts, -1 if it is not used yet
+	private LinkedHashMap<String,Long> heavyHitters = new LinkedHashMap<String,Long>(); // query -> time it last reached the threshold, oldest first
+
+
+	public TrendingQueries(int windowDays, int threshold, int rangeDays)
+	{
+		this.windowDays = windowDays;
+		this.threshold = threshold;
+		this.rangeDays = rangeDays;
+		if (threshold > MAX_COUNT)
+			throw new IllegalArgumentException("The threshold can be at most " + MAX_COUNT);
+		this.sketches = new byte[windowDays + 1][DEPTH][WIDTH];
+		this.sketchDays = new long[windowDays + 1];
+		Arrays.fill(sketchDays,-1);
+	}
+
+/*------------------------------------------------------------------------------------
+	- Counting and checking
+-------------------------------------------------------------------------------------*/
+	// counts one search of the query at the time, returns its estimated count in the window
+	public synchronized long add(String query, long time)
+	{
+		long day = Math.floorDiv(time,MILLIS_PER_DAY);
+		byte [][] sketch = sketchFor(day);
+		int [] columns = columns(query);
+
+		// conservative update: only the counters that are at the current estimate are raised
+		int estimate = MAX_COUNT;
+		for (int row = 0; row < DEPTH; ++row)
+			estimate = Math.min(estimate,sketch[row][columns[row]] & 0xFF);
+		if (estimate < MAX_COUNT)
+		{
+			for (int row = 0; row < DEPTH; ++row)
+			{
+				if ((sketch[row][columns[row]] & 0xFF) == estimate)
+					sketch[row][columns[row]] = (byte)(estimate + 1);
+			}
+		}
+
+		long count = count(columns,day);
+		if (count >= threshold)
+		{
+			// moved to the end of the list, it is the newest now
+			heavyHitters.remove(query);
+			heavyHitters.put(query,time);
+			if (heavyHitters.size() > MAX_HEAVY_HITTERS)
+				heavyHitters.remove(heavyHitters.keySet().iterator().next());
+		}
+		return count;
+	}
+
+	// true if the query reached the threshold in the last rangeDays days
+	public synchronized boolean isTrending(String query, long time)
+	{
+		Long reached = heavyHitters.get(query);
+		if (reached == null)
+			return false;
+		if (time - reached > rangeDays * MILLIS_PER_DAY)
+		{
+			heavyHitters.remove(query);
+			return false;
+		}
+		return true;
+	}
+
+	// the estimated number of searches of the query in the window that ends at the time
+	public synchronized long count(String query, long time)
+	{
+		return count(columns(query),Math.floorDiv(time,MILLIS_PER_DAY));
+	}
+
+	public synchronized int getHeavyHitterCount(){ return heavyHitters.size(); }
+
+	private long count(int [] columns, long day)
+	{
+		long count = 0;
+		for (int i = 0; i < sketches.length; ++i)
+		{
+			if (sketchDays[i] < day - windowDays || sketchDays[i] > day)
+				continue;
+			int estimate = MAX_COUNT;
+			for (int row = 0; row < DEPTH; ++row)
+				estimate = Math.min(estimate,sketches[i][row][columns[row]] & 0xFF);
+			count += estimate;
+		}
+		return count;
+	}
+
+	// returns the sketch of the day, clearing it first if it still has the counts of a day that left the window
+	private byte [][] sketchFor(long day)
+	{
+		int i = (int) Math.floorMod(day,(long) sketches.length);
+		if (sketchDays[i] != day)
+		{
+			for (byte [] row : sketches[i])
+				Arrays.fill(row,(byte)0);
+			sketchDays[i] = day;
+		}
+		return sketches[i];
+	}
+
+	// the counter of the query in each row. Two 32 bit halves of a 64 bit FNV-1a hash make the DEPTH hashes ( h1 + row * h2 )
+	private static int [] columns(String query)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < query.length(); ++i)
+		{
+			hash ^= query.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		int h1 = (int) hash;
+		int h2 = (int)(hash >>> 32) | 1;
+		int [] columns = new int[DEPTH];
+		for (int row = 0; row < DEPTH; ++row)
+			columns[row] = (h1 + row * h2) & (WIDTH - 1);
+		return columns;
+	}
+
+/*------------------------------------------------------------------------------------
+	- Saving and loading
+-------------------------------------------------------------------------------------*/
+	// adds count searches of the query at the time without checking the threshold, used to load the old text file
+	public synchronized void addCount(String query, long time, int count)
+	{
+		byte [][] sketch = sketchFor(Math.floorDiv(time,MILLIS_PER_DAY));
+		int [] columns = columns(query);
+		for (int row = 0; row < DEPTH; ++row)
+			sketch[row][columns[row]] = (byte) Math.min(MAX_COUNT,(sketch[row][columns[row]] & 0xFF) + count);
+	}
+
+	// marks the query as reaching the threshold at the time, used to load the old text file
+	public synchronized void addHeavyHitter(String query, long time)
+	{
+		heavyHitters.put(query,time);
+	}
+
+	public synchronized void write(String fileName) throws IOException
+	{
+		File tmp = new File(fileName + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file,1 << 16));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(sketches.length);
+		out.writeInt(DEPTH);
+		out.writeInt(WIDTH);
+		for (int i = 0; i < sketches.length; ++i)
+		{
+			out.writeLong(sketchDays[i]);
+			int nonZero = 0;
+			for (byte [] row : sketches[i])
+				for (byte value : row)
+					if (value != 0)
+						nonZero++;
+			out.writeInt(nonZero);
+			if (nonZero * 5 < DEPTH * WIDTH)
+			{
+				for (int row = 0; row < DEPTH; ++row)
+				{
+					for (int column = 0; column < WIDTH; ++column)
+					{
+						if (sketches[i][row][column] != 0)
+						{
+							out.writeInt(row * WIDTH + column);
+							out.writeByte(sketches[i][row][column]);
+						}
+					}
+				}
+			}
+			else
+			{
+				for (byte [] row : sketches[i])
+					out.write(row);
+			}
+		}
+		out.writeInt(heavyHitters.size());
+		for (Map.Entry<String,Long> entry : heavyHitters.entrySet())
+		{
+			out.writeUTF(entry.getKey());
+			out.writeLong(entry.getValue());
+		}
+		out.flush();
+		file.getFD().sync();
+		out.close();
+		Files.move(tmp.toPath(),Paths.get(fileName),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// reads the file into this, which must have the same window. Throws if the file was written with other settings
+	public synchronized void read(String fileName) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName),1 << 16));
+		try{
+			if (in.readInt() != MAGIC)
+				throw new IOException(fileName + " is not a trending queries file");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported trending queries version " + version + " in " + fileName);
+			if (in.readInt() != sketches.length || in.readInt() != DEPTH || in.readInt() != WIDTH)
+				throw new IOException(fileName + " was written with another window or sketch size");
+
+			for (int i = 0; i < sketches.length; ++i)
+			{
+				sketchDays[i] = in.readLong();
+				int nonZero = in.readInt();
+				if (nonZero * 5 < DEPTH * WIDTH)
+				{
+					for (int j = 0; j < nonZero; ++j)
+					{
+						int position = in.readInt();
+						sketches[i][position / WIDTH][position % WIDTH] = in.readByte();
+					}
+				}
+				else
+				{
+					for (byte [] row : sketches[i])
+						in.readFully(row);
+				}
+			}
+			int count = in.readInt();
+			for (int i = 0; i < count; ++i)
+			{
+				String query = in.readUTF();
+				heavyHitters.put(query,in.readLong());
+			}
+		}
+		finally{
+			in.close();
+		}
+	}
+}
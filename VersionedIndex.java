@@ -0,0 +1,166 @@
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+
+/*------------------------------------------------------------------------------------
+	- Versioned index for a collection that is the revisions of one article ( IndexBuilder -versioned )
+	- The revisions are numbered in date order, the docId of a document is its revision number
+	- A term that is in consecutive revisions with the same freq is stored once, as an interval posting:
+	  first revision, last revision and freq. Terms that are never edited are one posting for the whole history,
+	  so the index grows with the number of edits instead of the number of revisions
+	- A change of the freq of a term ends its interval and starts a new one
+	- versioned.bin holds the intervals of each term: the gaps between the starts, the interval lengths, then the freqs,
+	  all variable byte
+	- versionedLexicon.bin has the same format as lexicon.bin, the count of a term is its number of intervals
+-------------------------------------------------------------------------------------*/
+public class VersionedIndex
+{
+	public static final String postingsFileName = "versioned.bin";
+	public static final String lexiconFileName = "versionedLexicon.bin";
+
+	private HashMap<String,IntervalList> terms = new HashMap<String,IntervalList>();
+
+
+	// the intervals of the term, or null if the term is in no revision
+	public IntervalList get(String term){ return terms.get(term); }
+
+	public int getTermCount(){ return terms.size(); }
+
+/*------------------------------------------------------------------------------------
+	- Reads the versioned index in the directory. The intervals are small, so they are all decoded up front
+-------------------------------------------------------------------------------------*/
+	public static VersionedIndex read(String dir) throws IOException
+	{
+		VersionedIndex index = new VersionedIndex();
+		ArrayList<BinaryIndex.LexiconEntry> entries = BinaryIndex.readLexicon(dir + lexiconFileName);
+		ByteBuffer postings = BinaryIndex.readPostings(dir + postingsFileName);
+		for (BinaryIndex.LexiconEntry entry : entries)
+		{
+			postings.position((int)entry.offset);
+			// terms are lower cased the same way as the other index formats
+			index.terms.put(entry.term.toLowerCase(),decode(postings,entry.docCount));
+		}
+		return index;
+	}
+
+	// decodes count intervals starting at the current position of buf
+	public static IntervalList decode(ByteBuffer buf, int count)
+	{
+		IntervalList list = new IntervalList(count);
+		int start = 0;
+		for (int i = 0; i < count; ++i)
+		{
+			start += BinaryIndex.readVByte(buf);
+			list.starts[i] = start;
+		}
+		for (int i = 0; i < count; ++i)
+			list.ends[i] = list.starts[i] + BinaryIndex.readVByte(buf);
+		for (int i = 0; i < count; ++i)
+			list.freqs[i] = BinaryIndex.readVByte(buf);
+		return list;
+	}
+
+/*------------------------------------------------------------------------------------
+	- The intervals of one term, in revision order. The intervals of a term never overlap
+-------------------------------------------------------------------------------------*/
+	public static class IntervalList
+	{
+		public int [] starts; // first revision of each interval
+		public int [] ends; // last revision of each interval, included
+		public int [] freqs;
+		public int count;
+
+		public IntervalList(int count)
+		{
+			this.starts = new int[count];
+			this.ends = new int[count];
+			this.freqs = new int[count];
+			this.count = count;
+		}
+
+		// returns the interval that has the revision, or -1 if the term is not in that revision. Binary search on the starts
+		public int find(int revision)
+		{
+			int lo = 0;
+			int hi = count - 1;
+			while (lo <= hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (starts[mid] <= revision)
+					lo = mid + 1;
+				else
+					hi = mid - 1;
+			}
+			return hi >= 0 && ends[hi] >= revision ? hi : -1;
+		}
+
+		// the number of revisions that have the term, the postings the list would have in the regular index
+		public int getPostingCount()
+		{
+			int postings = 0;
+			for (int i = 0; i < count; ++i)
+				postings += ends[i] - starts[i] + 1;
+			return postings;
+		}
+	}
+
+/*------------------------------------------------------------------------------------
+	- Turns the postings of each term into intervals and writes them
+-------------------------------------------------------------------------------------*/
+	public static class Writer
+	{
+		private BinaryIndex.Writer writer;
+		private ByteArrayOutputStream block = new ByteArrayOutputStream(); // the encoded intervals of the current term
+		private long postingCount = 0;
+		private long intervalCount = 0;
+
+		public Writer(String dir) throws IOException
+		{
+			this.writer = new BinaryIndex.Writer(dir + postingsFileName,dir + lexiconFileName);
+		}
+
+		public long getPostingCount(){ return postingCount; }
+		public long getIntervalCount(){ return intervalCount; }
+
+		// writes the postings of the term as intervals. The revisions must be in increasing order
+		public void addTerm(String term, int [] revisions, int [] freqs, int count) throws IOException
+		{
+			// a posting extends the last interval if it is the next revision and has the same freq
+			IntervalList list = new IntervalList(count);
+			int intervals = 0;
+			for (int i = 0; i < count; ++i)
+			{
+				if (intervals > 0 && list.ends[intervals - 1] == revisions[i] - 1 && list.freqs[intervals - 1] == freqs[i])
+					list.ends[intervals - 1] = revisions[i];
+				else
+				{
+					list.starts[intervals] = list.ends[intervals] = revisions[i];
+					list.freqs[intervals] = freqs[i];
+					intervals++;
+				}
+			}
+
+			block.reset();
+			int last = 0;
+			for (int i = 0; i < intervals; ++i)
+			{
+				BinaryIndex.writeVByte(block,list.starts[i] - last);
+				last = list.starts[i];
+			}
+			for (int i = 0; i < intervals; ++i)
+				BinaryIndex.writeVByte(block,list.ends[i] - list.starts[i]);
+			for (int i = 0; i < intervals; ++i)
+				BinaryIndex.writeVByte(block,list.freqs[i]);
+			writer.addBlock(term,intervals,block);
+
+			postingCount += count;
+			intervalCount += intervals;
+		}
+
+		public void close() throws IOException
+		{
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package bench;
+
+import java.util.function.LongSupplier;
+
+
+/*------------------------------------------------------------------------------------
+	- Creates the fixtures of BenchmarkFixtures by name. The search engine is in the default package, which the
+	  benchmarks ( JMH needs them in a package ) can not import, so the fixture is looked up once in the setup
+	  and every operation is a plain interface call
+-------------------------------------------------------------------------------------*/
+public class Fixtures
+{
+	public static LongSupplier create(String name, String... params) throws Exception
+	{
+		Class<?> fixture = Class.forName("BenchmarkFixtures$" + name);
+		return (LongSupplier) fixture.getConstructor(String[].class).newInstance((Object) params);
+	}
+}
@@ -0,0 +1,42 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Conjunctive intersection of a rare and a common posting list with nextGEQ, the inner loop of runDAAT
+	- The lists are synthetic, the rare fraction makes them more or less skewed
+-------------------------------------------------------------------------------------*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark
+{
+	@Param({"100000", "1000000"})
+	public String documents;
+
+	@Param({"0.0005", "0.005", "0.05"})
+	public String rareFraction;
+
+	@Param({"0.5"})
+	public String commonFraction;
+
+	private LongSupplier intersection;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		intersection = Fixtures.create("Intersection",documents,rareFraction,commonFraction);
+	}
+
+	@Benchmark
+	public long intersect()
+	{
+		return intersection.getAsLong();
+	}
+}
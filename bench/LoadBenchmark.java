@@ -0,0 +1,52 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Startup cost of QueryProcessor on the synthetic corpus: readInvertedIndex on index.txt, parsing urlTable.txt,
+	  and mapping docStore.bin
+-------------------------------------------------------------------------------------*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark
+{
+	@Param({"1000", "10000"})
+	public String documents;
+
+	private LongSupplier index;
+	private LongSupplier urlTable;
+	private LongSupplier docStore;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		index = Fixtures.create("Load",documents,"index");
+		urlTable = Fixtures.create("Load",documents,"urlTable");
+		docStore = Fixtures.create("Load",documents,"docStore");
+	}
+
+	@Benchmark
+	public long readInvertedIndex()
+	{
+		return index.getAsLong();
+	}
+
+	@Benchmark
+	public long readUrlTable()
+	{
+		return urlTable.getAsLong();
+	}
+
+	@Benchmark
+	public long openDocStore()
+	{
+		return docStore.getAsLong();
+	}
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+
+/*------------------------------------------------------------------------------------
+	- bm25 of every posting of the most common terms of the synthetic corpus ( InvertedIndex.score, no impacts )
+-------------------------------------------------------------------------------------*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark
+{
+	@Param({"1000", "10000"})
+	public String documents;
+
+	@Param({"20"})
+	public String terms;
+
+	private LongSupplier scoring;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		scoring = Fixtures.create("Scoring",documents,terms);
+	}
+
+	@Benchmark
+	public long bm25()
+	{
+		return scoring.getAsLong();
+	}
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+
+/*------------------------------------------------------------------------------------
+	- IndexBuilder on every document of the synthetic corpus: tokenize only adds the words of the text that was
+	  taken out of the html in the setup, indexDocuments also reads the html files with HtmlExtractor, and
+	  indexDocumentsDom parses them into the Jsoup DOM instead ( IndexBuilder -dom )
+	- The corpus has about 400 words per document, so the tokens per second are documents * 400 / the time
+-------------------------------------------------------------------------------------*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizeBenchmark
+{
+	@Param({"1000", "10000"})
+	public String documents;
+
+	private LongSupplier tokenize;
+	private LongSupplier indexDocuments;
+	private LongSupplier indexDocumentsDom;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		tokenize = Fixtures.create("Tokenize",documents);
+		indexDocuments = Fixtures.create("IndexDocuments",documents,"extractor");
+		indexDocumentsDom = Fixtures.create("IndexDocuments",documents,"dom");
+	}
+
+	@Benchmark
+	public long tokenize()
+	{
+		return tokenize.getAsLong();
+	}
+
+	@Benchmark
+	public long indexDocuments()
+	{
+		return indexDocuments.getAsLong();
+	}
+
+	@Benchmark
+	public long indexDocumentsDom()
+	{
+		return indexDocumentsDom.getAsLong();
+	}
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Adding scored candidates to the TopK heap of a search
+	- ascending is the worst case, every candidate replaces the worst result. descending is the best, after the
+	  first k no candidate gets in
+-------------------------------------------------------------------------------------*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopKBenchmark
+{
+	@Param({"10", "100", "1000"})
+	public String k;
+
+	@Param({"100000"})
+	public String candidates;
+
+	@Param({"random", "ascending", "descending"})
+	public String order;
+
+	private LongSupplier heap;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		heap = Fixtures.create("TopKHeap",k,candidates,order);
+	}
+
+	@Benchmark
+	public long add()
+	{
+		return heap.getAsLong();
+	}
+}
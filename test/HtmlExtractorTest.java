@@ -0,0 +1,27 @@
+import java.io.*;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+/*------------------------------------------------------------------------------------
+	- Runs HtmlExtractorCheck in mvn test, so a page the extractor reads differently from Jsoup or a Jsoup version
+	  the rules were not checked against fails the build
+	- The pages of New_York/ are compared when it is there, the generated ones always. A different page is kept in target/
+-------------------------------------------------------------------------------------*/
+public class HtmlExtractorTest
+{
+	@Test
+	public void jsoupVersion()
+	{
+		assertEquals("HtmlExtractor follows another Jsoup than the one in pom.xml, check its rules against the new version"
+			+ " with HtmlExtractorCheck and update HtmlExtractor.JSOUP_VERSION",HtmlExtractor.JSOUP_VERSION,HtmlExtractor.jsoupVersion());
+	}
+
+	@Test
+	public void sameAsJsoup() throws IOException
+	{
+		File target = new File("target");
+		target.mkdirs();
+		assertTrue("HtmlExtractor and Jsoup differ, see the output",HtmlExtractorCheck.check(new File("New_York"),5000,42,target));
+	}
+}